@@ -1,24 +1,104 @@
 package ru.mail.polis;
 
-import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Comparator;
-import java.util.List;
+import java.util.Iterator;
 import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Spliterator;
 
 
 
-public class AVLTree<E extends Comparable<E>> implements ISortedSet<E> {
+public class AVLTree<E extends Comparable<E>> implements IOrderStatisticSet<E> {
+
+    private static final SetStats STATS = SetStats.of(AVLTree.class);
 
     private Node root;
     private int size;
     private final Comparator<E> comparator;
+    /**
+     * {@link #comparator}, or natural ordering if it is null, resolved once: a comparison is one call
+     */
+    private final Comparator<E> order;
+    /**
+     * comparisons and rotations of the current operation, counted only if {@link SetStats#ENABLED}
+     */
+    private int comparisons;
+    private int rotations;
+    private final SetAlgebra.JoinAccess<Node, E> nodes = new SetAlgebra.JoinAccess<Node, E>() {
+        @Override
+        public Node left(Node node) {
+            return node.left;
+        }
+
+        @Override
+        public Node right(Node node) {
+            return node.right;
+        }
+
+        @Override
+        public E value(Node node) {
+            return node.value;
+        }
+
+        @Override
+        public int compare(E v1, E v2) {
+            return AVLTree.this.compare(v1, v2);
+        }
+
+        @Override
+        public int size(Node tree) {
+            return AVLTree.this.size(tree);
+        }
+
+        @Override
+        public SetAlgebra.Split<Node> split(Node tree, E value) {
+            return AVLTree.this.split(tree, value);
+        }
+
+        @Override
+        public Node join(Node left, Node middle, Node right) {
+            return AVLTree.this.join(left, middle, right);
+        }
+
+        @Override
+        public Node copy(Node tree) {
+            return AVLTree.this.copy(tree, null);
+        }
+
+        @Override
+        public Node newNode(E value) {
+            return new Node(value, null);
+        }
+    };
 
     public AVLTree() {
         this.comparator = null;
+        this.order = Comparators.natural();
     }
 
     public AVLTree(Comparator<E> comparator) {
         this.comparator = comparator;
+        this.order = Comparators.resolve(comparator);
+    }
+
+    /**
+     * Builds a balanced tree from the values in O(n) if they are sorted, O(n log n) otherwise.
+     */
+    public static <E extends Comparable<E>> AVLTree<E> of(Collection<? extends E> values) {
+        return of(values, null);
+    }
+
+    /**
+     * Builds a balanced tree from the values in O(n) if they are sorted, O(n log n) otherwise.
+     *
+     * @param comparator ordering of the tree, null for natural ordering
+     */
+    public static <E extends Comparable<E>> AVLTree<E> of(Collection<? extends E> values, Comparator<E> comparator) {
+        AVLTree<E> tree = new AVLTree<>(comparator);
+        tree.addAll(values);
+        return tree;
     }
 
     @Override
@@ -46,19 +126,187 @@ public class AVLTree<E extends Comparable<E>> implements ISortedSet<E> {
     }
 
     @Override
-    public List<E> inorderTraverse() {
-        List<E> list = new ArrayList<>(size);
-        inorderTraverse(root, list);
-        return list;
+    public Comparator<? super E> comparator() {
+        return comparator;
+    }
+
+    @Override
+    public E floor(E value) {
+        return nodes.below(root, value, true);
+    }
+
+    @Override
+    public E ceiling(E value) {
+        return nodes.above(root, value, true);
+    }
+
+    @Override
+    public E lower(E value) {
+        return nodes.below(root, value, false);
+    }
+
+    @Override
+    public E higher(E value) {
+        return nodes.above(root, value, false);
+    }
+
+    /**
+     * Walks the tree through parent links: constant extra memory.
+     */
+    @Override
+    public Iterator<E> iterator() {
+        return new NodeIterator(root == null ? null : leftmost(root), null, false);
+    }
+
+    @Override
+    public Iterator<E> iterator(E from, boolean fromInclusive, E to, boolean toInclusive) {
+        if (from != null && to != null && compare(from, to) > 0) {
+            throw new IllegalArgumentException("from > to");
+        }
+        Node start;
+        if (from == null) {
+            start = root == null ? null : leftmost(root);
+        } else {
+            start = null;
+            Node curr = root;
+            while (curr != null) {
+                int cmp = compare(curr.value, from);
+                if (cmp == 0 && fromInclusive) {
+                    start = curr;
+                    break;
+                } else if (cmp > 0) {
+                    start = curr;
+                    curr = curr.left;
+                } else {
+                    curr = curr.right;
+                }
+            }
+        }
+        return new NodeIterator(start, to, toInclusive);
+    }
+
+    private class NodeIterator implements Iterator<E> {
+        private final E to;
+        private final boolean toInclusive;
+        private Node next;
+
+        NodeIterator(Node start, E to, boolean toInclusive) {
+            this.to = to;
+            this.toInclusive = toInclusive;
+            this.next = bounded(start);
+        }
+
+        private Node bounded(Node n) {
+            if (n == null || to == null) {
+                return n;
+            }
+            int cmp = compare(n.value, to);
+            return cmp < 0 || cmp == 0 && toInclusive ? n : null;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next != null;
+        }
+
+        @Override
+        public E next() {
+            if (next == null) {
+                throw new NoSuchElementException();
+            }
+            Node curr = next;
+            next = bounded(successor(curr));
+            return curr.value;
+        }
+    }
+
+    @Override
+    public Spliterator<E> spliterator() {
+        return new SubtreeSpliterator<>(root, size, comparator, nodes);
+    }
+
+    private Node leftmost(Node n) {
+        while (n.left != null) {
+            n = n.left;
+        }
+        return n;
+    }
+
+    private Node successor(Node n) {
+        if (n.right != null) {
+            return leftmost(n.right);
+        }
+        Node parent = n.parent;
+        while (parent != null && n == parent.right) {
+            n = parent;
+            parent = parent.parent;
+        }
+        return parent;
+    }
+
+    @Override
+    public E select(int k) {
+        if (k < 0 || k >= size()) {
+            throw new IndexOutOfBoundsException("k = " + k + ", size = " + size());
+        }
+        Node n = root;
+        while (true) {
+            int left = size(n.left);
+            if (k < left) {
+                n = n.left;
+            } else if (k > left) {
+                k -= left + 1;
+                n = n.right;
+            } else {
+                return n.value;
+            }
+        }
+    }
+
+    @Override
+    public int rank(E value) {
+        return countBelow(value, false);
     }
 
-    private void inorderTraverse(Node curr, List<E> list) {
-        if (curr==null) {
-            return;
+    @Override
+    public int countInRange(E from, boolean fromInclusive, E to, boolean toInclusive) {
+        if (from == null || to == null) {
+            throw new NullPointerException("bound is null");
+        }
+        if (compare(from, to) > 0) {
+            return 0;
         }
-        inorderTraverse(curr.left, list);
-        list.add(curr.value);
-        inorderTraverse(curr.right, list);
+        return Math.max(0, countBelow(to, toInclusive) - countBelow(from, !fromInclusive));
+    }
+
+    /**
+     * @return the number of elements less than {@code value} (or equal to it if {@code inclusive})
+     */
+    private int countBelow(E value, boolean inclusive) {
+        if (value == null) {
+            throw new NullPointerException("value is null");
+        }
+        int count = 0;
+        Node n = root;
+        while (n != null) {
+            int cmp = compare(n.value, value);
+            if (cmp < 0) {
+                count += size(n.left) + 1;
+                n = n.right;
+            } else if (cmp > 0) {
+                n = n.left;
+            } else {
+                return count + size(n.left) + (inclusive ? 1 : 0);
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @return the number of levels, 0 for an empty tree
+     */
+    public int height() {
+        return height(root);
     }
 
     @Override
@@ -73,13 +321,23 @@ public class AVLTree<E extends Comparable<E>> implements ISortedSet<E> {
 
     @Override
     public boolean contains(E value) {
+        if (!SetStats.ENABLED) {
+            return find(value);
+        }
+        comparisons = 0;
+        boolean found = find(value);
+        STATS.lookup(comparisons);
+        return found;
+    }
+
+    private boolean find(E value) {
         if (value==null) {
             throw new NullPointerException();
         }
 
         Node curr=root;
         while (curr!=null) {
-            int comp=value.compareTo(curr.value);
+            int comp=compare(value, curr.value);
             if (comp<0) {
                 curr = curr.left;
             }
@@ -95,61 +353,92 @@ public class AVLTree<E extends Comparable<E>> implements ISortedSet<E> {
 
     @Override
     public boolean add(E value) {
-        if (contains(value)) {
-            return false;
+        if (!SetStats.ENABLED) {
+            return insert(value);
         }
+        comparisons = 0;
+        rotations = 0;
+        boolean added = insert(value);
+        STATS.insert(comparisons, rotations);
+        return added;
+    }
 
-        if (root==null) {
+    private boolean insert(E value) {
+        if (value == null) {
+            throw new NullPointerException("value is null");
+        }
+        if (root == null) {
             root = new Node(value, null);
+            size++;
+            return true;
         }
-        else {
-            Node curr = root;
-            Node parent;
-            while (true) {
-                if (curr.value == value)
-                    return false;
-
-                parent = curr;
-
-                int comp = compare(value, curr.value);
-                curr = comp==1 ? curr.right : curr.left;
-
-                if (curr == null) {
-                    if (comp==-1) {
-                        parent.left = new Node(value, parent);
-                    } else {
-                        parent.right = new Node(value, parent);
-                    }
-                    rebalance(parent);
-                    break;
+        // one descent: it either meets the value or ends at the parent of the new leaf
+        Node parent = root;
+        while (true) {
+            int comp = compare(value, parent.value);
+            if (comp == 0) {
+                return false;
+            }
+            Node next = comp < 0 ? parent.left : parent.right;
+            if (next == null) {
+                if (comp < 0) {
+                    parent.left = new Node(value, parent);
+                } else {
+                    parent.right = new Node(value, parent);
                 }
+                break;
             }
+            parent = next;
         }
+        rebalance(parent);
         size++;
         return true;
     }
 
+    /**
+     * Walks from {@code n} towards the root restoring heights and AVL balance.
+     * Once a subtree comes out with the height it had before no rotation above it can happen,
+     * and only the subtree sizes on the rest of the path are left to fix.
+     */
     private void rebalance(Node n) {
-        setBalance(n);
+        while (n != null) {
+            int oldHeight = n.height;
+            n = balanced(n);
+
+            if (n.parent == null) {
+                root = n;
+            }
+            if (n.height == oldHeight) {
+                for (n = n.parent; n != null; n = n.parent) {
+                    n.size = 1 + size(n.left) + size(n.right);
+                }
+                return;
+            }
+            n = n.parent;
+        }
+    }
 
-        if (n.balance == -2 && n.left!=null) {
-            if (height(n.left.left) >= height(n.left.right))
+    /**
+     * Updates {@code n} from its children and rotates it if they differ in height by 2.
+     *
+     * @return the node that took the place of {@code n}
+     */
+    private Node balanced(Node n) {
+        update(n);
+        int balance = balance(n);
+        if (balance == 2) {
+            if (balance(n.left) >= 0)
                 n = rotateRight(n);
             else
                 n = rotateLeftThenRight(n);
 
-        } else if (n.balance == 2 && n.right!=null) {
-            if (height(n.right.right) >= height(n.right.left))
+        } else if (balance == -2) {
+            if (balance(n.right) <= 0)
                 n = rotateLeft(n);
             else
                 n = rotateRightThenLeft(n);
         }
-
-        if (n.parent != null) {
-            rebalance(n.parent);
-        } else {
-            root = n;
-        }
+        return n;
     }
 
     private Node rotateRightThenLeft(Node n) {
@@ -158,6 +447,9 @@ public class AVLTree<E extends Comparable<E>> implements ISortedSet<E> {
     }
 
     private Node rotateLeft(Node a) {
+        if (SetStats.ENABLED) {
+            rotations++;
+        }
         Node b = a.right;
         b.parent = a.parent;
 
@@ -177,7 +469,8 @@ public class AVLTree<E extends Comparable<E>> implements ISortedSet<E> {
             }
         }
 
-        setBalance(a, b);
+        update(a);
+        update(b);
 
         return b;
     }
@@ -188,6 +481,9 @@ public class AVLTree<E extends Comparable<E>> implements ISortedSet<E> {
     }
 
     private Node rotateRight(Node a) {
+        if (SetStats.ENABLED) {
+            rotations++;
+        }
         Node b = a.left;
         b.parent = a.parent;
 
@@ -207,63 +503,312 @@ public class AVLTree<E extends Comparable<E>> implements ISortedSet<E> {
             }
         }
 
-        setBalance(a, b);
+        update(a);
+        update(b);
 
         return b;
     }
 
-
     private int height(Node n) {
-        if (n == null)
-            return -1;
-        return 1 + Math.max(height(n.left), height(n.right));
+        return n == null ? 0 : n.height;
+    }
+
+    private int size(Node n) {
+        return n == null ? 0 : n.size;
+    }
+
+    private int balance(Node n) {
+        return height(n.left) - height(n.right);
+    }
+
+    private void update(Node n) {
+        n.height = 1 + Math.max(height(n.left), height(n.right));
+        n.size = 1 + size(n.left) + size(n.right);
+    }
+
+    @Override
+    public boolean containsAll(E[] values, boolean[] out) {
+        return nodes.containsAll(root, values, out);
     }
 
-    private void setBalance(Node... nodes) {
-        for (Node n : nodes) {
-            n.balance = height(n.left) - height(n.right);
+    /**
+     * A batch that is large compared to the tree is bulk-loaded like {@link #addAll(Collection)};
+     * a smaller one is inserted in sorted order, so consecutive inserts walk mostly the same, already cached path.
+     */
+    @Override
+    public boolean addAll(E[] values) {
+        if (SortedArrays.worthRebuilding(size, values.length)) {
+            SortedArrays.checkNotNull(values);
+            return addAll(Arrays.asList(values));
+        }
+        boolean changed = false;
+        for (E value : SortedArrays.sorted(values, this::compare)) {
+            changed |= add(value);
         }
+        return changed;
     }
 
+    /**
+     * A batch that is large compared to the tree is bulk-loaded into a tree of its own and subtracted
+     * with {@link #difference}; a smaller one is removed in sorted order.
+     */
     @Override
-    public boolean remove(E value) {
-        if (!contains(value)) {
-            return false;
+    public boolean removeAll(E[] values) {
+        if (SortedArrays.worthRebuilding(size, values.length)) {
+            SortedArrays.checkNotNull(values);
+            return difference(of(Arrays.asList(values), comparator));
         }
-        Node n = root;
-        Node parent = root;
-        Node delNode = null;
-        Node child = root;
+        boolean changed = false;
+        for (E value : SortedArrays.sorted(values, this::compare)) {
+            changed |= remove(value);
+        }
+        return changed;
+    }
+
+    /**
+     * Sorts the batch, merges it with the elements already here and rebuilds the tree balanced
+     * bottom-up, unless the batch is small compared to the tree.
+     */
+    @Override
+    public boolean addAll(Collection<? extends E> values) {
+        if (!SortedArrays.worthRebuilding(size, values.size())) {
+            return IOrderStatisticSet.super.addAll(values);
+        }
+        Object[] sorted = SortedArrays.sortedDistinct(values, this::compare);
+        if (root != null) {
+            sorted = SortedArrays.merge(SortedArrays.toArray(this), sorted, this::compare);
+        }
+        int oldSize = size;
+        root = build(sorted, 0, sorted.length, null);
+        size = sorted.length;
+        return sorted.length != oldSize;
+    }
+
+    /**
+     * Builds a perfectly balanced tree from {@code sorted[from, to)}: the middle element goes to the root,
+     * heights and sizes are set on the way back up.
+     */
+    @SuppressWarnings("unchecked")
+    private Node build(Object[] sorted, int from, int to, Node parent) {
+        if (from == to) {
+            return null;
+        }
+        int mid = (from + to) >>> 1;
+        Node node = new Node((E) sorted[mid], parent);
+        node.left = build(sorted, from, mid, node);
+        node.right = build(sorted, mid + 1, to, node);
+        update(node);
+        return node;
+    }
+
+    @Override
+    public boolean union(ISortedSet<E> other) {
+        return joinable(other) ? combine(SetAlgebra.Operation.UNION, (AVLTree<E>) other, false)
+                : IOrderStatisticSet.super.union(other);
+    }
+
+    @Override
+    public boolean intersect(ISortedSet<E> other) {
+        return joinable(other) ? combine(SetAlgebra.Operation.INTERSECT, (AVLTree<E>) other, false)
+                : IOrderStatisticSet.super.intersect(other);
+    }
+
+    @Override
+    public boolean difference(ISortedSet<E> other) {
+        return joinable(other) ? combine(SetAlgebra.Operation.DIFFERENCE, (AVLTree<E>) other, false)
+                : IOrderStatisticSet.super.difference(other);
+    }
+
+    @Override
+    public boolean parallelUnion(ISortedSet<E> other) {
+        return joinable(other) ? combine(SetAlgebra.Operation.UNION, (AVLTree<E>) other, true)
+                : IOrderStatisticSet.super.union(other);
+    }
+
+    @Override
+    public boolean parallelIntersect(ISortedSet<E> other) {
+        return joinable(other) ? combine(SetAlgebra.Operation.INTERSECT, (AVLTree<E>) other, true)
+                : IOrderStatisticSet.super.intersect(other);
+    }
+
+    @Override
+    public boolean parallelDifference(ISortedSet<E> other) {
+        return joinable(other) ? combine(SetAlgebra.Operation.DIFFERENCE, (AVLTree<E>) other, true)
+                : IOrderStatisticSet.super.difference(other);
+    }
+
+    /**
+     * Split/join only works between trees of the same kind and ordering; anything else is iterated.
+     */
+    private boolean joinable(ISortedSet<E> other) {
+        return other instanceof AVLTree && Objects.equals(comparator, ((AVLTree<E>) other).comparator);
+    }
+
+    private boolean combine(SetAlgebra.Operation op, AVLTree<E> other, boolean parallel) {
+        int oldSize = size;
+        if (other == this) {
+            if (op == SetAlgebra.Operation.DIFFERENCE) {
+                root = null;
+                size = 0;
+            }
+        } else {
+            root = SetAlgebra.combine(op, root, other.root, parallel, nodes);
+            size = size(root);
+        }
+        return size != oldSize;
+    }
+
+    /**
+     * Splits a detached tree into the trees of values less and greater than {@code value}, taking it apart.
+     */
+    private SetAlgebra.Split<Node> split(Node tree, E value) {
+        if (tree == null) {
+            return new SetAlgebra.Split<>(null, null, null);
+        }
+        Node left = detach(tree.left);
+        Node right = detach(tree.right);
+        int cmp = compare(value, tree.value);
+        if (cmp == 0) {
+            return new SetAlgebra.Split<>(left, tree, right);
+        } else if (cmp < 0) {
+            SetAlgebra.Split<Node> split = split(left, value);
+            return new SetAlgebra.Split<>(split.left, split.found, join(split.right, tree, right));
+        } else {
+            SetAlgebra.Split<Node> split = split(right, value);
+            return new SetAlgebra.Split<>(join(left, tree, split.left), split.found, split.right);
+        }
+    }
+
+    private Node detach(Node n) {
+        if (n != null) {
+            n.parent = null;
+        }
+        return n;
+    }
+
+    /**
+     * Joins two detached trees with every value of {@code left} less than {@code middle} and every
+     * value of {@code right} greater: walks down the spine of the taller tree to a subtree of about
+     * the height of the other one, links them under {@code middle} and rebalances on the way back.
+     */
+    private Node join(Node left, Node middle, Node right) {
+        Node tree;
+        if (height(left) > height(right) + 1) {
+            tree = joinRight(left, middle, right);
+        } else if (height(right) > height(left) + 1) {
+            tree = joinLeft(left, middle, right);
+        } else {
+            tree = link(left, middle, right);
+        }
+        tree.parent = null;
+        return tree;
+    }
+
+    private Node joinRight(Node left, Node middle, Node right) {
+        if (height(left) <= height(right) + 1) {
+            return link(left, middle, right);
+        }
+        Node joined = joinRight(left.right, middle, right);
+        left.right = joined;
+        joined.parent = left;
+        return balanced(left);
+    }
 
-        while (child != null) {
-            parent = n;
-            n = child;
-            child = compare(value, n.value)>0 ? n.right : n.left;
-            if (value == n.value)
-                delNode = n;
+    private Node joinLeft(Node left, Node middle, Node right) {
+        if (height(right) <= height(left) + 1) {
+            return link(left, middle, right);
         }
+        Node joined = joinLeft(left, middle, right.left);
+        right.left = joined;
+        joined.parent = right;
+        return balanced(right);
+    }
+
+    private Node link(Node left, Node middle, Node right) {
+        middle.left = left;
+        middle.right = right;
+        if (left != null) {
+            left.parent = middle;
+        }
+        if (right != null) {
+            right.parent = middle;
+        }
+        update(middle);
+        return middle;
+    }
 
-        if (delNode != null) {
-            delNode.value = n.value;
+    private Node copy(Node n, Node parent) {
+        if (n == null) {
+            return null;
+        }
+        Node copy = new Node(n.value, parent);
+        copy.height = n.height;
+        copy.size = n.size;
+        copy.left = copy(n.left, copy);
+        copy.right = copy(n.right, copy);
+        return copy;
+    }
 
-            child = n.left != null ? n.left : n.right;
+    @Override
+    public boolean remove(E value) {
+        if (!SetStats.ENABLED) {
+            return delete(value);
+        }
+        comparisons = 0;
+        rotations = 0;
+        boolean removed = delete(value);
+        STATS.remove(comparisons, rotations);
+        return removed;
+    }
 
-            if (root.value == value) {
-                root = child;
+    private boolean delete(E value) {
+        if (value == null) {
+            throw new NullPointerException("value is null");
+        }
+        Node n = root;
+        int comp;
+        while (n != null && (comp = compare(value, n.value)) != 0) {
+            n = comp < 0 ? n.left : n.right;
+        }
+        if (n == null) {
+            return false;
+        }
+
+        if (n.left != null && n.right != null) {
+            Node next = n.right;
+            while (next.left != null) {
+                next = next.left;
+            }
+            n.value = next.value;
+            n = next;
+        }
+
+        Node child = n.left != null ? n.left : n.right;
+        Node parent = n.parent;
+        if (child != null) {
+            child.parent = parent;
+        }
+        if (parent == null) {
+            root = child;
+        } else {
+            if (parent.left == n) {
+                parent.left = child;
             } else {
-                if (parent.left == n) {
-                    parent.left = child;
-                } else {
-                    parent.right = child;
-                }
-                rebalance(parent);
+                parent.right = child;
             }
+            rebalance(parent);
         }
+        n.value = null;
+        n.parent = null;
+        size--;
         return true;
     }
 
     private int compare(E v1, E v2) {
-        return comparator == null ? v1.compareTo(v2) : comparator.compare(v1, v2);
+        if (SetStats.ENABLED) {
+            comparisons++;
+        }
+        return order.compare(v1, v2);
     }
 
     private class Node {
@@ -277,7 +822,8 @@ public class AVLTree<E extends Comparable<E>> implements ISortedSet<E> {
         Node left;
         Node right;
         Node parent;
-        int balance;
+        int height = 1;
+        int size = 1;
 
         @Override
         public String toString() {
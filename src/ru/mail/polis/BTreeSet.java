@@ -0,0 +1,634 @@
+package ru.mail.polis;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * B+ tree: wide nodes holding sorted arrays of keys, every element in a leaf, leaves linked in order.
+ * <p>
+ * A binary tree pays a cache miss per level, and a 10M-element set is over twenty levels deep.
+ * Here a lookup binary-searches one contiguous array per level instead, and with the default
+ * fan-out of 64 the same set is four levels deep. Scans walk the leaf links and never climb back up.
+ * <p>
+ * Inner nodes hold separators only: every element under {@code children[i]} is less than
+ * {@code keys[i]}, every element under {@code children[i + 1]} is greater than or equal to it.
+ * Both add and remove work top-down in one pass: the descent splits a full node before it enters
+ * it and refills a minimal one from a sibling, so a change never travels back up the tree.
+ */
+public class BTreeSet<E extends Comparable<E>> implements ISortedSet<E> {
+
+    public static final int DEFAULT_ORDER = 64;
+    private static final int MIN_ORDER = 4;
+
+    private static final class Node {
+        private final Object[] keys;
+        /**
+         * {@code count + 1} subtrees of an inner node, null in a leaf
+         */
+        private final Node[] children;
+        private int count;
+        /**
+         * neighbouring leaves, null at either end and in inner nodes
+         */
+        private Node prev, next;
+
+        private Node(int keys, int children) {
+            this.keys = new Object[keys];
+            this.children = children == 0 ? null : new Node[children];
+        }
+
+        private boolean isLeaf() {
+            return children == null;
+        }
+
+        private boolean isFull() {
+            return count == keys.length;
+        }
+    }
+
+    private final int order;
+    private final Comparator<E> comparator;
+    /**
+     * {@link #comparator}, or natural ordering if it is null, resolved once: a comparison is one call
+     */
+    private final Comparator<E> ordering;
+    private Node root;
+    private int size;
+
+    public BTreeSet() {
+        this(DEFAULT_ORDER, null);
+    }
+
+    public BTreeSet(Comparator<E> comparator) {
+        this(DEFAULT_ORDER, comparator);
+    }
+
+    public BTreeSet(int order) {
+        this(order, null);
+    }
+
+    /**
+     * @param order the most elements of a leaf and children of an inner node, at least 4
+     * @param comparator ordering of the set, null for natural ordering
+     */
+    public BTreeSet(int order, Comparator<E> comparator) {
+        if (order < MIN_ORDER) {
+            throw new IllegalArgumentException("order is less than " + MIN_ORDER + ": " + order);
+        }
+        this.order = order;
+        this.comparator = comparator;
+        this.ordering = Comparators.resolve(comparator);
+        this.root = newLeaf();
+    }
+
+    /**
+     * Builds a packed tree from the values in O(n) if they are sorted, O(n log n) otherwise.
+     */
+    public static <E extends Comparable<E>> BTreeSet<E> of(Collection<? extends E> values) {
+        return of(values, null);
+    }
+
+    /**
+     * Builds a packed tree from the values in O(n) if they are sorted, O(n log n) otherwise.
+     *
+     * @param comparator ordering of the set, null for natural ordering
+     */
+    public static <E extends Comparable<E>> BTreeSet<E> of(Collection<? extends E> values, Comparator<E> comparator) {
+        BTreeSet<E> set = new BTreeSet<>(comparator);
+        set.addAll(values);
+        return set;
+    }
+
+    private Node newLeaf() {
+        return new Node(order, 0);
+    }
+
+    private Node newInner() {
+        return new Node(order - 1, order);
+    }
+
+    /**
+     * A node other than the root never holds fewer keys than this: a leaf at least half of
+     * {@code order} elements, an inner node at least half of {@code order} children.
+     */
+    private int minKeys(Node n) {
+        return n.isLeaf() ? order / 2 : order / 2 - 1;
+    }
+
+    /**
+     * @return the number of levels, 1 for a single leaf
+     */
+    public int height() {
+        int height = 1;
+        for (Node n = root; !n.isLeaf(); n = n.children[0]) {
+            height++;
+        }
+        return height;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    @Override
+    public E first() {
+        if (size == 0) {
+            throw new NoSuchElementException("Set is empty");
+        }
+        return key(firstLeaf(), 0);
+    }
+
+    @Override
+    public E last() {
+        if (size == 0) {
+            throw new NoSuchElementException("Set is empty");
+        }
+        Node n = root;
+        while (!n.isLeaf()) {
+            n = n.children[n.count];
+        }
+        return key(n, n.count - 1);
+    }
+
+    @Override
+    public Comparator<? super E> comparator() {
+        return comparator;
+    }
+
+    @Override
+    public boolean contains(E value) {
+        if (value == null) {
+            throw new NullPointerException("argument is null");
+        }
+        return search(leafFor(value), value) >= 0;
+    }
+
+    @Override
+    public boolean add(E value) {
+        if (value == null) {
+            throw new NullPointerException("argument is null");
+        }
+        if (root.isFull()) {
+            Node newRoot = newInner();
+            newRoot.children[0] = root;
+            split(newRoot, 0);
+            root = newRoot;
+        }
+        Node n = root;
+        while (!n.isLeaf()) {
+            int i = childIndex(n, value);
+            if (n.children[i].isFull()) {
+                split(n, i);
+                if (compare(value, key(n, i)) >= 0) {
+                    i++;
+                }
+            }
+            n = n.children[i];
+        }
+        int i = search(n, value);
+        if (i >= 0) {
+            return false;
+        }
+        i = -i - 1;
+        System.arraycopy(n.keys, i, n.keys, i + 1, n.count - i);
+        n.keys[i] = value;
+        n.count++;
+        size++;
+        return true;
+    }
+
+    /**
+     * Splits the full child {@code i} of {@code parent}, which must not be full itself, in two halves.
+     */
+    private void split(Node parent, int i) {
+        Node child = parent.children[i];
+        Node sibling;
+        Object separator;
+        int half = child.count / 2;
+        if (child.isLeaf()) {
+            sibling = newLeaf();
+            sibling.count = child.count - half;
+            System.arraycopy(child.keys, half, sibling.keys, 0, sibling.count);
+            separator = sibling.keys[0];
+            sibling.prev = child;
+            sibling.next = child.next;
+            if (child.next != null) {
+                child.next.prev = sibling;
+            }
+            child.next = sibling;
+        } else {
+            // the middle key moves up, the keys and children right of it move to the sibling
+            sibling = newInner();
+            separator = child.keys[half];
+            sibling.count = child.count - half - 1;
+            System.arraycopy(child.keys, half + 1, sibling.keys, 0, sibling.count);
+            System.arraycopy(child.children, half + 1, sibling.children, 0, sibling.count + 1);
+            Arrays.fill(child.children, half + 1, child.count + 1, null);
+        }
+        Arrays.fill(child.keys, half, child.count, null);
+        child.count = half;
+
+        System.arraycopy(parent.keys, i, parent.keys, i + 1, parent.count - i);
+        System.arraycopy(parent.children, i + 1, parent.children, i + 2, parent.count - i);
+        parent.keys[i] = separator;
+        parent.children[i + 1] = sibling;
+        parent.count++;
+    }
+
+    @Override
+    public boolean remove(E value) {
+        if (value == null) {
+            throw new NullPointerException("argument is null");
+        }
+        Node n = root;
+        while (!n.isLeaf()) {
+            int i = childIndex(n, value);
+            if (n.children[i].count <= minKeys(n.children[i])) {
+                i = refill(n, i);
+                if (n == root && n.count == 0) {
+                    root = n.children[0];
+                }
+            }
+            n = n.children[i];
+        }
+        int i = search(n, value);
+        if (i < 0) {
+            return false;
+        }
+        System.arraycopy(n.keys, i + 1, n.keys, i, n.count - i - 1);
+        n.keys[--n.count] = null;
+        size--;
+        return true;
+    }
+
+    /**
+     * Gives the minimal child {@code i} of {@code parent} a key to spare: borrows one from a
+     * sibling that has more than the minimum, or else merges the child with a sibling.
+     *
+     * @return index of the child now covering the range child {@code i} covered
+     */
+    private int refill(Node parent, int i) {
+        int min = minKeys(parent.children[i]);
+        if (i > 0 && parent.children[i - 1].count > min) {
+            borrowFromLeft(parent, i);
+            return i;
+        }
+        if (i < parent.count && parent.children[i + 1].count > min) {
+            borrowFromRight(parent, i);
+            return i;
+        }
+        if (i > 0) {
+            merge(parent, i - 1);
+            return i - 1;
+        }
+        merge(parent, i);
+        return i;
+    }
+
+    private void borrowFromLeft(Node parent, int i) {
+        Node child = parent.children[i];
+        Node left = parent.children[i - 1];
+        System.arraycopy(child.keys, 0, child.keys, 1, child.count);
+        if (child.isLeaf()) {
+            child.keys[0] = left.keys[left.count - 1];
+            parent.keys[i - 1] = child.keys[0];
+        } else {
+            // the separator comes down, the last key of the sibling goes up in its place
+            System.arraycopy(child.children, 0, child.children, 1, child.count + 1);
+            child.keys[0] = parent.keys[i - 1];
+            child.children[0] = left.children[left.count];
+            parent.keys[i - 1] = left.keys[left.count - 1];
+            left.children[left.count] = null;
+        }
+        left.keys[left.count - 1] = null;
+        left.count--;
+        child.count++;
+    }
+
+    private void borrowFromRight(Node parent, int i) {
+        Node child = parent.children[i];
+        Node right = parent.children[i + 1];
+        if (child.isLeaf()) {
+            child.keys[child.count] = right.keys[0];
+            parent.keys[i] = right.keys[1];
+        } else {
+            child.keys[child.count] = parent.keys[i];
+            child.children[child.count + 1] = right.children[0];
+            parent.keys[i] = right.keys[0];
+            System.arraycopy(right.children, 1, right.children, 0, right.count);
+            right.children[right.count] = null;
+        }
+        System.arraycopy(right.keys, 1, right.keys, 0, right.count - 1);
+        right.keys[right.count - 1] = null;
+        right.count--;
+        child.count++;
+    }
+
+    /**
+     * Moves child {@code i + 1} of {@code parent} into child {@code i} and drops it with its separator.
+     */
+    private void merge(Node parent, int i) {
+        Node left = parent.children[i];
+        Node right = parent.children[i + 1];
+        if (left.isLeaf()) {
+            System.arraycopy(right.keys, 0, left.keys, left.count, right.count);
+            left.count += right.count;
+            left.next = right.next;
+            if (right.next != null) {
+                right.next.prev = left;
+            }
+        } else {
+            left.keys[left.count] = parent.keys[i];
+            System.arraycopy(right.keys, 0, left.keys, left.count + 1, right.count);
+            System.arraycopy(right.children, 0, left.children, left.count + 1, right.count + 1);
+            left.count += right.count + 1;
+        }
+        System.arraycopy(parent.keys, i + 1, parent.keys, i, parent.count - i - 1);
+        System.arraycopy(parent.children, i + 2, parent.children, i + 1, parent.count - i - 1);
+        parent.keys[parent.count - 1] = null;
+        parent.children[parent.count] = null;
+        parent.count--;
+    }
+
+    /**
+     * A batch that is large compared to the set is bulk-loaded like {@link #addAll(Collection)}.
+     */
+    @Override
+    public boolean addAll(E[] values) {
+        if (SortedArrays.worthRebuilding(size, values.length)) {
+            SortedArrays.checkNotNull(values);
+            return addAll(Arrays.asList(values));
+        }
+        return ISortedSet.super.addAll(values);
+    }
+
+    /**
+     * Merges the set with the sorted values and repacks it if the batch is large compared to the
+     * set; adds the values one by one otherwise.
+     */
+    @Override
+    public boolean addAll(Collection<? extends E> values) {
+        if (!SortedArrays.worthRebuilding(size, values.size())) {
+            return ISortedSet.super.addAll(values);
+        }
+        Object[] sorted = SortedArrays.sortedDistinct(values, this::compare);
+        if (size > 0) {
+            sorted = SortedArrays.merge(SortedArrays.toArray(this), sorted, this::compare);
+        }
+        int oldSize = size;
+        build(sorted);
+        return size != oldSize;
+    }
+
+    /**
+     * Spreads the sorted elements evenly over as few leaves as hold them and stacks levels of
+     * inner nodes over the leaves the same way. Every node but the root gets at least the minimum.
+     * The leaves come out nearly full, which suits scans; random adds right after will split them.
+     */
+    private void build(Object[] sorted) {
+        size = sorted.length;
+        if (sorted.length == 0) {
+            root = newLeaf();
+            return;
+        }
+        int leaves = (sorted.length + order - 1) / order;
+        Node[] level = new Node[leaves];
+        // the least element under each node of the level, the separator in front of it
+        Object[] lowest = new Object[leaves];
+        Node prev = null;
+        for (int j = 0, from = 0; j < leaves; j++) {
+            int to = (int) ((long) sorted.length * (j + 1) / leaves);
+            Node leaf = newLeaf();
+            leaf.count = to - from;
+            System.arraycopy(sorted, from, leaf.keys, 0, leaf.count);
+            leaf.prev = prev;
+            if (prev != null) {
+                prev.next = leaf;
+            }
+            level[j] = leaf;
+            lowest[j] = sorted[from];
+            prev = leaf;
+            from = to;
+        }
+        while (level.length > 1) {
+            int parents = (level.length + order - 1) / order;
+            Node[] upper = new Node[parents];
+            Object[] upperLowest = new Object[parents];
+            for (int j = 0, from = 0; j < parents; j++) {
+                int to = (int) ((long) level.length * (j + 1) / parents);
+                Node inner = newInner();
+                inner.count = to - from - 1;
+                System.arraycopy(level, from, inner.children, 0, to - from);
+                System.arraycopy(lowest, from + 1, inner.keys, 0, inner.count);
+                upper[j] = inner;
+                upperLowest[j] = lowest[from];
+                from = to;
+            }
+            level = upper;
+            lowest = upperLowest;
+        }
+        root = level[0];
+    }
+
+    @Override
+    public E floor(E value) {
+        return below(value, true);
+    }
+
+    @Override
+    public E ceiling(E value) {
+        return above(value, true);
+    }
+
+    @Override
+    public E lower(E value) {
+        return below(value, false);
+    }
+
+    @Override
+    public E higher(E value) {
+        return above(value, false);
+    }
+
+    /**
+     * The leaf {@code value} belongs to holds every element around it, except that the nearest
+     * smaller one may be the last of the previous leaf.
+     */
+    private E below(E value, boolean inclusive) {
+        Node n = leafFor(value);
+        int i = search(n, value);
+        int idx = i >= 0 ? (inclusive ? i : i - 1) : -i - 2;
+        if (idx >= 0) {
+            return key(n, idx);
+        }
+        return n.prev == null ? null : key(n.prev, n.prev.count - 1);
+    }
+
+    private E above(E value, boolean inclusive) {
+        Node n = leafFor(value);
+        int i = search(n, value);
+        int idx = i >= 0 ? (inclusive ? i : i + 1) : -i - 1;
+        if (idx < n.count) {
+            return key(n, idx);
+        }
+        return n.next == null ? null : key(n.next, 0);
+    }
+
+    /**
+     * Copies the leaves one after another, without a descent per element.
+     */
+    @Override
+    public List<E> inorderTraverse() {
+        List<E> list = new ArrayList<>(size);
+        for (Node n = firstLeaf(); n != null; n = n.next) {
+            for (int i = 0; i < n.count; i++) {
+                list.add(key(n, i));
+            }
+        }
+        return list;
+    }
+
+    @Override
+    public Iterator<E> iterator() {
+        return new LeafIterator(firstLeaf(), 0, null, false);
+    }
+
+    @Override
+    public Iterator<E> iterator(E from, boolean fromInclusive, E to, boolean toInclusive) {
+        if (from != null && to != null && compare(from, to) > 0) {
+            throw new IllegalArgumentException("from > to");
+        }
+        if (from == null) {
+            return new LeafIterator(firstLeaf(), 0, to, toInclusive);
+        }
+        Node n = leafFor(from);
+        int i = search(n, from);
+        int start = i >= 0 ? (fromInclusive ? i : i + 1) : -i - 1;
+        return new LeafIterator(n, start, to, toInclusive);
+    }
+
+    private final class LeafIterator implements Iterator<E> {
+        private final E to;
+        private final boolean toInclusive;
+        private Node leaf;
+        private int index;
+
+        LeafIterator(Node leaf, int index, E to, boolean toInclusive) {
+            this.to = to;
+            this.toInclusive = toInclusive;
+            this.leaf = leaf;
+            this.index = index;
+            settle();
+        }
+
+        /**
+         * Steps over the end of the leaf, and ends the iteration past the upper bound.
+         */
+        private void settle() {
+            while (leaf != null && index == leaf.count) {
+                leaf = leaf.next;
+                index = 0;
+            }
+            if (leaf != null && to != null) {
+                int cmp = compare(key(leaf, index), to);
+                if (cmp > 0 || cmp == 0 && !toInclusive) {
+                    leaf = null;
+                }
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return leaf != null;
+        }
+
+        @Override
+        public E next() {
+            if (leaf == null) {
+                throw new NoSuchElementException();
+            }
+            E value = key(leaf, index++);
+            settle();
+            return value;
+        }
+    }
+
+    private Node firstLeaf() {
+        Node n = root;
+        while (!n.isLeaf()) {
+            n = n.children[0];
+        }
+        return n;
+    }
+
+    private Node leafFor(E value) {
+        Node n = root;
+        while (!n.isLeaf()) {
+            n = n.children[childIndex(n, value)];
+        }
+        return n;
+    }
+
+    /**
+     * @return index of the subtree of the inner node that may hold {@code value}
+     */
+    private int childIndex(Node n, E value) {
+        int i = search(n, value);
+        return i >= 0 ? i + 1 : -i - 1;
+    }
+
+    /**
+     * Binary search over the keys of the node.
+     *
+     * @return index of {@code value}, or {@code -(insertion point) - 1} if the node doesn't hold it
+     */
+    private int search(Node n, E value) {
+        int low = 0;
+        int high = n.count - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int cmp = compare(key(n, mid), value);
+            if (cmp < 0) {
+                low = mid + 1;
+            } else if (cmp > 0) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -(low + 1);
+    }
+
+    @SuppressWarnings("unchecked")
+    private E key(Node n, int i) {
+        return (E) n.keys[i];
+    }
+
+    private int compare(E v1, E v2) {
+        return ordering.compare(v1, v2);
+    }
+
+    public static void main(String[] args) {
+        BTreeSet<Integer> set = new BTreeSet<>(4);
+        for (int i = 0; i < 20; i++) {
+            set.add(i * 3 % 20);
+        }
+        System.out.println(set.inorderTraverse() + " height " + set.height());
+        for (int i = 0; i < 20; i += 2) {
+            set.remove(i);
+        }
+        System.out.println(set.inorderTraverse() + " height " + set.height());
+        System.out.println(set.floor(10) + " " + set.ceiling(10) + " " + set.subSet(5, 15).inorderTraverse());
+    }
+}
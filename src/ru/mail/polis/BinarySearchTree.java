@@ -1,9 +1,11 @@
 package ru.mail.polis;
 
-import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Comparator;
-import java.util.List;
+import java.util.Iterator;
 import java.util.NoSuchElementException;
+import java.util.Spliterator;
 import java.util.Random;
 
 public class BinarySearchTree<E extends Comparable<E>> implements ISortedSet<E> {
@@ -36,13 +38,58 @@ public class BinarySearchTree<E extends Comparable<E>> implements ISortedSet<E>
     private Node root;
     private int size;
     private final Comparator<E> comparator;
+    /**
+     * {@link #comparator}, or natural ordering if it is null, resolved once: a comparison is one call
+     */
+    private final Comparator<E> order;
+    private final NodeAccess<Node, E> nodes = new NodeAccess<Node, E>() {
+        @Override
+        public Node left(Node node) {
+            return node.left;
+        }
+
+        @Override
+        public Node right(Node node) {
+            return node.right;
+        }
+
+        @Override
+        public E value(Node node) {
+            return node.value;
+        }
+
+        @Override
+        public int compare(E v1, E v2) {
+            return BinarySearchTree.this.compare(v1, v2);
+        }
+    };
 
     public BinarySearchTree() {
         this.comparator = null;
+        this.order = Comparators.natural();
     }
 
     public BinarySearchTree(Comparator<E> comparator) {
         this.comparator = comparator;
+        this.order = Comparators.resolve(comparator);
+    }
+
+    /**
+     * Builds a balanced tree from the values in O(n) if they are sorted, O(n log n) otherwise.
+     */
+    public static <E extends Comparable<E>> BinarySearchTree<E> of(Collection<? extends E> values) {
+        return of(values, null);
+    }
+
+    /**
+     * Builds a balanced tree from the values in O(n) if they are sorted, O(n log n) otherwise.
+     *
+     * @param comparator ordering of the tree, null for natural ordering
+     */
+    public static <E extends Comparable<E>> BinarySearchTree<E> of(Collection<? extends E> values, Comparator<E> comparator) {
+        BinarySearchTree<E> tree = new BinarySearchTree<>(comparator);
+        tree.addAll(values);
+        return tree;
     }
 
     @Override
@@ -134,6 +181,70 @@ public class BinarySearchTree<E extends Comparable<E>> implements ISortedSet<E>
         return true;
     }
 
+    @Override
+    public boolean containsAll(E[] values, boolean[] out) {
+        return nodes.containsAll(root, values, out);
+    }
+
+    /**
+     * A batch that is large compared to the tree is bulk-loaded like {@link #addAll(Collection)};
+     * a smaller one is inserted as given: sorted runs would hang off the tree as chains.
+     */
+    @Override
+    public boolean addAll(E[] values) {
+        if (SortedArrays.worthRebuilding(size, values.length)) {
+            SortedArrays.checkNotNull(values);
+            return addAll(Arrays.asList(values));
+        }
+        return ISortedSet.super.addAll(values);
+    }
+
+    /**
+     * Removes the batch in sorted order, so consecutive removals walk mostly the same, already cached path.
+     */
+    @Override
+    public boolean removeAll(E[] values) {
+        boolean changed = false;
+        for (E value : SortedArrays.sorted(values, this::compare)) {
+            changed |= remove(value);
+        }
+        return changed;
+    }
+
+    /**
+     * Sorts the batch, merges it with the elements already here and rebuilds the tree balanced
+     * bottom-up, unless the batch is small compared to the tree.
+     */
+    @Override
+    public boolean addAll(Collection<? extends E> values) {
+        if (!SortedArrays.worthRebuilding(size, values.size())) {
+            return ISortedSet.super.addAll(values);
+        }
+        Object[] sorted = SortedArrays.sortedDistinct(values, this::compare);
+        if (root != null) {
+            sorted = SortedArrays.merge(SortedArrays.toArray(this), sorted, this::compare);
+        }
+        int oldSize = size;
+        root = build(sorted, 0, sorted.length);
+        size = sorted.length;
+        return sorted.length != oldSize;
+    }
+
+    /**
+     * Builds a perfectly balanced tree from {@code sorted[from, to)}: the middle element goes to the root.
+     */
+    @SuppressWarnings("unchecked")
+    private Node build(Object[] sorted, int from, int to) {
+        if (from == to) {
+            return null;
+        }
+        int mid = (from + to) >>> 1;
+        Node node = new Node((E) sorted[mid]);
+        node.left = build(sorted, from, mid);
+        node.right = build(sorted, mid + 1, to);
+        return node;
+    }
+
     @Override
     public boolean remove(E value) {
         if (value == null) {
@@ -197,23 +308,47 @@ public class BinarySearchTree<E extends Comparable<E>> implements ISortedSet<E>
     }
 
     private int compare(E v1, E v2) {
-        return comparator == null ? v1.compareTo(v2) : comparator.compare(v1, v2);
+        return order.compare(v1, v2);
     }
 
     @Override
-    public List<E> inorderTraverse() {
-        List<E> list = new ArrayList<E>(size);
-        inorderTraverse(root, list);
-        return list;
+    public Comparator<? super E> comparator() {
+        return comparator;
     }
 
-    private void inorderTraverse(Node curr, List<E> list) {
-        if (curr == null) {
-            return;
-        }
-        inorderTraverse(curr.left, list);
-        list.add(curr.value);
-        inorderTraverse(curr.right, list);
+    @Override
+    public E floor(E value) {
+        return nodes.below(root, value, true);
+    }
+
+    @Override
+    public E ceiling(E value) {
+        return nodes.above(root, value, true);
+    }
+
+    @Override
+    public E lower(E value) {
+        return nodes.below(root, value, false);
+    }
+
+    @Override
+    public E higher(E value) {
+        return nodes.above(root, value, false);
+    }
+
+    @Override
+    public Iterator<E> iterator() {
+        return new InorderIterator<>(root, nodes);
+    }
+
+    @Override
+    public Iterator<E> iterator(E from, boolean fromInclusive, E to, boolean toInclusive) {
+        return new InorderIterator<>(root, nodes, from, fromInclusive, to, toInclusive);
+    }
+
+    @Override
+    public Spliterator<E> spliterator() {
+        return new SubtreeSpliterator<>(root, size, comparator, nodes);
     }
 
     @Override
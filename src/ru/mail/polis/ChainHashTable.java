@@ -2,16 +2,27 @@ package ru.mail.polis;
 
 import java.util.ArrayList;
 import java.util.Comparator;
+import java.util.Iterator;
 import java.util.List;
+import java.util.NoSuchElementException;
 
+/**
+ * Separate chaining with power-of-two capacities. A bucket holds a list of {@link Node}s until
+ * {@link #TREEIFY_THRESHOLD} elements collide in it; then it turns into a {@link RedBlackTree}
+ * ordered by the table's comparator, so even keys crafted to share one hash cost O(log k) per
+ * lookup instead of O(k). A tree shrinking to {@link #UNTREEIFY_THRESHOLD} elements turns back
+ * into a list.
+ */
 public class ChainHashTable<E extends Comparable<E>> implements ISet<E> {
 
     class Node {
         E value;
+        final int hash;
         Node next;
 
-        Node(E value) {
+        Node(E value, int hash) {
             this.value = value;
+            this.hash = hash;
         }
 
         @Override
@@ -28,17 +39,64 @@ public class ChainHashTable<E extends Comparable<E>> implements ISet<E> {
 
     private final int INITIAL_CAPACITY = 8;
     private final float LOAD_FACTOR = 0.5f;
+    /**
+     * non-empty buckets migrated per operation while an incremental resize is in progress
+     */
+    private final int REHASH_STEP = 4;
+    /**
+     * a bucket with this many elements is converted into a tree; with a decent hash and the load
+     * factor of 1/2 a list gets this long only when the keys collide on purpose
+     */
+    private final int TREEIFY_THRESHOLD = 8;
+    /**
+     * a tree with this many elements is converted back; lower than {@link #TREEIFY_THRESHOLD}, so
+     * a bucket hovering around the threshold doesn't convert on every call
+     */
+    private final int UNTREEIFY_THRESHOLD = 6;
+    private static final SetStats STATS = SetStats.of(ChainHashTable.class);
 
     private Comparator<E> comparator;
+    private final Hasher<? super E> hasher;
     private Object[] table;
     private int size;
 
+    private final boolean incrementalResize;
+    /**
+     * table being drained into {@link #table}; null when no incremental resize is in progress
+     */
+    private Object[] oldTable;
+    /**
+     * buckets of {@link #oldTable} below this index have already been migrated
+     */
+    private int rehashIdx;
+    /**
+     * nodes examined by the current operation, counted only if {@link SetStats#ENABLED}
+     */
+    private int comparisons;
+
     public ChainHashTable() {
         this(null);
     }
 
     public ChainHashTable(Comparator<E> comparator) {
-        this.comparator = comparator;
+        this(comparator, false);
+    }
+
+    /**
+     * @param incrementalResize if true, a resize only allocates the new table and the old one is
+     *                          migrated a few buckets per operation, keeping every single operation short
+     */
+    public ChainHashTable(Comparator<E> comparator, boolean incrementalResize) {
+        this(comparator, Hasher.murmur(), incrementalResize);
+    }
+
+    /**
+     * @param hasher hash function, {@link Hasher#murmur()} by default
+     */
+    public ChainHashTable(Comparator<E> comparator, Hasher<? super E> hasher, boolean incrementalResize) {
+        this.comparator = Comparators.resolve(comparator);
+        this.hasher = hasher;
+        this.incrementalResize = incrementalResize;
         this.table = new Object[INITIAL_CAPACITY];
     }
 
@@ -54,28 +112,77 @@ public class ChainHashTable<E extends Comparable<E>> implements ISet<E> {
 
     @Override
     public boolean contains(E value) {
-        Node curr = getNode(hash(value));
-        while (curr != null && !curr.equals(value)) {
+        if (!SetStats.ENABLED) {
+            return contains(value, hasher.hash(value));
+        }
+        comparisons = 0;
+        boolean found = contains(value, hasher.hash(value));
+        STATS.lookup(comparisons);
+        return found;
+    }
+
+    private boolean contains(E value, int hash) {
+        if (oldTable != null && find(oldTable, value, hash)) {
+            return true;
+        }
+        return find(table, value, hash);
+    }
+
+    private boolean find(Object[] table, E value, int hash) {
+        int idx = index(hash, table.length);
+        if (isTree(table, idx)) {
+            RedBlackTree<E> tree = getTree(table, idx);
+            boolean found = tree.containsUnrecorded(value);
+            comparisons += tree.lastComparisons();
+            return found;
+        }
+        Node curr = getNode(table, idx);
+        while (curr != null && !matches(curr, value, hash)) {
             curr = curr.next;
         }
-        //Вышли по второму условию
         return curr != null;
     }
 
     @Override
     public boolean add(E value) {
-        int idx = hash(value);
+        if (!SetStats.ENABLED) {
+            return add(value, hasher.hash(value));
+        }
+        comparisons = 0;
+        boolean added = add(value, hasher.hash(value));
+        STATS.insert(comparisons, 0);
+        return added;
+    }
+
+    private boolean add(E value, int hash) {
+        rehashStep();
+        if (oldTable != null && find(oldTable, value, hash)) {
+            return false;
+        }
+        int idx = index(hash, table.length);
         if (table[idx] == null) {
-            table[idx] = new Node(value);
+            table[idx] = new Node(value, hash);
+        } else if (isTree(table, idx)) {
+            RedBlackTree<E> tree = getTree(table, idx);
+            boolean added = tree.addUnrecorded(value);
+            comparisons += tree.lastComparisons();
+            if (!added) {
+                return false;
+            }
         } else {
-            Node curr = getNode(idx);
-            while (curr.next != null && compare(value, curr.value) != 0) {
+            Node curr = getNode(table, idx);
+            int length = 1;
+            while (curr.next != null && !matches(curr, value, hash)) {
                 curr = curr.next;
+                length++;
             }
-            if (compare(value, curr.value) == 0) {
+            if (matches(curr, value, hash)) {
                 return false;
             }
-            curr.next = new Node(value);
+            curr.next = new Node(value, hash);
+            if (length + 1 >= TREEIFY_THRESHOLD) {
+                treeify(table, idx);
+            }
         }
         size++;
         resize();
@@ -84,16 +191,47 @@ public class ChainHashTable<E extends Comparable<E>> implements ISet<E> {
 
     @Override
     public boolean remove(E value) {
+        if (!SetStats.ENABLED) {
+            return remove(value, hasher.hash(value));
+        }
+        comparisons = 0;
+        boolean removed = remove(value, hasher.hash(value));
+        STATS.remove(comparisons, 0);
+        return removed;
+    }
+
+    private boolean remove(E value, int hash) {
+        rehashStep();
+        if (oldTable != null && remove(oldTable, value, hash)) {
+            return true;
+        }
+        return remove(table, value, hash);
+    }
+
+    private boolean remove(Object[] table, E value, int hash) {
+        int idx = index(hash, table.length);
+        if (isTree(table, idx)) {
+            RedBlackTree<E> tree = getTree(table, idx);
+            boolean removed = tree.removeUnrecorded(value);
+            comparisons += tree.lastComparisons();
+            if (!removed) {
+                return false;
+            }
+            if (tree.size() <= UNTREEIFY_THRESHOLD) {
+                untreeify(table, idx);
+            }
+            size--;
+            return true;
+        }
         Node prev = null;
-        int idx = hash(value);
-        Node curr = getNode(idx);
-        while (curr != null && compare(value, curr.value) != 0) {
+        Node curr = getNode(table, idx);
+        while (curr != null && !matches(curr, value, hash)) {
             prev = curr;
             curr = curr.next;
         }
         if (curr != null) {
             if (prev == null) { //head
-                table[idx] = getNode(idx).next;
+                table[idx] = curr.next;
             } else {
                 prev.next = curr.next;
             }
@@ -105,47 +243,362 @@ public class ChainHashTable<E extends Comparable<E>> implements ISet<E> {
         return false;
     }
 
-    private int hash(E value) {
-        return Math.abs(value.hashCode()) % table.length;
+    /**
+     * Capacities are powers of two, so the index is the low bits of the hash: no division, and
+     * never negative, unlike {@code Math.abs(hashCode) % length} for {@code Integer.MIN_VALUE}.
+     */
+    private static int index(int hash, int length) {
+        return hash & (length - 1);
+    }
+
+    private boolean matches(Node node, E value, int hash) {
+        if (SetStats.ENABLED) {
+            comparisons++;
+        }
+        return node.hash == hash && compare(value, node.value) == 0;
     }
 
     @SuppressWarnings("unchecked")
-    private Node getNode(int idx) {
+    private Node getNode(Object[] table, int idx) {
         return (Node) table[idx];
     }
 
-    private int compare(E v1, E v2) {
-        return comparator == null ? v1.compareTo(v2) : comparator.compare(v1, v2);
+    private static boolean isTree(Object[] table, int idx) {
+        return table[idx] instanceof RedBlackTree;
     }
 
     @SuppressWarnings("unchecked")
+    private RedBlackTree<E> getTree(Object[] table, int idx) {
+        return (RedBlackTree<E>) table[idx];
+    }
+
+    private void treeify(Object[] table, int idx) {
+        RedBlackTree<E> tree = new RedBlackTree<>(comparator);
+        for (Node curr = getNode(table, idx); curr != null; curr = curr.next) {
+            tree.addUnrecorded(curr.value);
+        }
+        table[idx] = tree;
+    }
+
+    /**
+     * Trees don't keep the hashes, so they are computed again; this happens only to buckets that
+     * had grown long, so rarely.
+     */
+    private void untreeify(Object[] table, int idx) {
+        Node head = null;
+        for (E value : getTree(table, idx)) {
+            Node node = new Node(value, hasher.hash(value));
+            node.next = head;
+            head = node;
+        }
+        table[idx] = head;
+    }
+
+    private int compare(E v1, E v2) {
+        return comparator.compare(v1, v2);
+    }
+
+    /**
+     * Walks the buckets of the table being drained, if any, then of the current one. Every
+     * operation may move nodes between them, so the set must not be modified while iterating.
+     */
+    @Override
+    public Iterator<E> iterator() {
+        return new BucketIterator();
+    }
+
+    private final class BucketIterator implements Iterator<E> {
+        private final Object[][] tables = oldTable == null ? new Object[][]{table} : new Object[][]{oldTable, table};
+        private int tableIdx;
+        private int bucket;
+        /**
+         * next node of a list bucket, or null if the current bucket is a tree
+         */
+        private Node next;
+        /**
+         * elements of the current bucket if it is a tree
+         */
+        private Iterator<E> treeValues;
+
+        BucketIterator() {
+            nextBucket();
+        }
+
+        private void nextBucket() {
+            next = null;
+            treeValues = null;
+            for (; tableIdx < tables.length; tableIdx++, bucket = 0) {
+                while (bucket < tables[tableIdx].length) {
+                    Object[] t = tables[tableIdx];
+                    int idx = bucket++;
+                    if (isTree(t, idx)) {
+                        treeValues = getTree(t, idx).iterator();
+                        return;
+                    } else if (t[idx] != null) {
+                        next = getNode(t, idx);
+                        return;
+                    }
+                }
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next != null || treeValues != null;
+        }
+
+        @Override
+        public E next() {
+            E value;
+            if (next != null) {
+                value = next.value;
+                next = next.next;
+            } else if (treeValues != null) {
+                value = treeValues.next();
+            } else {
+                throw new NoSuchElementException();
+            }
+            if (next == null && (treeValues == null || !treeValues.hasNext())) {
+                nextBucket();
+            }
+            return value;
+        }
+    }
+
+    /**
+     * Java has no prefetch instruction, so batches get the next best thing: every hash is
+     * computed in one tight pass before the first bucket is touched, and a batch of adds grows
+     * the table once up front instead of doubling it step by step.
+     */
+    @Override
+    public boolean addAll(E[] values) {
+        int[] hashes = hashes(values);
+        ensureCapacity(size + values.length);
+        boolean changed = false;
+        for (int i = 0; i < values.length; i++) {
+            changed |= add(values[i], hashes[i]);
+        }
+        return changed;
+    }
+
+    @Override
+    public boolean containsAll(E[] values, boolean[] out) {
+        int[] hashes = hashes(values);
+        boolean all = true;
+        for (int i = 0; i < values.length; i++) {
+            boolean found = contains(values[i], hashes[i]);
+            if (out != null) {
+                out[i] = found;
+            }
+            all &= found;
+        }
+        return all;
+    }
+
+    @Override
+    public boolean removeAll(E[] values) {
+        int[] hashes = hashes(values);
+        boolean changed = false;
+        for (int i = 0; i < values.length; i++) {
+            changed |= remove(values[i], hashes[i]);
+        }
+        return changed;
+    }
+
+    private int[] hashes(E[] values) {
+        int[] hashes = new int[values.length];
+        for (int i = 0; i < values.length; i++) {
+            if (values[i] == null) {
+                throw new NullPointerException("value is null");
+            }
+            hashes[i] = hasher.hash(values[i]);
+        }
+        return hashes;
+    }
+
+    /**
+     * Grows the table at once to hold {@code elements} without a resize. Incremental tables keep
+     * growing step by step: a batch must not bring back the pause they exist to avoid.
+     */
+    private void ensureCapacity(int elements) {
+        if (incrementalResize || oldTable != null) {
+            return;
+        }
+        int capacity = table.length;
+        while (elements >= capacity * LOAD_FACTOR && capacity < 1 << 30) {
+            capacity <<= 1;
+        }
+        if (capacity > table.length) {
+            long started = SetStats.ENABLED ? System.nanoTime() : 0;
+            oldTable = table;
+            rehashIdx = 0;
+            table = new Object[capacity];
+            migrate(oldTable.length);
+            if (SetStats.ENABLED) {
+                STATS.resize(System.nanoTime() - started);
+            }
+        }
+    }
+
     private void resize() {
-        if (size * 2 < table.length) {
+        if (size < table.length * LOAD_FACTOR) {
             return;
         }
-        Object[] old = this.table;
-        size = 0;
+        long started = SetStats.ENABLED ? System.nanoTime() : 0;
+        if (oldTable != null) {
+            // removals kept the previous migration from finishing before the table filled up again
+            migrate(oldTable.length);
+        }
+        oldTable = table;
+        rehashIdx = 0;
         table = new Object[table.length << 1];
-        for (int i = 0; i < old.length; i++) {
-            Node node = (Node) old[i];
-            if (node != null) {
-                Node curr = node;
-                while (curr != null) {
-                    Node next = curr.next;
-                    add(curr.value);
-                    curr.next = null;
-                    curr.value = null;
-                    curr = next;
+        if (!incrementalResize) {
+            migrate(oldTable.length);
+        }
+        if (SetStats.ENABLED) {
+            STATS.resize(System.nanoTime() - started);
+        }
+    }
+
+    /**
+     * Moves up to {@link #REHASH_STEP} non-empty buckets of the old table, looking at no more
+     * than ten times as many empty ones, so a sparse table doesn't turn a step into a full scan.
+     */
+    private void rehashStep() {
+        if (oldTable == null) {
+            return;
+        }
+        int emptyVisits = REHASH_STEP * 10;
+        int moved = 0;
+        while (moved < REHASH_STEP && rehashIdx < oldTable.length) {
+            if (oldTable[rehashIdx] == null) {
+                rehashIdx++;
+                if (--emptyVisits == 0) {
+                    break;
+                }
+                continue;
+            }
+            moveBucket(rehashIdx++);
+            moved++;
+        }
+        if (rehashIdx == oldTable.length) {
+            oldTable = null;
+        }
+    }
+
+    private void migrate(int buckets) {
+        int end = Math.min(rehashIdx + buckets, oldTable.length);
+        while (rehashIdx < end) {
+            moveBucket(rehashIdx++);
+        }
+        if (rehashIdx == oldTable.length) {
+            oldTable = null;
+        }
+    }
+
+    /**
+     * Relinks the nodes of an old bucket into the new table: no allocation, no comparisons, unless
+     * the new bucket, together with what was added to it since the resize began, grows long enough
+     * to be treeified. A tree bucket is split up element by element, its halves turning into lists
+     * or trees again.
+     */
+    private void moveBucket(int idx) {
+        if (isTree(oldTable, idx)) {
+            for (E value : getTree(oldTable, idx)) {
+                int hash = hasher.hash(value);
+                int newIdx = index(hash, table.length);
+                if (isTree(table, newIdx)) {
+                    getTree(table, newIdx).addUnrecorded(value);
+                    continue;
+                }
+                Node node = new Node(value, hash);
+                node.next = getNode(table, newIdx);
+                table[newIdx] = node;
+                if (chainLength(table, newIdx) >= TREEIFY_THRESHOLD) {
+                    treeify(table, newIdx);
+                }
+            }
+            oldTable[idx] = null;
+            return;
+        }
+        Node curr = getNode(oldTable, idx);
+        while (curr != null) {
+            Node next = curr.next;
+            int newIdx = index(curr.hash, table.length);
+            if (isTree(table, newIdx)) {
+                // a bucket that grew into a tree in the new table while this one waited to move
+                getTree(table, newIdx).addUnrecorded(curr.value);
+            } else {
+                curr.next = getNode(table, newIdx);
+                table[newIdx] = curr;
+                // the new bucket may have gathered nodes of its own since the resize began
+                if (chainLength(table, newIdx) >= TREEIFY_THRESHOLD) {
+                    treeify(table, newIdx);
                 }
-                old[i] = null;
             }
+            curr = next;
+        }
+        oldTable[idx] = null;
+    }
+
+    /**
+     * @return the number of elements in the longest bucket
+     */
+    public int maxChainLength() {
+        int max = 0;
+        for (Object[] t : oldTable == null ? new Object[][]{table} : new Object[][]{oldTable, table}) {
+            for (int i = 0; i < t.length; i++) {
+                max = Math.max(max, chainLength(t, i));
+            }
+        }
+        return max;
+    }
+
+    /**
+     * @return the mean number of elements in a non-empty bucket, 1 for a perfect spread
+     */
+    public double averageChainLength() {
+        int buckets = 0;
+        for (Object[] t : oldTable == null ? new Object[][]{table} : new Object[][]{oldTable, table}) {
+            for (int i = 0; i < t.length; i++) {
+                if (t[i] != null) {
+                    buckets++;
+                }
+            }
+        }
+        return buckets == 0 ? 0 : (double) size / buckets;
+    }
+
+    /**
+     * @return the number of buckets converted into trees
+     */
+    public int treeifiedBuckets() {
+        int trees = 0;
+        for (Object[] t : oldTable == null ? new Object[][]{table} : new Object[][]{oldTable, table}) {
+            for (int i = 0; i < t.length; i++) {
+                if (isTree(t, i)) {
+                    trees++;
+                }
+            }
+        }
+        return trees;
+    }
+
+    private int chainLength(Object[] table, int idx) {
+        if (isTree(table, idx)) {
+            return getTree(table, idx).size();
+        }
+        int length = 0;
+        for (Node curr = getNode(table, idx); curr != null; curr = curr.next) {
+            length++;
         }
+        return length;
     }
 
     private void print() {
         for (int i = 0; i < table.length; i++) {
-            Node curr = getNode(i);
-            System.out.println("idx = " + i + ", " + curr);
+            Object bucket = isTree(table, i) ? getTree(table, i).inorderTraverse() : table[i];
+            System.out.println("idx = " + i + ", " + bucket);
         }
         System.out.println("-------------------------");
     }
@@ -0,0 +1,59 @@
+package ru.mail.polis;
+
+import java.util.Comparator;
+
+/**
+ * Comparison strategies the sets resolve once, at construction, instead of checking for a
+ * comparator on every comparison.
+ * <p>
+ * With natural ordering a set calls {@code compareTo} through {@link #natural()}; that call site
+ * sees every key type the program stores in sets, and once it sees more than two the JIT can't
+ * inline it. The constants compare keys of one type directly, so a set built with one of them,
+ * e.g. {@code new AVLTree<>(Comparators.INTEGER)}, compares with an inlined primitive comparison.
+ */
+public final class Comparators {
+
+    public static final Comparator<Integer> INTEGER = new IntegerComparator();
+    public static final Comparator<Long> LONG = new LongComparator();
+    public static final Comparator<String> STRING = new StringComparator();
+
+    private Comparators() {
+    }
+
+    /**
+     * @return {@code comparator}, or natural ordering if it is null
+     */
+    public static <E extends Comparable<E>> Comparator<E> resolve(Comparator<E> comparator) {
+        return comparator != null ? comparator : natural();
+    }
+
+    public static <E extends Comparable<E>> Comparator<E> natural() {
+        return Comparator.naturalOrder();
+    }
+
+    /*
+     * Classes rather than lambdas: each gets a type of its own that shows up in the JIT's type
+     * profile, and a name that shows up in stack traces and profilers.
+     */
+
+    private static final class IntegerComparator implements Comparator<Integer> {
+        @Override
+        public int compare(Integer a, Integer b) {
+            return Integer.compare(a, b);
+        }
+    }
+
+    private static final class LongComparator implements Comparator<Long> {
+        @Override
+        public int compare(Long a, Long b) {
+            return Long.compare(a, b);
+        }
+    }
+
+    private static final class StringComparator implements Comparator<String> {
+        @Override
+        public int compare(String a, String b) {
+            return a.compareTo(b);
+        }
+    }
+}
@@ -0,0 +1,373 @@
+package ru.mail.polis;
+
+import java.util.ArrayDeque;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Thread-safe {@link ChainHashTable}.
+ * <ul>
+ * <li>Chains are immutable ({@code next} is final): a writer publishes a new head with a volatile
+ * write, so readers walk whatever chain they see without any locking.</li>
+ * <li>{@code add} / {@code remove} lock one of {@link #STRIPES} stripes; bucket {@code i} uses
+ * stripe {@code i % STRIPES}. Capacity never drops below the stripe count, so a bucket and both
+ * buckets it splits into on resize share a stripe.</li>
+ * <li>Resize is incremental: once the next table is allocated every writer migrates a few buckets
+ * before doing its own work, and each migrated bucket is replaced with a forwarding node that
+ * redirects late readers and writers to the next table.</li>
+ * </ul>
+ */
+public class ConcurrentChainHashTable<E extends Comparable<E>> implements ISet<E> {
+
+    private static final int STRIPES = 64;
+    private static final int INITIAL_CAPACITY = STRIPES;
+    /**
+     * buckets migrated by a writer per operation while a resize is in progress
+     */
+    private static final int TRANSFER_STEP = 16;
+
+    static class Node<E> {
+        final E value;
+        final int hash;
+        final Node<E> next;
+
+        Node(E value, int hash, Node<E> next) {
+            this.value = value;
+            this.hash = hash;
+            this.next = next;
+        }
+    }
+
+    /**
+     * Head of a bucket whose elements have been moved to {@code table}.
+     */
+    static final class Forward<E> extends Node<E> {
+        final Table<E> table;
+
+        Forward(Table<E> table) {
+            super(null, 0, null);
+            this.table = table;
+        }
+    }
+
+    static final class Table<E> {
+        final AtomicReferenceArray<Node<E>> buckets;
+        final int mask;
+        /**
+         * the table this one is being migrated into, set once
+         */
+        final AtomicReference<Table<E>> next = new AtomicReference<>();
+        /**
+         * first bucket not yet claimed by a migrating writer
+         */
+        final AtomicInteger transferIndex = new AtomicInteger();
+        final AtomicInteger transferred = new AtomicInteger();
+
+        Table(int capacity) {
+            this.buckets = new AtomicReferenceArray<>(capacity);
+            this.mask = capacity - 1;
+        }
+
+        int length() {
+            return mask + 1;
+        }
+    }
+
+    private final Comparator<E> comparator;
+    private final Hasher<? super E> hasher;
+    private final Object[] locks = new Object[STRIPES];
+    private final AtomicInteger size = new AtomicInteger();
+    private volatile Table<E> table;
+
+    public ConcurrentChainHashTable() {
+        this(null);
+    }
+
+    public ConcurrentChainHashTable(Comparator<E> comparator) {
+        this(comparator, Hasher.murmur());
+    }
+
+    /**
+     * @param hasher hash function, {@link Hasher#murmur()} by default
+     */
+    public ConcurrentChainHashTable(Comparator<E> comparator, Hasher<? super E> hasher) {
+        this.comparator = Comparators.resolve(comparator);
+        this.hasher = hasher;
+        for (int i = 0; i < STRIPES; i++) {
+            locks[i] = new Object();
+        }
+        this.table = new Table<>(INITIAL_CAPACITY);
+    }
+
+    @Override
+    public int size() {
+        return size.get();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size.get() == 0;
+    }
+
+    @Override
+    public boolean contains(E value) {
+        if (value == null) {
+            throw new NullPointerException("value is null");
+        }
+        int hash = hasher.hash(value);
+        Table<E> t = table;
+        while (true) {
+            Node<E> head = t.buckets.get(hash & t.mask);
+            if (head instanceof Forward) {
+                t = ((Forward<E>) head).table;
+                continue;
+            }
+            return find(head, value, hash) != null;
+        }
+    }
+
+    @Override
+    public boolean add(E value) {
+        if (value == null) {
+            throw new NullPointerException("value is null");
+        }
+        int hash = hasher.hash(value);
+        helpTransfer();
+        Table<E> t = table;
+        while (true) {
+            int idx = hash & t.mask;
+            Node<E> head = t.buckets.get(idx);
+            if (head instanceof Forward) {
+                t = ((Forward<E>) head).table;
+                continue;
+            }
+            // duplicates are common, reject them without taking the lock
+            if (find(head, value, hash) != null) {
+                return false;
+            }
+            synchronized (lockFor(idx)) {
+                head = t.buckets.get(idx);
+                if (head instanceof Forward) {
+                    continue;
+                }
+                if (find(head, value, hash) != null) {
+                    return false;
+                }
+                t.buckets.set(idx, new Node<>(value, hash, head));
+            }
+            break;
+        }
+        if (size.incrementAndGet() * 2 >= t.length()) {
+            startResize(t);
+        }
+        return true;
+    }
+
+    @Override
+    public boolean remove(E value) {
+        if (value == null) {
+            throw new NullPointerException("value is null");
+        }
+        int hash = hasher.hash(value);
+        helpTransfer();
+        Table<E> t = table;
+        while (true) {
+            int idx = hash & t.mask;
+            Node<E> head = t.buckets.get(idx);
+            if (head instanceof Forward) {
+                t = ((Forward<E>) head).table;
+                continue;
+            }
+            if (find(head, value, hash) == null) {
+                return false;
+            }
+            synchronized (lockFor(idx)) {
+                head = t.buckets.get(idx);
+                if (head instanceof Forward) {
+                    continue;
+                }
+                Node<E> target = find(head, value, hash);
+                if (target == null) {
+                    return false;
+                }
+                // readers may be walking the old chain: copy the prefix instead of relinking it
+                Node<E> chain = target.next;
+                for (Node<E> curr = head; curr != target; curr = curr.next) {
+                    chain = new Node<>(curr.value, curr.hash, chain);
+                }
+                t.buckets.set(idx, chain);
+            }
+            size.decrementAndGet();
+            return true;
+        }
+    }
+
+    private Node<E> find(Node<E> head, E value, int hash) {
+        for (Node<E> curr = head; curr != null; curr = curr.next) {
+            if (curr.hash == hash && compare(value, curr.value) == 0) {
+                return curr;
+            }
+        }
+        return null;
+    }
+
+    private Object lockFor(int idx) {
+        return locks[idx & (STRIPES - 1)];
+    }
+
+    /**
+     * Allocates the next table, unless {@code t} is no longer current or already being migrated.
+     */
+    private void startResize(Table<E> t) {
+        if (t != table || t.next.get() != null) {
+            return;
+        }
+        t.next.compareAndSet(null, new Table<>(t.length() << 1));
+    }
+
+    /**
+     * Migrates up to {@link #TRANSFER_STEP} buckets of the current table if a resize is in progress.
+     */
+    private void helpTransfer() {
+        Table<E> t = table;
+        Table<E> next = t.next.get();
+        if (next == null) {
+            return;
+        }
+        int from = t.transferIndex.getAndAdd(TRANSFER_STEP);
+        if (from >= t.length()) {
+            return;
+        }
+        int to = Math.min(from + TRANSFER_STEP, t.length());
+        for (int idx = from; idx < to; idx++) {
+            transfer(t, next, idx);
+        }
+        if (t.transferred.addAndGet(to - from) == t.length()) {
+            table = next;
+            // the table may have filled up while it was being populated
+            if (size.get() * 2 >= next.length()) {
+                startResize(next);
+            }
+        }
+    }
+
+    /**
+     * Splits bucket {@code idx} of {@code t} into buckets {@code idx} and {@code idx + t.length()}
+     * of {@code next}, then leaves a forwarding node behind.
+     */
+    private void transfer(Table<E> t, Table<E> next, int idx) {
+        synchronized (lockFor(idx)) {
+            Node<E> head = t.buckets.get(idx);
+            int bit = t.length();
+            // the longest tail going to one side is shared as is; only the nodes before it are copied
+            Node<E> lastRun = head;
+            for (Node<E> curr = head; curr != null; curr = curr.next) {
+                if ((curr.hash & bit) != (lastRun.hash & bit)) {
+                    lastRun = curr;
+                }
+            }
+            Node<E> low = null;
+            Node<E> high = null;
+            if (lastRun != null) {
+                if ((lastRun.hash & bit) == 0) {
+                    low = lastRun;
+                } else {
+                    high = lastRun;
+                }
+            }
+            for (Node<E> curr = head; curr != lastRun; curr = curr.next) {
+                if ((curr.hash & bit) == 0) {
+                    low = new Node<>(curr.value, curr.hash, low);
+                } else {
+                    high = new Node<>(curr.value, curr.hash, high);
+                }
+            }
+            next.buckets.set(idx, low);
+            next.buckets.set(idx + bit, high);
+            t.buckets.set(idx, new Forward<>(next));
+        }
+    }
+
+    /**
+     * Weakly consistent, like the readers: walks the buckets of the current table and follows
+     * forwarding nodes into the next one. Every chain is read once, as it was at that moment, so
+     * an element present during the whole walk is returned exactly once. Safe to use while other
+     * threads modify the set.
+     */
+    @Override
+    public Iterator<E> iterator() {
+        return new BucketIterator();
+    }
+
+    private final class BucketIterator implements Iterator<E> {
+        private final Table<E> start = table;
+        private final Deque<Node<E>> chains = new ArrayDeque<>();
+        private int bucket;
+        private Node<E> next = nextChain();
+
+        private Node<E> nextChain() {
+            while (chains.isEmpty() && bucket < start.length()) {
+                collect(start, bucket++);
+            }
+            return chains.poll();
+        }
+
+        /**
+         * A migrated bucket went to two buckets of the next table, which may have been migrated further.
+         */
+        private void collect(Table<E> t, int idx) {
+            Node<E> head = t.buckets.get(idx);
+            if (head instanceof Forward) {
+                Table<E> next = ((Forward<E>) head).table;
+                collect(next, idx);
+                collect(next, idx + t.length());
+            } else if (head != null) {
+                chains.add(head);
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next != null;
+        }
+
+        @Override
+        public E next() {
+            if (next == null) {
+                throw new NoSuchElementException();
+            }
+            E value = next.value;
+            next = next.next != null ? next.next : nextChain();
+            return value;
+        }
+    }
+
+    private int compare(E v1, E v2) {
+        return comparator.compare(v1, v2);
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        ConcurrentChainHashTable<Integer> table = new ConcurrentChainHashTable<>();
+        Thread[] threads = new Thread[8];
+        for (int t = 0; t < threads.length; t++) {
+            final int offset = t;
+            threads[t] = new Thread(() -> {
+                for (int i = offset; i < 100_000; i += threads.length) {
+                    table.add(i);
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        System.out.println(table.size());
+        System.out.println(table.contains(99_999));
+        System.out.println(table.remove(42) + " " + table.contains(42));
+    }
+}
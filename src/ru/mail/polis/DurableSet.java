@@ -0,0 +1,437 @@
+package ru.mail.polis;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * Makes any {@link ISet} survive a crash: every change is appended to a write-ahead log before the
+ * call returns, the set is checkpointed to a {@link MappedSortedSet} snapshot every so many
+ * changes, and the constructor rebuilds it from the last snapshot and the log behind it.
+ * <p>
+ * A log record is a type byte (1 add, 2 remove), the key in {@link KeyCodec} form and a CRC32 of
+ * both. Calls that don't change the set are not logged. Recovery stops at the first torn or
+ * corrupt record, which is where the crash happened, and cuts the log there.
+ * <p>
+ * Every record reaches the operating system before its call returns, so a crash of the process
+ * alone loses nothing; {@link FsyncPolicy} decides what a crash of the machine may lose.
+ * Replaying a log on top of a snapshot that already holds some of its changes gives the same set,
+ * because the last record about a key decides whether it is present; so a crash between writing a
+ * snapshot and emptying the log is harmless.
+ * <p>
+ * Thread-safe: calls are serialized on this object, only waiting for the disk happens outside.
+ * Iterate with the lock on this object held.
+ */
+public class DurableSet<E extends Comparable<E>> implements ISet<E>, Closeable {
+
+    public enum FsyncPolicy {
+        /**
+         * every change is forced to disk before its call returns, one fsync per change
+         */
+        ALWAYS,
+        /**
+         * group commit: a call waits for its change to be forced, but one fsync covers every
+         * change logged by other threads in the meantime
+         */
+        GROUP,
+        /**
+         * forced in the background every {@link #FSYNC_INTERVAL_MILLIS} ms; a machine crash loses
+         * at most the changes of the last interval
+         */
+        INTERVAL,
+        /**
+         * left to the operating system
+         */
+        NEVER
+    }
+
+    public static final long FSYNC_INTERVAL_MILLIS = 50;
+    public static final int DEFAULT_CHECKPOINT_EVERY = 1_000_000;
+
+    private static final byte ADD = 1;
+    private static final byte REMOVE = 2;
+    private static final String SNAPSHOT = "set.snapshot";
+    private static final String LOG = "set.wal";
+
+    private final ISet<E> set;
+    private final KeyCodec<E> codec;
+    private final Path snapshot;
+    private final FileChannel log;
+    private final FsyncPolicy fsync;
+    private final int checkpointEvery;
+    private final ScheduledExecutorService flusher;
+
+    private final int recordBytes;
+    private final ByteBuffer record;
+    private final CRC32 crc = new CRC32();
+    /**
+     * records written to the log since it was opened, guarded by this
+     */
+    private long written;
+    /**
+     * records in the log since the last checkpoint, guarded by this
+     */
+    private int sinceCheckpoint;
+    /**
+     * {@link #written} as of the last fsync, guarded by {@link #syncLock}
+     */
+    private long durable;
+    private final Object syncLock = new Object();
+    /**
+     * why the log can't be trusted any more, if it can't: a torn record that couldn't be cut off,
+     * or a checkpoint that failed half-way through resetting the log; guarded by this
+     */
+    private IOException failure;
+    /**
+     * failure of the last automatic checkpoint, reported by {@link #close()}; guarded by this
+     */
+    private IOException checkpointFailure;
+
+    public DurableSet(ISet<E> set, KeyCodec<E> codec, Path directory, FsyncPolicy fsync) throws IOException {
+        this(set, codec, directory, fsync, DEFAULT_CHECKPOINT_EVERY);
+    }
+
+    /**
+     * Loads the snapshot and replays the log found in {@code directory}, if any, into {@code set}.
+     *
+     * @param set empty set to keep the elements in; must not be used directly afterwards
+     * @param checkpointEvery number of logged changes after which the set is checkpointed
+     */
+    public DurableSet(ISet<E> set, KeyCodec<E> codec, Path directory, FsyncPolicy fsync, int checkpointEvery)
+            throws IOException {
+        if (!set.isEmpty()) {
+            throw new IllegalArgumentException("set is not empty");
+        }
+        if (checkpointEvery <= 0) {
+            throw new IllegalArgumentException("checkpointEvery is not positive: " + checkpointEvery);
+        }
+        this.set = set;
+        this.codec = codec;
+        this.fsync = fsync;
+        this.checkpointEvery = checkpointEvery;
+        this.recordBytes = 1 + codec.width() + Integer.BYTES;
+        this.record = ByteBuffer.allocate(recordBytes);
+
+        Files.createDirectories(directory);
+        this.snapshot = directory.resolve(SNAPSHOT);
+        if (Files.exists(snapshot)) {
+            @SuppressWarnings("unchecked")
+            E[] values = (E[]) MappedSortedSet.open(snapshot, codec).inorderTraverse().toArray(new Comparable<?>[0]);
+            set.addAll(values);
+        }
+        this.log = FileChannel.open(directory.resolve(LOG), StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        replay();
+
+        if (fsync == FsyncPolicy.INTERVAL) {
+            flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "DurableSet fsync");
+                thread.setDaemon(true);
+                return thread;
+            });
+            flusher.scheduleWithFixedDelay(this::flushQuietly,
+                    FSYNC_INTERVAL_MILLIS, FSYNC_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+        } else {
+            flusher = null;
+        }
+    }
+
+    private void replay() throws IOException {
+        // a whole number of records, so only the end of the log can leave a partial one in the buffer
+        ByteBuffer buffer = ByteBuffer.allocate(recordBytes * 4096);
+        long valid = 0;
+        boolean corrupt = false;
+        while (!corrupt) {
+            buffer.clear();
+            while (buffer.hasRemaining() && log.read(buffer, valid + buffer.position()) > 0) {
+                // keep reading until the buffer is full or the log ends
+            }
+            int records = buffer.position() / recordBytes;
+            if (records == 0) {
+                break;
+            }
+            for (int offset = 0; offset < records * recordBytes; offset += recordBytes) {
+                byte type = buffer.get(offset);
+                crc.reset();
+                crc.update(buffer.array(), offset, recordBytes - Integer.BYTES);
+                if (type != ADD && type != REMOVE
+                        || buffer.getInt(offset + recordBytes - Integer.BYTES) != (int) crc.getValue()) {
+                    corrupt = true;
+                    break;
+                }
+                E value = codec.read(buffer, offset + 1);
+                if (type == ADD) {
+                    set.add(value);
+                } else {
+                    set.remove(value);
+                }
+                valid += recordBytes;
+            }
+        }
+        if (valid < log.size()) {
+            log.truncate(valid);
+            log.force(true);
+        }
+        log.position(valid);
+        sinceCheckpoint = (int) Math.min(Integer.MAX_VALUE, valid / recordBytes);
+    }
+
+    @Override
+    public synchronized int size() {
+        return set.size();
+    }
+
+    @Override
+    public synchronized boolean isEmpty() {
+        return set.isEmpty();
+    }
+
+    @Override
+    public synchronized boolean contains(E value) {
+        return set.contains(value);
+    }
+
+    @Override
+    public boolean add(E value) {
+        long seq;
+        synchronized (this) {
+            checkWritable();
+            if (!set.add(value)) {
+                return false;
+            }
+            seq = append(ADD, value);
+        }
+        awaitDurable(seq);
+        return true;
+    }
+
+    @Override
+    public boolean remove(E value) {
+        long seq;
+        synchronized (this) {
+            checkWritable();
+            if (!set.remove(value)) {
+                return false;
+            }
+            seq = append(REMOVE, value);
+        }
+        awaitDurable(seq);
+        return true;
+    }
+
+    /**
+     * Logs the whole batch, then waits for a single fsync.
+     */
+    @Override
+    public boolean addAll(E[] values) {
+        long seq = 0;
+        synchronized (this) {
+            checkWritable();
+            for (E value : values) {
+                if (set.add(value)) {
+                    seq = append(ADD, value);
+                }
+            }
+        }
+        awaitDurable(seq);
+        return seq != 0;
+    }
+
+    /**
+     * Logs the whole batch, then waits for a single fsync.
+     */
+    @Override
+    public boolean removeAll(E[] values) {
+        long seq = 0;
+        synchronized (this) {
+            checkWritable();
+            for (E value : values) {
+                if (set.remove(value)) {
+                    seq = append(REMOVE, value);
+                }
+            }
+        }
+        awaitDurable(seq);
+        return seq != 0;
+    }
+
+    private void checkWritable() {
+        if (failure != null) {
+            throw new IllegalStateException("write-ahead log is damaged, reopen the set", failure);
+        }
+    }
+
+    /**
+     * Writes the record of a change already made to {@link #set}. If the write fails, the part of
+     * the record that got into the log is cut off, so later records don't end up behind a torn one
+     * where recovery would never reach them, and the change is undone.
+     *
+     * @return sequence number of the record
+     */
+    private long append(byte type, E value) {
+        record.clear();
+        record.put(type);
+        codec.write(record, value);
+        crc.reset();
+        crc.update(record.array(), 0, recordBytes - Integer.BYTES);
+        record.putInt((int) crc.getValue());
+        record.flip();
+        long start = -1;
+        try {
+            start = log.position();
+            while (record.hasRemaining()) {
+                log.write(record);
+            }
+            if (fsync == FsyncPolicy.ALWAYS) {
+                log.force(false);
+            }
+        } catch (IOException e) {
+            if (start >= 0) {
+                cutOff(start, e);
+            }
+            if (type == ADD) {
+                set.remove(value);
+            } else {
+                set.add(value);
+            }
+            throw new UncheckedIOException(e);
+        }
+        written++;
+        // the change is committed by now: a failed checkpoint must not fail the call, so it is
+        // kept for close() and tried again after another checkpointEvery changes
+        if (++sinceCheckpoint >= checkpointEvery) {
+            try {
+                checkpoint();
+            } catch (IOException e) {
+                checkpointFailure = e;
+                sinceCheckpoint = 0;
+            }
+        }
+        return written;
+    }
+
+    /**
+     * Truncates the log back to {@code start}; if even that fails, the set takes no more changes.
+     */
+    private void cutOff(long start, IOException cause) {
+        try {
+            log.truncate(start);
+            log.position(start);
+        } catch (IOException e) {
+            cause.addSuppressed(e);
+            failure = cause;
+        }
+    }
+
+    /**
+     * Group commit: whoever gets here first forces everything written so far, and the threads
+     * that queued up behind it find their records already durable.
+     */
+    private void awaitDurable(long seq) {
+        if (fsync != FsyncPolicy.GROUP || seq == 0) {
+            return;
+        }
+        try {
+            flush(seq);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void flush(long seq) throws IOException {
+        synchronized (syncLock) {
+            if (durable >= seq) {
+                return;
+            }
+            long target;
+            synchronized (this) {
+                target = written;
+            }
+            log.force(false);
+            durable = target;
+        }
+    }
+
+    private void flushQuietly() {
+        try {
+            long target;
+            synchronized (this) {
+                target = written;
+            }
+            flush(target);
+        } catch (IOException e) {
+            // the next call writing the log reports the failure
+        }
+    }
+
+    /**
+     * Writes the set to a new snapshot and empties the log. A failure to write the snapshot leaves
+     * everything as it was; a failure to empty the log leaves it in an unknown state, and the set
+     * takes no more changes.
+     */
+    public synchronized void checkpoint() throws IOException {
+        checkWritable();
+        MappedSortedSet.write(set, codec, snapshot);
+        try {
+            log.truncate(0);
+            log.position(0);
+            log.force(true);
+        } catch (IOException e) {
+            failure = e;
+            throw e;
+        }
+        sinceCheckpoint = 0;
+        checkpointFailure = null;
+    }
+
+    /**
+     * Forces the log to disk and closes it; the set must not be used afterwards.
+     *
+     * @throws IOException also if the last automatic checkpoint failed and none succeeded since;
+     * the changes are still in the log, so nothing is lost
+     */
+    @Override
+    public void close() throws IOException {
+        if (flusher != null) {
+            flusher.shutdown();
+        }
+        IOException pending;
+        synchronized (this) {
+            log.force(true);
+            log.close();
+            pending = checkpointFailure;
+        }
+        if (pending != null) {
+            throw new IOException("automatic checkpoint failed", pending);
+        }
+    }
+
+    @Override
+    public Iterator<E> iterator() {
+        return set.iterator();
+    }
+
+    public static void main(String[] args) throws IOException {
+        Path dir = Files.createTempDirectory("durable");
+        try (DurableSet<Integer> set = new DurableSet<>(new ChainHashTable<>(), KeyCodec.INTEGER, dir, FsyncPolicy.GROUP, 4)) {
+            for (int i = 0; i < 10; i++) {
+                set.add(i);
+            }
+            set.remove(3);
+        }
+        // reopening replays the snapshot and what was logged after it
+        try (DurableSet<Integer> set = new DurableSet<>(new AVLTree<>(), KeyCodec.INTEGER, dir, FsyncPolicy.GROUP)) {
+            System.out.println(set.size() + " " + set.contains(3) + " " + set.contains(9));
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package ru.mail.polis;
+
+/**
+ * Hash function of the hash tables. The tables keep power-of-two capacities and take the low bits
+ * of the hash as the index, so every bit of the key has to reach the low bits.
+ */
+@FunctionalInterface
+public interface Hasher<E> {
+
+    int hash(E value);
+
+    /**
+     * {@code hashCode} through the murmur3 finalizer: every input bit affects every output bit, so
+     * sequential keys, and keys differing only in their high bits, spread over the whole table.
+     */
+    static <E> Hasher<E> murmur() {
+        return value -> mix(value.hashCode());
+    }
+
+    /**
+     * {@code hashCode} as is: cheapest, and fine for keys whose hash codes are already random,
+     * but keys with equal low bits share a bucket.
+     */
+    static <E> Hasher<E> identity() {
+        return Object::hashCode;
+    }
+
+    /**
+     * murmur3 fmix32
+     */
+    static int mix(int h) {
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h;
+    }
+}
@@ -0,0 +1,35 @@
+package ru.mail.polis;
+
+/**
+ * {@link ISet} for primitive {@code long} keys: no boxing on the hot path.
+ */
+public interface ILongSet {
+
+    /**
+     * @return the number of elements in this set (its cardinality)
+     */
+    int size();
+
+    /**
+     * @return true if this set contains no elements
+     */
+    boolean isEmpty();
+
+    /**
+     * @param value element whose presence in this set is to be tested
+     * @return true if this set contains the specified element
+     */
+    boolean contains(long value);
+
+    /**
+     * @param value element to be added to this set
+     * @return true if this set did not already contain the specified element
+     */
+    boolean add(long value);
+
+    /**
+     * @param value element to be removed from this set, if present
+     * @return true if this set contained the specified element
+     */
+    boolean remove(long value);
+}
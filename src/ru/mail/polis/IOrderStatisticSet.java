@@ -0,0 +1,33 @@
+package ru.mail.polis;
+
+/**
+ * Sorted set that knows the size of every subtree, so positions can be computed in O(log n)
+ * instead of by walking the elements.
+ */
+public interface IOrderStatisticSet<E extends Comparable<E>> extends ISortedSet<E> {
+
+    /**
+     * @param k zero-based position in sorting ordering
+     * @return the k-th smallest element
+     * @throws IndexOutOfBoundsException if {@code k} is not in {@code [0, size())}
+     */
+    E select(int k);
+
+    /**
+     * @return the number of elements strictly less than {@code value};
+     * {@code value} doesn't have to be in the set
+     */
+    int rank(E value);
+
+    /**
+     * @return the number of elements between {@code from} and {@code to}, 0 if {@code from > to}
+     */
+    int countInRange(E from, boolean fromInclusive, E to, boolean toInclusive);
+
+    /**
+     * @return the number of elements {@code e} with {@code from <= e <= to}
+     */
+    default int countInRange(E from, E to) {
+        return countInRange(from, true, to, true);
+    }
+}
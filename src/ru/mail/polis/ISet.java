@@ -1,6 +1,8 @@
 package ru.mail.polis;
 
-public interface ISet<E extends Comparable<E>> {
+import java.util.Iterator;
+
+public interface ISet<E extends Comparable<E>> extends Iterable<E> {
 
     /**
      * @return the number of elements in this set (its cardinality)
@@ -32,4 +34,58 @@ public interface ISet<E extends Comparable<E>> {
      * @throws NullPointerException if the specified element is null
      */
     boolean remove(E value);
+
+    /**
+     * @return iterator over the elements, in no particular order unless the set says otherwise;
+     * the set must not be modified while it is in use (unless the set says otherwise)
+     */
+    @Override
+    Iterator<E> iterator();
+
+    /**
+     * Adds every value of the batch; implementations may reorder the work to share it between values.
+     *
+     * @return true if this set changed
+     * @throws NullPointerException if a value is null
+     */
+    default boolean addAll(E[] values) {
+        boolean changed = false;
+        for (E value : values) {
+            changed |= add(value);
+        }
+        return changed;
+    }
+
+    /**
+     * Looks every value of the batch up: {@code out[i]} is set to {@code contains(values[i])}.
+     *
+     * @param out array of at least {@code values.length} results, or null if only the return value is needed
+     * @return true if this set contains every value of the batch
+     * @throws NullPointerException if a value is null
+     */
+    default boolean containsAll(E[] values, boolean[] out) {
+        boolean all = true;
+        for (int i = 0; i < values.length; i++) {
+            boolean found = contains(values[i]);
+            if (out != null) {
+                out[i] = found;
+            }
+            all &= found;
+        }
+        return all;
+    }
+
+    /**
+     * Removes every value of the batch.
+     *
+     * @return true if this set changed
+     * @throws NullPointerException if a value is null
+     */
+    default boolean removeAll(E[] values) {
+        boolean changed = false;
+        for (E value : values) {
+            changed |= remove(value);
+        }
+        return changed;
+    }
 }
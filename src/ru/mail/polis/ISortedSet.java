@@ -1,6 +1,14 @@
 package ru.mail.polis;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 public interface ISortedSet<E extends Comparable<E>> extends ISet<E> {
 
@@ -16,8 +24,178 @@ public interface ISortedSet<E extends Comparable<E>> extends ISet<E> {
      */
     E last();
 
+    /**
+     * Adds every value of the collection. Trees override it to sort the batch and rebuild
+     * themselves balanced in linear time instead of inserting the values one by one.
+     *
+     * @return true if the set changed
+     */
+    default boolean addAll(Collection<? extends E> values) {
+        boolean changed = false;
+        for (E value : values) {
+            changed |= add(value);
+        }
+        return changed;
+    }
+
+    /**
+     * Adds every element of {@code other} to this set.
+     *
+     * @return true if this set changed
+     */
+    default boolean union(ISortedSet<E> other) {
+        boolean changed = false;
+        for (E value : other) {
+            changed |= add(value);
+        }
+        return changed;
+    }
+
+    /**
+     * Removes from this set every element that is not in {@code other}.
+     *
+     * @return true if this set changed
+     */
+    default boolean intersect(ISortedSet<E> other) {
+        List<E> absent = new ArrayList<>();
+        for (E value : this) {
+            if (!other.contains(value)) {
+                absent.add(value);
+            }
+        }
+        for (E value : absent) {
+            remove(value);
+        }
+        return !absent.isEmpty();
+    }
+
+    /**
+     * Removes from this set every element of {@code other}.
+     *
+     * @return true if this set changed
+     */
+    default boolean difference(ISortedSet<E> other) {
+        boolean changed = false;
+        for (E value : other == this ? inorderTraverse() : other) {
+            changed |= remove(value);
+        }
+        return changed;
+    }
+
+    /**
+     * {@link #union} that may use the common fork-join pool; the same as {@code union} unless overridden.
+     */
+    default boolean parallelUnion(ISortedSet<E> other) {
+        return union(other);
+    }
+
+    /**
+     * {@link #intersect} that may use the common fork-join pool; the same as {@code intersect} unless overridden.
+     */
+    default boolean parallelIntersect(ISortedSet<E> other) {
+        return intersect(other);
+    }
+
+    /**
+     * {@link #difference} that may use the common fork-join pool; the same as {@code difference} unless overridden.
+     */
+    default boolean parallelDifference(ISortedSet<E> other) {
+        return difference(other);
+    }
+
+    /**
+     * @return the comparator ordering this set, or null if it uses the natural ordering of its elements
+     */
+    Comparator<? super E> comparator();
+
+    /**
+     * @return the greatest element less than or equal to {@code value}, or null if there is none
+     */
+    E floor(E value);
+
+    /**
+     * @return the least element greater than or equal to {@code value}, or null if there is none
+     */
+    E ceiling(E value);
+
+    /**
+     * @return the greatest element strictly less than {@code value}, or null if there is none
+     */
+    E lower(E value);
+
+    /**
+     * @return the least element strictly greater than {@code value}, or null if there is none
+     */
+    E higher(E value);
+
     /**
      * @return list of element in sorting ordering
      */
-    List<E> inorderTraverse();
+    default List<E> inorderTraverse() {
+        List<E> list = new ArrayList<>(size());
+        for (E value : this) {
+            list.add(value);
+        }
+        return list;
+    }
+
+    /**
+     * @return iterator over the elements in sorting ordering, walking the set in place;
+     * the set must not be modified while it is in use (unless the set says otherwise)
+     */
+    @Override
+    Iterator<E> iterator();
+
+    /**
+     * Lazy iterator over the elements between {@code from} and {@code to} in sorting ordering.
+     * A null bound leaves that side of the range open.
+     *
+     * @throws IllegalArgumentException if {@code from} is greater than {@code to}
+     */
+    Iterator<E> iterator(E from, boolean fromInclusive, E to, boolean toInclusive);
+
+    /**
+     * @return view of the elements from {@code from} inclusive to {@code to} exclusive
+     * @see #subSet(Comparable, boolean, Comparable, boolean)
+     */
+    default ISortedSet<E> subSet(E from, E to) {
+        return subSet(from, true, to, false);
+    }
+
+    /**
+     * View of the elements between {@code from} and {@code to}, backed by this set: changes of
+     * either are visible in the other. Adding an element outside of the range throws
+     * {@link IllegalArgumentException}. {@code size()} of the view counts its elements.
+     *
+     * @throws IllegalArgumentException if {@code from} is greater than {@code to}
+     */
+    default ISortedSet<E> subSet(E from, boolean fromInclusive, E to, boolean toInclusive) {
+        if (from == null || to == null) {
+            throw new NullPointerException("bound is null");
+        }
+        return new SubSortedSet<>(this, from, fromInclusive, to, toInclusive);
+    }
+
+    /**
+     * @return spliterator over the elements in sorting ordering; implementations split it for parallel streams
+     */
+    @Override
+    default Spliterator<E> spliterator() {
+        return Spliterators.spliterator(iterator(), size(),
+                Spliterator.ORDERED | Spliterator.DISTINCT | Spliterator.NONNULL);
+    }
+
+    /**
+     * @return sequential stream of the elements in sorting ordering
+     */
+    default Stream<E> stream() {
+        return StreamSupport.stream(spliterator(), false);
+    }
+
+    /**
+     * @return parallel stream of the elements, split along subtrees where the set supports it
+     */
+    default Stream<E> parallelStream() {
+        return StreamSupport.stream(spliterator(), true);
+    }
 }
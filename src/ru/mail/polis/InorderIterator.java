@@ -0,0 +1,103 @@
+package ru.mail.polis;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * In-order iterator over a binary search tree with an explicit stack: no recursion and
+ * no extra memory beyond one slot per level of the tree.
+ * <p>
+ * A range iterator seeds the stack with the path to the lower bound and stops at the first
+ * value past the upper bound, so it touches O(log n + k) nodes for k values in the range.
+ */
+final class InorderIterator<N, E> implements Iterator<E> {
+
+    private final NodeAccess<N, E> access;
+    private final E to;
+    private final boolean toInclusive;
+    private Object[] stack = new Object[32];
+    private int depth;
+
+    InorderIterator(N root, NodeAccess<N, E> access) {
+        this.access = access;
+        this.to = null;
+        this.toInclusive = false;
+        pushLeft(root);
+    }
+
+    /**
+     * Iterates the values between {@code from} and {@code to}; a null bound means no bound on that side.
+     *
+     * @throws IllegalArgumentException if {@code from} is greater than {@code to}
+     */
+    InorderIterator(N root, NodeAccess<N, E> access, E from, boolean fromInclusive, E to, boolean toInclusive) {
+        if (from != null && to != null && access.compare(from, to) > 0) {
+            throw new IllegalArgumentException("from > to");
+        }
+        this.access = access;
+        this.to = to;
+        this.toInclusive = toInclusive;
+        if (from == null) {
+            pushLeft(root);
+        } else {
+            N curr = root;
+            while (curr != null) {
+                int cmp = access.compare(access.value(curr), from);
+                if (cmp > 0 || cmp == 0 && fromInclusive) {
+                    push(curr);
+                    curr = cmp == 0 ? null : access.left(curr);
+                } else {
+                    curr = access.right(curr);
+                }
+            }
+        }
+        checkUpperBound();
+    }
+
+    private void push(N node) {
+        if (depth == stack.length) {
+            stack = java.util.Arrays.copyOf(stack, depth << 1);
+        }
+        stack[depth++] = node;
+    }
+
+    private void pushLeft(N node) {
+        while (node != null) {
+            push(node);
+            node = access.left(node);
+        }
+    }
+
+    /**
+     * Drops the stack once its top is past the upper bound: every value below it is even larger.
+     */
+    @SuppressWarnings("unchecked")
+    private void checkUpperBound() {
+        if (to == null || depth == 0) {
+            return;
+        }
+        int cmp = access.compare(access.value((N) stack[depth - 1]), to);
+        if (cmp > 0 || cmp == 0 && !toInclusive) {
+            java.util.Arrays.fill(stack, 0, depth, null);
+            depth = 0;
+        }
+    }
+
+    @Override
+    public boolean hasNext() {
+        return depth > 0;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public E next() {
+        if (depth == 0) {
+            throw new NoSuchElementException();
+        }
+        N node = (N) stack[--depth];
+        stack[depth] = null;
+        pushLeft(access.right(node));
+        checkUpperBound();
+        return access.value(node);
+    }
+}
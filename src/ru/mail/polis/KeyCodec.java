@@ -0,0 +1,58 @@
+package ru.mail.polis;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Fixed-width binary form of the elements of a {@link MappedSortedSet} snapshot.
+ */
+public interface KeyCodec<E> {
+
+    KeyCodec<Integer> INTEGER = new KeyCodec<Integer>() {
+        @Override
+        public int width() {
+            return Integer.BYTES;
+        }
+
+        @Override
+        public void write(ByteBuffer out, Integer value) {
+            out.putInt(value);
+        }
+
+        @Override
+        public Integer read(ByteBuffer in, int offset) {
+            return in.getInt(offset);
+        }
+    };
+
+    KeyCodec<Long> LONG = new KeyCodec<Long>() {
+        @Override
+        public int width() {
+            return Long.BYTES;
+        }
+
+        @Override
+        public void write(ByteBuffer out, Long value) {
+            out.putLong(value);
+        }
+
+        @Override
+        public Long read(ByteBuffer in, int offset) {
+            return in.getLong(offset);
+        }
+    };
+
+    /**
+     * @return bytes taken by every element
+     */
+    int width();
+
+    /**
+     * Writes exactly {@link #width()} bytes at the position of {@code out}, advancing it.
+     */
+    void write(ByteBuffer out, E value);
+
+    /**
+     * Reads the element at the absolute {@code offset} of {@code in}, leaving its position alone.
+     */
+    E read(ByteBuffer in, int offset);
+}
@@ -0,0 +1,472 @@
+package ru.mail.polis;
+
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicMarkableReference;
+
+/**
+ * Lock-free sorted set (Herlihy, Shavit "The Art of Multiprocessor Programming", 14.4).
+ * <p>
+ * Every level is a lock-free linked list; a node is removed by first marking its {@code next}
+ * references top-down and then physically unlinking it, which any thread passing by may do.
+ * The bottom level is the set itself: {@code add} is linearized by linking the bottom reference,
+ * {@code remove} by marking it, {@code contains} never writes and never retries.
+ * {@code first}, {@code last}, {@code size}, the navigation methods and iterators are weakly consistent:
+ * they reflect some state of the set during the call, not necessarily a single point in time.
+ */
+public class LockFreeSkipList<E extends Comparable<E>> implements ISortedSet<E> {
+
+    private static final int MAX_LEVEL = 31;
+
+    private final class Node {
+        final E value;
+        final AtomicMarkableReference<Node>[] next;
+        final int topLevel;
+
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        Node(E value, int topLevel) {
+            this.value = value;
+            this.topLevel = topLevel;
+            this.next = new AtomicMarkableReference[topLevel + 1];
+            for (int i = 0; i <= topLevel; i++) {
+                next[i] = new AtomicMarkableReference<>(null, false);
+            }
+        }
+
+        boolean isDeleted() {
+            return next[0].isMarked();
+        }
+    }
+
+    private final Node head = new Node(null, MAX_LEVEL);
+    private final Node tail = new Node(null, MAX_LEVEL);
+    private final Comparator<E> comparator;
+    private final AtomicInteger size = new AtomicInteger();
+    /**
+     * highest level any node has ever been linked at; searches start here instead of at MAX_LEVEL
+     */
+    private final AtomicInteger levelHint = new AtomicInteger();
+
+    public LockFreeSkipList() {
+        this(null);
+    }
+
+    public LockFreeSkipList(Comparator<E> comparator) {
+        this.comparator = comparator;
+        for (int i = 0; i <= MAX_LEVEL; i++) {
+            head.next[i].set(tail, false);
+        }
+    }
+
+    @Override
+    public int size() {
+        return Math.max(size.get(), 0);
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return first(false) == null;
+    }
+
+    @Override
+    public boolean contains(E value) {
+        if (value == null) {
+            throw new NullPointerException("value is null");
+        }
+        boolean[] marked = {false};
+        Node pred = head;
+        // the node that ended the walk one level up is known to be >= value: don't compare it again
+        Node bound = tail;
+        for (int level = levelHint.get(); level >= 0; level--) {
+            Node curr = pred.next[level].getReference();
+            while (curr != bound) {
+                Node succ = curr.next[level].get(marked);
+                while (marked[0]) {
+                    curr = succ;
+                    succ = curr.next[level].get(marked);
+                }
+                if (curr == tail) {
+                    break;
+                }
+                int cmp = compare(curr.value, value);
+                if (cmp < 0) {
+                    pred = curr;
+                    curr = succ;
+                } else {
+                    if (cmp == 0) {
+                        // unmarked at this level, so the bottom mark decides
+                        return !curr.isDeleted();
+                    }
+                    break;
+                }
+            }
+            bound = curr;
+        }
+        return false;
+    }
+
+    /**
+     * @return an array with a slot per level; {@code Node} is generic through {@code E}, so it is
+     * created raw
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private Node[] newLevelArray() {
+        return (Node[]) new LockFreeSkipList.Node[MAX_LEVEL + 1];
+    }
+
+    @Override
+    public boolean add(E value) {
+        if (value == null) {
+            throw new NullPointerException("value is null");
+        }
+        int topLevel = randomLevel();
+        raiseLevelHint(topLevel);
+        Node[] preds = newLevelArray();
+        Node[] succs = newLevelArray();
+        while (true) {
+            if (find(value, preds, succs)) {
+                return false;
+            }
+            Node node = new Node(value, topLevel);
+            for (int level = 0; level <= topLevel; level++) {
+                node.next[level].set(succs[level], false);
+            }
+            if (!preds[0].next[0].compareAndSet(succs[0], node, false, false)) {
+                continue;
+            }
+            size.incrementAndGet();
+            // the element is in the set now; the upper levels only speed up searches
+            for (int level = 1; level <= topLevel; level++) {
+                while (true) {
+                    Node succ = succs[level];
+                    AtomicMarkableReference<Node> ref = node.next[level];
+                    Node curr = ref.getReference();
+                    if (curr != succ && !ref.compareAndSet(curr, succ, false, false)) {
+                        // marked by a concurrent remove: stop building a node that is going away
+                        return true;
+                    }
+                    if (ref.isMarked()) {
+                        return true;
+                    }
+                    if (preds[level].next[level].compareAndSet(succ, node, false, false)) {
+                        break;
+                    }
+                    find(value, preds, succs);
+                }
+            }
+            return true;
+        }
+    }
+
+    @Override
+    public boolean remove(E value) {
+        if (value == null) {
+            throw new NullPointerException("value is null");
+        }
+        Node[] preds = newLevelArray();
+        Node[] succs = newLevelArray();
+        boolean[] marked = {false};
+        if (!find(value, preds, succs)) {
+            return false;
+        }
+        Node victim = succs[0];
+        for (int level = victim.topLevel; level >= 1; level--) {
+            Node succ = victim.next[level].get(marked);
+            while (!marked[0]) {
+                victim.next[level].compareAndSet(succ, succ, false, true);
+                succ = victim.next[level].get(marked);
+            }
+        }
+        Node succ = victim.next[0].get(marked);
+        while (true) {
+            boolean markedByMe = victim.next[0].compareAndSet(succ, succ, false, true);
+            succ = victim.next[0].get(marked);
+            if (markedByMe) {
+                size.decrementAndGet();
+                // unlink it physically
+                find(value, preds, succs);
+                return true;
+            } else if (marked[0]) {
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Fills {@code preds} / {@code succs} with the nodes around {@code value} on every level,
+     * unlinking marked nodes on the way.
+     *
+     * @return true if an unmarked node holding {@code value} is linked at the bottom level
+     */
+    private boolean find(E value, Node[] preds, Node[] succs) {
+        boolean[] marked = {false};
+        retry:
+        while (true) {
+            Node pred = head;
+            for (int level = levelHint.get(); level >= 0; level--) {
+                Node curr = pred.next[level].getReference();
+                while (true) {
+                    Node succ = curr.next[level].get(marked);
+                    while (marked[0]) {
+                        if (!pred.next[level].compareAndSet(curr, succ, false, false)) {
+                            continue retry;
+                        }
+                        curr = succ;
+                        succ = curr.next[level].get(marked);
+                    }
+                    if (less(curr, value)) {
+                        pred = curr;
+                        curr = succ;
+                    } else {
+                        break;
+                    }
+                }
+                preds[level] = pred;
+                succs[level] = curr;
+            }
+            return succs[0] != tail && compare(succs[0].value, value) == 0;
+        }
+    }
+
+    private boolean less(Node node, E value) {
+        return node != tail && compare(node.value, value) < 0;
+    }
+
+    private static int randomLevel() {
+        // geometric distribution with p = 1/2
+        return Math.min(Integer.numberOfTrailingZeros(ThreadLocalRandom.current().nextInt() | (1 << 30)), MAX_LEVEL);
+    }
+
+    private void raiseLevelHint(int level) {
+        int hint;
+        while ((hint = levelHint.get()) < level && !levelHint.compareAndSet(hint, level)) {
+            // retry
+        }
+    }
+
+    @Override
+    public E first() {
+        Node node = first(true);
+        return node.value;
+    }
+
+    private Node first(boolean required) {
+        Node curr = head.next[0].getReference();
+        while (curr != tail && curr.isDeleted()) {
+            curr = curr.next[0].getReference();
+        }
+        if (curr == tail) {
+            if (required) {
+                throw new NoSuchElementException("Set is empty");
+            }
+            return null;
+        }
+        return curr;
+    }
+
+    @Override
+    public E last() {
+        Node pred = head;
+        for (int level = levelHint.get(); level >= 0; level--) {
+            Node curr = pred.next[level].getReference();
+            while (curr != tail) {
+                if (!curr.isDeleted()) {
+                    pred = curr;
+                }
+                curr = curr.next[level].getReference();
+            }
+        }
+        if (pred == head) {
+            throw new NoSuchElementException("Set is empty");
+        }
+        return pred.value;
+    }
+
+    @Override
+    public Comparator<? super E> comparator() {
+        return comparator;
+    }
+
+    @Override
+    public E floor(E value) {
+        return valueOf(below(value, true));
+    }
+
+    @Override
+    public E ceiling(E value) {
+        return valueOf(above(value, true));
+    }
+
+    @Override
+    public E lower(E value) {
+        return valueOf(below(value, false));
+    }
+
+    @Override
+    public E higher(E value) {
+        return valueOf(above(value, false));
+    }
+
+    private E valueOf(Node node) {
+        return node == head || node == tail ? null : node.value;
+    }
+
+    /**
+     * @return the greatest live node below {@code value} (or equal to it if {@code inclusive}), head if none
+     */
+    private Node below(E value, boolean inclusive) {
+        return walk(value, inclusive, false);
+    }
+
+    /**
+     * @return the least live node above {@code value} (or equal to it if {@code inclusive}), tail if none
+     */
+    private Node above(E value, boolean inclusive) {
+        return walk(value, !inclusive, true);
+    }
+
+    /**
+     * Walks down to the bottom level the way {@link #contains} does, stepping over marked nodes
+     * instead of onto them: the links of a marked node are frozen, so a node inserted after the mark
+     * is only reachable from its live predecessor. If the node the walk reaches the bottom level at
+     * is itself marked there, the walk starts over.
+     *
+     * @param takeEqual whether a node equal to {@code value} counts as below it
+     * @param successor whether to return the first live node after the last one below {@code value}
+     * @return the last live node below {@code value}, head if none, or its successor, tail if none
+     */
+    private Node walk(E value, boolean takeEqual, boolean successor) {
+        if (value == null) {
+            throw new NullPointerException("value is null");
+        }
+        boolean[] marked = {false};
+        retry:
+        while (true) {
+            Node pred = head;
+            for (int level = levelHint.get(); level >= 0; level--) {
+                Node curr = pred.next[level].get(marked);
+                if (marked[0] && level == 0) {
+                    continue retry;
+                }
+                while (true) {
+                    Node succ = curr.next[level].get(marked);
+                    while (marked[0]) {
+                        curr = succ;
+                        succ = curr.next[level].get(marked);
+                    }
+                    if (curr == tail) {
+                        break;
+                    }
+                    int cmp = compare(curr.value, value);
+                    if (cmp > 0 || cmp == 0 && !takeEqual) {
+                        break;
+                    }
+                    pred = curr;
+                    curr = succ;
+                }
+                if (level == 0 && successor) {
+                    return curr;
+                }
+            }
+            return pred;
+        }
+    }
+
+    /**
+     * Weakly consistent: walks the bottom level, skipping deleted nodes, and may or may not
+     * see elements added or removed concurrently. Safe to use while other threads modify the set.
+     */
+    @Override
+    public Iterator<E> iterator() {
+        return new BottomIterator(first(false), null, false);
+    }
+
+    /**
+     * Weakly consistent, like {@link #iterator()}; starts with a search for {@code from}.
+     */
+    @Override
+    public Iterator<E> iterator(E from, boolean fromInclusive, E to, boolean toInclusive) {
+        if (from != null && to != null && compare(from, to) > 0) {
+            throw new IllegalArgumentException("from > to");
+        }
+        Node start = from == null ? first(false) : above(from, fromInclusive);
+        return new BottomIterator(start == tail ? null : start, to, toInclusive);
+    }
+
+    private final class BottomIterator implements Iterator<E> {
+        private final E to;
+        private final boolean toInclusive;
+        private Node next;
+
+        /**
+         * @param start first live node to return, null for none
+         */
+        BottomIterator(Node start, E to, boolean toInclusive) {
+            this.to = to;
+            this.toInclusive = toInclusive;
+            this.next = bounded(start == null ? tail : start);
+        }
+
+        private Node bounded(Node node) {
+            if (node == tail || to == null) {
+                return node;
+            }
+            int cmp = compare(node.value, to);
+            return cmp < 0 || cmp == 0 && toInclusive ? node : tail;
+        }
+
+        private Node advance(Node curr) {
+            do {
+                curr = curr.next[0].getReference();
+            } while (curr != tail && curr.isDeleted());
+            return bounded(curr);
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next != tail;
+        }
+
+        @Override
+        public E next() {
+            if (next == tail) {
+                throw new NoSuchElementException();
+            }
+            Node curr = next;
+            next = advance(curr);
+            return curr.value;
+        }
+    }
+
+    private int compare(E v1, E v2) {
+        return comparator == null ? v1.compareTo(v2) : comparator.compare(v1, v2);
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        LockFreeSkipList<Integer> set = new LockFreeSkipList<>();
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            final int offset = t;
+            threads[t] = new Thread(() -> {
+                for (int i = offset; i < 1000; i += threads.length) {
+                    set.add(i);
+                }
+                for (int i = offset; i < 1000; i += threads.length) {
+                    if (i % 3 == 0) {
+                        set.remove(i);
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        System.out.println(set.size());
+        System.out.println(set.first() + " " + set.last());
+        System.out.println(set.inorderTraverse().subList(0, 10));
+    }
+}
@@ -0,0 +1,191 @@
+package ru.mail.polis;
+
+/**
+ * Open addressing over a flat {@code long[]}: linear probing, power-of-two capacity,
+ * 0 marks an empty slot (the key 0 itself is tracked by a separate flag).
+ * No per-entry objects, so an entry costs 8 / LOAD_FACTOR bytes at most.
+ * The table stops growing at 2^30 slots, which holds {@link #MAX_SIZE} elements.
+ */
+public class LongOpenHashSet implements ILongSet {
+
+    private static final int INITIAL_CAPACITY = 8;
+    private static final float LOAD_FACTOR = 0.75f;
+    private static final int MAX_CAPACITY = 1 << 30;
+    /**
+     * one less than the fill that would make the largest table grow, so it never has to
+     */
+    public static final int MAX_SIZE = (int) (MAX_CAPACITY * LOAD_FACTOR) - 1;
+
+    private long[] keys;
+    private int mask;
+    private int maxFill;
+    private int size;
+    private boolean containsZero;
+
+    public LongOpenHashSet() {
+        this(INITIAL_CAPACITY);
+    }
+
+    /**
+     * @param expected number of elements the set should hold without resizing
+     */
+    public LongOpenHashSet(int expected) {
+        if (expected < 0) {
+            throw new IllegalArgumentException("expected size is negative: " + expected);
+        }
+        allocate(capacityFor(expected));
+    }
+
+    private static int capacityFor(int expected) {
+        if (expected > MAX_SIZE) {
+            throw new IllegalArgumentException("expected size is too large: " + expected + " > " + MAX_SIZE);
+        }
+        long needed = (long) Math.ceil(expected / (double) LOAD_FACTOR) + 1;
+        int capacity = INITIAL_CAPACITY;
+        while (capacity < needed) {
+            capacity <<= 1;
+        }
+        return capacity;
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        mask = capacity - 1;
+        maxFill = (int) (capacity * LOAD_FACTOR);
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    @Override
+    public boolean contains(long value) {
+        if (value == 0) {
+            return containsZero;
+        }
+        long[] keys = this.keys;
+        int idx = mix(value) & mask;
+        long curr;
+        while ((curr = keys[idx]) != 0) {
+            if (curr == value) {
+                return true;
+            }
+            idx = (idx + 1) & mask;
+        }
+        return false;
+    }
+
+    @Override
+    public boolean add(long value) {
+        if (value == 0) {
+            if (containsZero) {
+                return false;
+            }
+            checkRoom();
+            containsZero = true;
+            size++;
+            return true;
+        }
+        int idx = mix(value) & mask;
+        long curr;
+        while ((curr = keys[idx]) != 0) {
+            if (curr == value) {
+                return false;
+            }
+            idx = (idx + 1) & mask;
+        }
+        checkRoom();
+        keys[idx] = value;
+        if (++size >= maxFill) {
+            resize();
+        }
+        return true;
+    }
+
+    private void checkRoom() {
+        if (size == MAX_SIZE) {
+            throw new IllegalStateException("set is full: " + MAX_SIZE + " elements");
+        }
+    }
+
+    @Override
+    public boolean remove(long value) {
+        if (value == 0) {
+            if (!containsZero) {
+                return false;
+            }
+            containsZero = false;
+            size--;
+            return true;
+        }
+        int idx = mix(value) & mask;
+        long curr;
+        while ((curr = keys[idx]) != 0) {
+            if (curr == value) {
+                shiftKeys(idx);
+                size--;
+                return true;
+            }
+            idx = (idx + 1) & mask;
+        }
+        return false;
+    }
+
+    /**
+     * Backward-shift deletion: pulls later members of the probe run into the hole
+     * so no tombstones are needed and lookups still stop at the first empty slot.
+     */
+    private void shiftKeys(int pos) {
+        long[] keys = this.keys;
+        while (true) {
+            int last = pos;
+            pos = (pos + 1) & mask;
+            long curr;
+            while (true) {
+                if ((curr = keys[pos]) == 0) {
+                    keys[last] = 0;
+                    return;
+                }
+                int home = mix(curr) & mask;
+                // may curr move back to last? only if its home slot is not in (last, pos]
+                if (last <= pos ? last >= home || home > pos : last >= home && home > pos) {
+                    break;
+                }
+                pos = (pos + 1) & mask;
+            }
+            keys[last] = curr;
+        }
+    }
+
+    private void resize() {
+        long[] old = keys;
+        allocate(old.length << 1);
+        for (long value : old) {
+            if (value != 0) {
+                int idx = mix(value) & mask;
+                while (keys[idx] != 0) {
+                    idx = (idx + 1) & mask;
+                }
+                keys[idx] = value;
+            }
+        }
+    }
+
+    /**
+     * murmur3 64-bit finalizer folded to an int: sequential ids must not form one long probe run
+     */
+    private static int mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return (int) h;
+    }
+}
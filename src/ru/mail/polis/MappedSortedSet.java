@@ -0,0 +1,362 @@
+package ru.mail.polis;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Read-only set over a snapshot file, queried in place through {@link FileChannel#map}: opening
+ * one reads the header only, the operating system pages the keys in as lookups touch them.
+ * <p>
+ * A snapshot is a 32-byte header followed by the elements in ascending natural order, each
+ * {@link KeyCodec#width()} bytes wide, big-endian:
+ * <pre>
+ *  0  int   magic "PSET"
+ *  4  int   format version, 1
+ *  8  int   key width in bytes
+ * 12  int   flags, 0
+ * 16  long  number of elements
+ * 24  long  reserved, 0
+ * </pre>
+ * Lookups binary-search the mapped keys. {@link #toRedBlackTree()} and {@link #toChainHashTable()}
+ * thaw a snapshot back into a mutable set. The mapping is released when the set is garbage collected.
+ */
+public final class MappedSortedSet<E extends Comparable<E>> implements IOrderStatisticSet<E> {
+
+    private static final int MAGIC = 0x50534554;
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 32;
+    private static final int WRITE_BUFFER = 1 << 16;
+    /**
+     * a mapping is limited to 2GB, so large snapshots are mapped as several segments
+     */
+    private static final int MAX_SEGMENT_BYTES = 1 << 30;
+
+    private final KeyCodec<E> codec;
+    private final ByteBuffer[] segments;
+    private final int segmentShift;
+    private final int segmentMask;
+    private final int width;
+    private final int size;
+
+    private MappedSortedSet(KeyCodec<E> codec, ByteBuffer[] segments, int segmentShift, int size) {
+        this.codec = codec;
+        this.segments = segments;
+        this.segmentShift = segmentShift;
+        this.segmentMask = (1 << segmentShift) - 1;
+        this.width = codec.width();
+        this.size = size;
+    }
+
+    /**
+     * Writes the elements of the set to {@code file} in snapshot format. The file is written next
+     * to its final place and moved there once complete, so a crash never leaves half a snapshot;
+     * the directory is forced after the move, so once this returns the new snapshot survives a crash.
+     */
+    public static <E extends Comparable<E>> void write(ISet<E> set, KeyCodec<E> codec, Path file) throws IOException {
+        List<E> keys = new ArrayList<>(set.size());
+        for (E value : set) {
+            keys.add(value);
+        }
+        if (!(set instanceof ISortedSet) || ((ISortedSet<E>) set).comparator() != null) {
+            keys.sort(null);
+        }
+        int width = codec.width();
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            ByteBuffer buffer = ByteBuffer.allocate(Math.max(WRITE_BUFFER, HEADER_BYTES + width));
+            buffer.putInt(MAGIC).putInt(VERSION).putInt(width).putInt(0).putLong(keys.size()).putLong(0);
+            for (E key : keys) {
+                if (buffer.remaining() < width) {
+                    flush(channel, buffer);
+                }
+                int position = buffer.position();
+                codec.write(buffer, key);
+                if (buffer.position() - position != width) {
+                    throw new IllegalArgumentException("codec wrote " + (buffer.position() - position)
+                            + " bytes instead of " + width);
+                }
+            }
+            flush(channel, buffer);
+            channel.force(true);
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        try (FileChannel dir = FileChannel.open(file.toAbsolutePath().getParent(), StandardOpenOption.READ)) {
+            dir.force(true);
+        }
+    }
+
+    private static void flush(FileChannel channel, ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    /**
+     * Maps a snapshot written by {@link #write} with the same codec.
+     *
+     * @throws IOException if the file can't be read or is not a valid snapshot for the codec
+     */
+    public static <E extends Comparable<E>> MappedSortedSet<E> open(Path file, KeyCodec<E> codec) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long fileSize = channel.size();
+            if (fileSize < HEADER_BYTES) {
+                throw new IOException(file + ": not a set snapshot");
+            }
+            MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_BYTES);
+            if (header.getInt(0) != MAGIC) {
+                throw new IOException(file + ": not a set snapshot");
+            }
+            int version = header.getInt(4);
+            if (version != VERSION) {
+                throw new IOException(file + ": unsupported snapshot version " + version);
+            }
+            int width = header.getInt(8);
+            if (width != codec.width()) {
+                throw new IOException(file + ": keys are " + width + " bytes wide, the codec expects " + codec.width());
+            }
+            long count = header.getLong(16);
+            if (count < 0 || count > Integer.MAX_VALUE || HEADER_BYTES + count * width != fileSize) {
+                throw new IOException(file + ": truncated or corrupt snapshot");
+            }
+
+            int keysPerSegment = Integer.highestOneBit(MAX_SEGMENT_BYTES / width);
+            int segmentCount = (int) ((count + keysPerSegment - 1) / keysPerSegment);
+            ByteBuffer[] segments = new ByteBuffer[segmentCount];
+            for (int i = 0; i < segmentCount; i++) {
+                long first = (long) i * keysPerSegment;
+                long keys = Math.min(keysPerSegment, count - first);
+                segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, HEADER_BYTES + first * width, keys * width);
+            }
+            return new MappedSortedSet<>(codec, segments, Integer.numberOfTrailingZeros(keysPerSegment), (int) count);
+        }
+    }
+
+    /**
+     * @return a mutable copy, bulk-loaded in O(n) from the already sorted keys
+     */
+    public RedBlackTree<E> toRedBlackTree() {
+        return RedBlackTree.of(elements());
+    }
+
+    /**
+     * @return a mutable copy, sized for the snapshot up front
+     */
+    @SuppressWarnings("unchecked")
+    public ChainHashTable<E> toChainHashTable() {
+        ChainHashTable<E> table = new ChainHashTable<>();
+        table.addAll((E[]) elements().toArray(new Comparable<?>[0]));
+        return table;
+    }
+
+    private List<E> elements() {
+        return new AbstractList<E>() {
+            @Override
+            public E get(int index) {
+                return select(index);
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+        };
+    }
+
+    private E key(int index) {
+        return codec.read(segments[index >>> segmentShift], (index & segmentMask) * width);
+    }
+
+    /**
+     * @return index of {@code value}, or {@code -(insertion point) - 1} if the set doesn't hold it
+     */
+    private int search(E value) {
+        if (value == null) {
+            throw new NullPointerException("value is null");
+        }
+        int low = 0;
+        int high = size - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int cmp = key(mid).compareTo(value);
+            if (cmp < 0) {
+                low = mid + 1;
+            } else if (cmp > 0) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -(low + 1);
+    }
+
+    /**
+     * @return the number of elements less than {@code value} (or equal to it if {@code inclusive})
+     */
+    private int countBelow(E value, boolean inclusive) {
+        int i = search(value);
+        return i >= 0 ? (inclusive ? i + 1 : i) : -i - 1;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    @Override
+    public boolean contains(E value) {
+        return search(value) >= 0;
+    }
+
+    @Override
+    public boolean add(E value) {
+        throw new UnsupportedOperationException("snapshot is read-only");
+    }
+
+    @Override
+    public boolean remove(E value) {
+        throw new UnsupportedOperationException("snapshot is read-only");
+    }
+
+    @Override
+    public E first() {
+        if (size == 0) {
+            throw new NoSuchElementException("Set is empty");
+        }
+        return key(0);
+    }
+
+    @Override
+    public E last() {
+        if (size == 0) {
+            throw new NoSuchElementException("Set is empty");
+        }
+        return key(size - 1);
+    }
+
+    @Override
+    public Comparator<? super E> comparator() {
+        return null;
+    }
+
+    @Override
+    public E floor(E value) {
+        int i = countBelow(value, true);
+        return i == 0 ? null : key(i - 1);
+    }
+
+    @Override
+    public E ceiling(E value) {
+        int i = countBelow(value, false);
+        return i == size ? null : key(i);
+    }
+
+    @Override
+    public E lower(E value) {
+        int i = countBelow(value, false);
+        return i == 0 ? null : key(i - 1);
+    }
+
+    @Override
+    public E higher(E value) {
+        int i = countBelow(value, true);
+        return i == size ? null : key(i);
+    }
+
+    @Override
+    public E select(int k) {
+        if (k < 0 || k >= size) {
+            throw new IndexOutOfBoundsException("k = " + k + ", size = " + size);
+        }
+        return key(k);
+    }
+
+    @Override
+    public int rank(E value) {
+        return countBelow(value, false);
+    }
+
+    @Override
+    public int countInRange(E from, boolean fromInclusive, E to, boolean toInclusive) {
+        if (from == null || to == null) {
+            throw new NullPointerException("bound is null");
+        }
+        if (from.compareTo(to) > 0) {
+            return 0;
+        }
+        return Math.max(0, countBelow(to, toInclusive) - countBelow(from, !fromInclusive));
+    }
+
+    @Override
+    public Iterator<E> iterator() {
+        return new IndexIterator(0, size);
+    }
+
+    @Override
+    public Iterator<E> iterator(E from, boolean fromInclusive, E to, boolean toInclusive) {
+        if (from != null && to != null && from.compareTo(to) > 0) {
+            throw new IllegalArgumentException("from > to");
+        }
+        int start = from == null ? 0 : countBelow(from, !fromInclusive);
+        int end = to == null ? size : countBelow(to, toInclusive);
+        return new IndexIterator(start, Math.max(start, end));
+    }
+
+    private final class IndexIterator implements Iterator<E> {
+        private final int end;
+        private int next;
+
+        IndexIterator(int start, int end) {
+            this.next = start;
+            this.end = end;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next < end;
+        }
+
+        @Override
+        public E next() {
+            if (next >= end) {
+                throw new NoSuchElementException();
+            }
+            return key(next++);
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        ChainHashTable<Integer> table = new ChainHashTable<>();
+        for (int i = 0; i < 20; i++) {
+            table.add(i * 7 % 20);
+        }
+        Path file = Files.createTempFile("set", ".snapshot");
+        MappedSortedSet.write(table, KeyCodec.INTEGER, file);
+        MappedSortedSet<Integer> snapshot = MappedSortedSet.open(file, KeyCodec.INTEGER);
+        System.out.println(snapshot.inorderTraverse() + " " + Files.size(file) + " bytes");
+        System.out.println(snapshot.contains(7) + " " + snapshot.floor(-1) + " " + snapshot.countInRange(5, 10));
+        RedBlackTree<Integer> tree = snapshot.toRedBlackTree();
+        tree.add(100);
+        System.out.println(tree.inorderTraverse());
+        Files.delete(file);
+    }
+}
@@ -0,0 +1,121 @@
+package ru.mail.polis;
+
+/**
+ * Navigation over the nodes of a binary search tree, so the trees can share traversal code
+ * while keeping their node classes private.
+ */
+interface NodeAccess<N, E> {
+
+    N left(N node);
+
+    N right(N node);
+
+    E value(N node);
+
+    /**
+     * Compares two values in the ordering of the tree.
+     */
+    int compare(E v1, E v2);
+
+    /**
+     * @return the greatest value below {@code value} (or equal to it if {@code inclusive}),
+     * null if there is none
+     */
+    default E below(N root, E value, boolean inclusive) {
+        if (value == null) {
+            throw new NullPointerException("value is null");
+        }
+        E result = null;
+        N curr = root;
+        while (curr != null) {
+            int cmp = compare(value(curr), value);
+            if (cmp == 0 && inclusive) {
+                return value(curr);
+            } else if (cmp < 0) {
+                result = value(curr);
+                curr = right(curr);
+            } else {
+                curr = left(curr);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return the least value above {@code value} (or equal to it if {@code inclusive}),
+     * null if there is none
+     */
+    default E above(N root, E value, boolean inclusive) {
+        if (value == null) {
+            throw new NullPointerException("value is null");
+        }
+        E result = null;
+        N curr = root;
+        while (curr != null) {
+            int cmp = compare(value(curr), value);
+            if (cmp == 0 && inclusive) {
+                return value(curr);
+            } else if (cmp > 0) {
+                result = value(curr);
+                curr = left(curr);
+            } else {
+                curr = right(curr);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Looks a batch up in one walk over the tree: the batch is sorted once and split at every node
+     * it reaches, so a node shared by the paths of several values is visited once for all of them.
+     *
+     * @see ISet#containsAll(Comparable[], boolean[])
+     */
+    default boolean containsAll(N root, E[] values, boolean[] out) {
+        if (out == null) {
+            out = new boolean[values.length];
+        } else if (out.length < values.length) {
+            throw new IllegalArgumentException("out is shorter than values");
+        }
+        int[] order = SortedArrays.sortedOrder(values, this::compare);
+        lookup(root, values, order, 0, order.length, out);
+        for (int i = 0; i < values.length; i++) {
+            if (!out[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @param order positions of {@code values} in ascending order of value; only {@code [from, to)} goes below {@code node}
+     */
+    default void lookup(N node, E[] values, int[] order, int from, int to, boolean[] out) {
+        while (from < to) {
+            if (node == null) {
+                for (int i = from; i < to; i++) {
+                    out[order[i]] = false;
+                }
+                return;
+            }
+            E pivot = value(node);
+            int lo = from;
+            int hi = to;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (compare(values[order[mid]], pivot) < 0) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid;
+                }
+            }
+            int equal = lo;
+            while (equal < to && compare(values[order[equal]], pivot) == 0) {
+                out[order[equal++]] = true;
+            }
+            lookup(left(node), values, order, from, lo, out);
+            node = right(node);
+            from = equal;
+        }
+    }
+}
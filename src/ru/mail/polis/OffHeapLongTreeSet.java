@@ -0,0 +1,447 @@
+package ru.mail.polis;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+
+/**
+ * AVL tree of {@code long} keys stored outside of the Java heap.
+ * <p>
+ * Nodes are fixed 20-byte records in direct {@link ByteBuffer} chunks, addressed by an int index
+ * instead of a reference: key, left and right child indices, height. The heap holds only the
+ * chunk table, so the garbage collector never traces the tree, however large, and an element costs
+ * 20 bytes instead of a node plus a boxed {@code Long}. Index 0 is the null node. Removed nodes
+ * are kept on a free list, linked through their left field, and reused by later adds.
+ * <p>
+ * Direct memory is limited by {@code -XX:MaxDirectMemorySize} and returned only when the set
+ * itself is garbage collected. Both the {@link ISortedSet} and the primitive {@link ILongSet}
+ * methods are available; the latter don't box.
+ */
+public class OffHeapLongTreeSet implements ISortedSet<Long>, ILongSet {
+
+    private static final int NIL = 0;
+
+    private static final int KEY = 0;
+    private static final int LEFT = 8;
+    private static final int RIGHT = 12;
+    private static final int HEIGHT = 16;
+    private static final int NODE_BYTES = 20;
+
+    private static final int CHUNK_SHIFT = 16;
+    private static final int CHUNK_NODES = 1 << CHUNK_SHIFT;
+    private static final int CHUNK_MASK = CHUNK_NODES - 1;
+
+    /**
+     * deep enough for an AVL tree of 2^31 nodes, which is at most 1.44 * 31 levels high
+     */
+    private static final int MAX_HEIGHT = 64;
+
+    private ByteBuffer[] chunks = new ByteBuffer[1];
+    private int chunkCount;
+    private int nextNode = 1;
+    private int freeList = NIL;
+    private int root = NIL;
+    private int size;
+
+    /**
+     * @return bytes of direct memory held by the set
+     */
+    public long offHeapBytes() {
+        return (long) chunkCount * CHUNK_NODES * NODE_BYTES;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    @Override
+    public Long first() {
+        if (root == NIL) {
+            throw new NoSuchElementException("Set is empty");
+        }
+        int n = root;
+        while (left(n) != NIL) {
+            n = left(n);
+        }
+        return key(n);
+    }
+
+    @Override
+    public Long last() {
+        if (root == NIL) {
+            throw new NoSuchElementException("Set is empty");
+        }
+        int n = root;
+        while (right(n) != NIL) {
+            n = right(n);
+        }
+        return key(n);
+    }
+
+    @Override
+    public Comparator<? super Long> comparator() {
+        return null;
+    }
+
+    @Override
+    public boolean contains(Long value) {
+        return contains(checkNotNull(value).longValue());
+    }
+
+    @Override
+    public boolean contains(long value) {
+        int n = root;
+        while (n != NIL) {
+            long key = key(n);
+            if (value < key) {
+                n = left(n);
+            } else if (value > key) {
+                n = right(n);
+            } else {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public boolean add(Long value) {
+        return add(checkNotNull(value).longValue());
+    }
+
+    @Override
+    public boolean add(long value) {
+        int oldSize = size;
+        root = insert(root, value);
+        return size != oldSize;
+    }
+
+    private int insert(int n, long value) {
+        if (n == NIL) {
+            size++;
+            return allocate(value);
+        }
+        long key = key(n);
+        if (value < key) {
+            setLeft(n, insert(left(n), value));
+        } else if (value > key) {
+            setRight(n, insert(right(n), value));
+        } else {
+            return n;
+        }
+        return balance(n);
+    }
+
+    @Override
+    public boolean remove(Long value) {
+        return remove(checkNotNull(value).longValue());
+    }
+
+    @Override
+    public boolean remove(long value) {
+        int oldSize = size;
+        root = delete(root, value);
+        return size != oldSize;
+    }
+
+    private int delete(int n, long value) {
+        if (n == NIL) {
+            return NIL;
+        }
+        long key = key(n);
+        if (value < key) {
+            setLeft(n, delete(left(n), value));
+        } else if (value > key) {
+            setRight(n, delete(right(n), value));
+        } else {
+            size--;
+            int l = left(n);
+            int r = right(n);
+            release(n);
+            if (l == NIL) {
+                return r;
+            }
+            if (r == NIL) {
+                return l;
+            }
+            // the least node of the right subtree takes the place of the removed one
+            int min = r;
+            while (left(min) != NIL) {
+                min = left(min);
+            }
+            setRight(min, deleteMin(r));
+            setLeft(min, l);
+            return balance(min);
+        }
+        return balance(n);
+    }
+
+    private int deleteMin(int n) {
+        if (left(n) == NIL) {
+            return right(n);
+        }
+        setLeft(n, deleteMin(left(n)));
+        return balance(n);
+    }
+
+    private int balance(int n) {
+        int diff = height(left(n)) - height(right(n));
+        if (diff > 1) {
+            if (height(left(left(n))) < height(right(left(n)))) {
+                setLeft(n, rotateLeft(left(n)));
+            }
+            return rotateRight(n);
+        }
+        if (diff < -1) {
+            if (height(right(right(n))) < height(left(right(n)))) {
+                setRight(n, rotateRight(right(n)));
+            }
+            return rotateLeft(n);
+        }
+        updateHeight(n);
+        return n;
+    }
+
+    private int rotateRight(int n) {
+        int l = left(n);
+        setLeft(n, right(l));
+        setRight(l, n);
+        updateHeight(n);
+        updateHeight(l);
+        return l;
+    }
+
+    private int rotateLeft(int n) {
+        int r = right(n);
+        setRight(n, left(r));
+        setLeft(r, n);
+        updateHeight(n);
+        updateHeight(r);
+        return r;
+    }
+
+    private void updateHeight(int n) {
+        chunk(n).putInt(offset(n) + HEIGHT, Math.max(height(left(n)), height(right(n))) + 1);
+    }
+
+    @Override
+    public Long floor(Long value) {
+        return boxed(below(checkNotNull(value), true));
+    }
+
+    @Override
+    public Long ceiling(Long value) {
+        return boxed(above(checkNotNull(value), true));
+    }
+
+    @Override
+    public Long lower(Long value) {
+        return boxed(below(checkNotNull(value), false));
+    }
+
+    @Override
+    public Long higher(Long value) {
+        return boxed(above(checkNotNull(value), false));
+    }
+
+    /**
+     * @return the node of the greatest key below {@code value} (or equal to it if {@code inclusive}), NIL if none
+     */
+    private int below(long value, boolean inclusive) {
+        int result = NIL;
+        int n = root;
+        while (n != NIL) {
+            long key = key(n);
+            if (key < value || key == value && inclusive) {
+                result = n;
+                n = right(n);
+            } else {
+                n = left(n);
+            }
+        }
+        return result;
+    }
+
+    private int above(long value, boolean inclusive) {
+        int result = NIL;
+        int n = root;
+        while (n != NIL) {
+            long key = key(n);
+            if (key > value || key == value && inclusive) {
+                result = n;
+                n = left(n);
+            } else {
+                n = right(n);
+            }
+        }
+        return result;
+    }
+
+    private Long boxed(int n) {
+        return n == NIL ? null : key(n);
+    }
+
+    /**
+     * @return iterator that also returns the keys unboxed through {@link PrimitiveIterator.OfLong#nextLong()}
+     */
+    @Override
+    public PrimitiveIterator.OfLong iterator() {
+        return new NodeIterator(null, false, null, false);
+    }
+
+    @Override
+    public PrimitiveIterator.OfLong iterator(Long from, boolean fromInclusive, Long to, boolean toInclusive) {
+        if (from != null && to != null && from > to) {
+            throw new IllegalArgumentException("from > to");
+        }
+        return new NodeIterator(from, fromInclusive, to, toInclusive);
+    }
+
+    /**
+     * In-order walk with an explicit stack of node indices, the nodes have no parent link.
+     */
+    private final class NodeIterator implements PrimitiveIterator.OfLong {
+        private final int[] stack = new int[MAX_HEIGHT];
+        private final boolean bounded;
+        private final long to;
+        private final boolean toInclusive;
+        private int depth;
+
+        NodeIterator(Long from, boolean fromInclusive, Long to, boolean toInclusive) {
+            this.bounded = to != null;
+            this.to = bounded ? to : 0;
+            this.toInclusive = toInclusive;
+            boolean open = from == null;
+            long start = open ? 0 : from;
+            int n = root;
+            while (n != NIL) {
+                long key = key(n);
+                if (open || key > start || key == start && fromInclusive) {
+                    stack[depth++] = n;
+                    n = left(n);
+                } else {
+                    n = right(n);
+                }
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (depth == 0) {
+                return false;
+            }
+            if (bounded) {
+                long key = key(stack[depth - 1]);
+                return key < to || key == to && toInclusive;
+            }
+            return true;
+        }
+
+        @Override
+        public long nextLong() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            int n = stack[--depth];
+            for (int child = right(n); child != NIL; child = left(child)) {
+                stack[depth++] = child;
+            }
+            return key(n);
+        }
+    }
+
+    private int allocate(long value) {
+        int n;
+        if (freeList != NIL) {
+            n = freeList;
+            freeList = left(n);
+        } else {
+            if (nextNode == Integer.MAX_VALUE) {
+                throw new IllegalStateException("set is full");
+            }
+            n = nextNode++;
+            if ((n >>> CHUNK_SHIFT) == chunkCount) {
+                addChunk();
+            }
+        }
+        ByteBuffer chunk = chunk(n);
+        int offset = offset(n);
+        chunk.putLong(offset + KEY, value);
+        chunk.putInt(offset + LEFT, NIL);
+        chunk.putInt(offset + RIGHT, NIL);
+        chunk.putInt(offset + HEIGHT, 1);
+        return n;
+    }
+
+    private void release(int n) {
+        setLeft(n, freeList);
+        freeList = n;
+    }
+
+    private void addChunk() {
+        if (chunkCount == chunks.length) {
+            chunks = Arrays.copyOf(chunks, chunks.length * 2);
+        }
+        chunks[chunkCount++] = ByteBuffer.allocateDirect(CHUNK_NODES * NODE_BYTES).order(ByteOrder.nativeOrder());
+    }
+
+    private ByteBuffer chunk(int n) {
+        return chunks[n >>> CHUNK_SHIFT];
+    }
+
+    private static int offset(int n) {
+        return (n & CHUNK_MASK) * NODE_BYTES;
+    }
+
+    private long key(int n) {
+        return chunk(n).getLong(offset(n) + KEY);
+    }
+
+    private int left(int n) {
+        return chunk(n).getInt(offset(n) + LEFT);
+    }
+
+    private int right(int n) {
+        return chunk(n).getInt(offset(n) + RIGHT);
+    }
+
+    private int height(int n) {
+        return n == NIL ? 0 : chunk(n).getInt(offset(n) + HEIGHT);
+    }
+
+    private void setLeft(int n, int child) {
+        chunk(n).putInt(offset(n) + LEFT, child);
+    }
+
+    private void setRight(int n, int child) {
+        chunk(n).putInt(offset(n) + RIGHT, child);
+    }
+
+    private static Long checkNotNull(Long value) {
+        if (value == null) {
+            throw new NullPointerException("argument is null");
+        }
+        return value;
+    }
+
+    public static void main(String[] args) {
+        OffHeapLongTreeSet set = new OffHeapLongTreeSet();
+        for (long i = 0; i < 20; i++) {
+            set.add(i * 7 % 20);
+        }
+        set.remove(3L);
+        set.remove(10L);
+        System.out.println(set.inorderTraverse());
+        System.out.println(set.first() + " " + set.last() + " " + set.floor(10L) + " " + set.contains(3L));
+        System.out.println(set.size() + " elements in " + set.offHeapBytes() + " bytes off heap");
+    }
+}
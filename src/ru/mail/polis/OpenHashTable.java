@@ -1,38 +1,72 @@
 package ru.mail.polis;
 
 import java.util.Comparator;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
 
+/**
+ * Open addressing with Robin Hood linear probing.
+ * <p>
+ * On insert an element takes the slot of any resident that sits closer to its own home slot,
+ * which keeps probe lengths short and nearly uniform. Lookups may stop as soon as they meet a
+ * resident closer to home than the probe so far. Removal shifts the rest of the run back by one
+ * instead of leaving a hole, so probe chains are never broken and no tombstones accumulate.
+ */
 public class OpenHashTable <E extends Comparable<E>> implements ISet<E> {
 
+    private static final SetStats STATS = SetStats.of(OpenHashTable.class);
+
     private int size;
     private final int INITIAL_CAPACITY=8;
     private Object[] hashArray;
+    /**
+     * hash of the element in the same slot of {@link #hashArray}
+     */
+    private int[] hashes;
+    private int mask;
 
     private Comparator<E> comparator;
+    private final Hasher<? super E> hasher;
+    /**
+     * slots examined by the current operation, counted only if {@link SetStats#ENABLED}
+     */
+    private int probes;
 
     public OpenHashTable() {
-        this.hashArray = new Object[INITIAL_CAPACITY];
-        this.comparator=null;
+        this(null);
     }
 
     public OpenHashTable(Comparator<E> comparator) {
+        this(comparator, Hasher.murmur());
+    }
+
+    /**
+     * @param hasher hash function, {@link Hasher#murmur()} by default
+     */
+    public OpenHashTable(Comparator<E> comparator, Hasher<? super E> hasher) {
+        this.hasher = hasher;
         this.hashArray = new Object[INITIAL_CAPACITY];
-        this.comparator = comparator;
+        this.hashes = new int[INITIAL_CAPACITY];
+        this.mask = INITIAL_CAPACITY - 1;
+        this.comparator = Comparators.resolve(comparator);
     }
 
+    /**
+     * @return home slot of the key in the current table
+     */
     public int hashFunc1(E key) {
-        return Math.abs(key.hashCode()) % hashArray.length;
+        return hasher.hash(key) & mask;
     }
 
-    public int hashFunc2(E key) {
-        return 5 - Math.abs(key.hashCode()) % 5;
+    private int probeLength(int idx) {
+        return (idx - (hashes[idx] & mask)) & mask;
     }
 
     public void displayTable() {
         System.out.println("Table: ");
         for (int j=0; j<hashArray.length; j++) {
             if (hashArray[j] != null) {
-                System.out.println(hashArray[j]+" ");
+                System.out.println(hashArray[j]+" (probe "+probeLength(j)+")");
             } else {
                 System.out.println("** ");
             }
@@ -40,6 +74,35 @@ public class OpenHashTable <E extends Comparable<E>> implements ISet<E> {
         System.out.println(" ");
     }
 
+    /**
+     * @return the longest distance between an element and its home slot
+     */
+    public int maxProbeLength() {
+        int max = 0;
+        for (int i = 0; i < hashArray.length; i++) {
+            if (hashArray[i] != null) {
+                max = Math.max(max, probeLength(i));
+            }
+        }
+        return max;
+    }
+
+    /**
+     * @return the mean distance between an element and its home slot
+     */
+    public double averageProbeLength() {
+        if (size == 0) {
+            return 0;
+        }
+        long total = 0;
+        for (int i = 0; i < hashArray.length; i++) {
+            if (hashArray[i] != null) {
+                total += probeLength(i);
+            }
+        }
+        return (double) total / size;
+    }
+
     @Override
     public int size() {
         return size;
@@ -55,78 +118,257 @@ public class OpenHashTable <E extends Comparable<E>> implements ISet<E> {
         if (value==null) {
             throw new NullPointerException("argument is null");
         }
+        if (!SetStats.ENABLED) {
+            return indexOf(value, hasher.hash(value)) >= 0;
+        }
+        probes = 0;
+        boolean found = indexOf(value, hasher.hash(value)) >= 0;
+        STATS.lookup(probes);
+        return found;
+    }
+
+    /**
+     * Java has no prefetch instruction, so batches get the next best thing: every hash is computed
+     * in one tight pass before the first probe touches the table, and a batch of adds grows the
+     * table once up front instead of doubling it step by step.
+     */
+    @Override
+    public boolean addAll(E[] values) {
+        int[] batchHashes = hashAll(values);
+        ensureCapacity(size + values.length);
+        boolean changed = false;
+        for (int i = 0; i < values.length; i++) {
+            changed |= add(values[i], batchHashes[i]);
+        }
+        return changed;
+    }
+
+    @Override
+    public boolean containsAll(E[] values, boolean[] out) {
+        int[] batchHashes = hashAll(values);
+        boolean all = true;
+        for (int i = 0; i < values.length; i++) {
+            boolean found = indexOf(values[i], batchHashes[i]) >= 0;
+            if (out != null) {
+                out[i] = found;
+            }
+            all &= found;
+        }
+        return all;
+    }
+
+    @Override
+    public boolean removeAll(E[] values) {
+        int[] batchHashes = hashAll(values);
+        boolean changed = false;
+        for (int i = 0; i < values.length; i++) {
+            int idx = indexOf(values[i], batchHashes[i]);
+            if (idx >= 0) {
+                delete(idx);
+                changed = true;
+            }
+        }
+        return changed;
+    }
 
-        int hashVal = hashFunc1(value);
-        int stepSize = hashFunc2(value);
-        while (hashArray[hashVal]!=null) {
-            if (hashArray[hashVal]==value) {
-                return true;
+    private int[] hashAll(E[] values) {
+        int[] batchHashes = new int[values.length];
+        for (int i = 0; i < values.length; i++) {
+            if (values[i] == null) {
+                throw new NullPointerException("argument is null");
             }
-            hashVal += stepSize;
-            hashVal %= hashArray.length;
+            batchHashes[i] = hasher.hash(values[i]);
         }
-        return false;
+        return batchHashes;
+    }
+
+    @SuppressWarnings("unchecked")
+    private int indexOf(E value, int hash) {
+        int idx = hash & mask;
+        for (int dist = 0; hashArray[idx] != null && probeLength(idx) >= dist; dist++) {
+            if (SetStats.ENABLED) {
+                probes++;
+            }
+            if (hashes[idx] == hash && compare(value, (E) hashArray[idx]) == 0) {
+                return idx;
+            }
+            idx = (idx + 1) & mask;
+        }
+        return -1;
     }
 
     @Override
     public boolean add(E value) {
-        if (contains(value)) {
-            return false;
+        if (value==null) {
+            throw new NullPointerException("argument is null");
         }
+        if (!SetStats.ENABLED) {
+            return add(value, hasher.hash(value));
+        }
+        probes = 0;
+        boolean added = add(value, hasher.hash(value));
+        STATS.insert(probes, 0);
+        return added;
+    }
 
-        int hashVal = hashFunc1(value);
-        int stepSize = hashFunc2(value);
-        while (hashArray[hashVal]!=null) {
-            hashVal += stepSize;
-            hashVal %= hashArray.length;
+    @SuppressWarnings("unchecked")
+    private boolean add(E value, int hash) {
+        int idx = hash & mask;
+        int dist = 0;
+        while (hashArray[idx] != null) {
+            int residentDist = probeLength(idx);
+            if (residentDist < dist) {
+                break;
+            }
+            if (SetStats.ENABLED) {
+                probes++;
+            }
+            if (hashes[idx] == hash && compare(value, (E) hashArray[idx]) == 0) {
+                return false;
+            }
+            idx = (idx + 1) & mask;
+            dist++;
         }
-        hashArray[hashVal] = value;
+        // a lookup would have stopped here, so the value is absent: place it, displacing the rest
+        place(value, hash, idx);
         size++;
         resize();
         return true;
     }
 
+    /**
+     * Puts the element at {@code idx}, which must be empty or hold a resident closer to its home
+     * than the element is, and pushes every displaced resident further along the run.
+     */
+    private void place(Object value, int hash, int idx) {
+        while (hashArray[idx] != null) {
+            Object residentValue = hashArray[idx];
+            int residentHash = hashes[idx];
+            hashArray[idx] = value;
+            hashes[idx] = hash;
+            value = residentValue;
+            hash = residentHash;
+            // the displaced resident keeps probing from the next slot, at its own distance from
+            // home, until it finds a free slot or a resident closer to home than it is
+            int dist = (idx - (hash & mask)) & mask;
+            do {
+                idx = (idx + 1) & mask;
+                dist++;
+            } while (hashArray[idx] != null && probeLength(idx) >= dist);
+        }
+        hashArray[idx] = value;
+        hashes[idx] = hash;
+    }
+
     private void resize() {
         if (size * 2 < hashArray.length) {
             return;
         }
-        //TODO: write code for resize array
-        Object[] temp = hashArray;
-        this.hashArray = new Object[hashArray.length*2];
-        for (int i=0; i<size; i++) {
-            int j=0;
-            while(temp[j]==null) {
-                j++;
-            }
-            int hashVal = hashFunc1((E)temp[j]);
-            int stepSize = hashFunc2((E)temp[j]);
-            while (hashArray[hashVal]!=null) {
-                hashVal += stepSize;
-                hashVal %= hashArray.length;
+        rehash(hashArray.length << 1);
+    }
+
+    /**
+     * Grows the table at once to hold {@code elements} without a resize.
+     */
+    private void ensureCapacity(int elements) {
+        int capacity = hashArray.length;
+        while (elements * 2L >= capacity && capacity < 1 << 30) {
+            capacity <<= 1;
+        }
+        if (capacity > hashArray.length) {
+            rehash(capacity);
+        }
+    }
+
+    private void rehash(int capacity) {
+        long started = SetStats.ENABLED ? System.nanoTime() : 0;
+        Object[] oldArray = hashArray;
+        int[] oldHashes = hashes;
+        hashArray = new Object[capacity];
+        hashes = new int[capacity];
+        mask = hashArray.length - 1;
+        for (int i = 0; i < oldArray.length; i++) {
+            if (oldArray[i] != null) {
+                int hash = oldHashes[i];
+                int idx = hash & mask;
+                for (int dist = 0; hashArray[idx] != null && probeLength(idx) >= dist; dist++) {
+                    idx = (idx + 1) & mask;
+                }
+                place(oldArray[i], hash, idx);
             }
-            hashArray[hashVal] = temp[j];
-            temp[j]=null;
+        }
+        if (SetStats.ENABLED) {
+            STATS.resize(System.nanoTime() - started);
         }
     }
 
     @Override
     public boolean remove(E value) {
-        if (!contains(value)) {
-            return false;
-        }
-        int hashVal = hashFunc1(value);
-        int stepSize = hashFunc2(value);
-        while (hashArray[hashVal]!=null) {
-            if (hashArray[hashVal]==value) {
-                Object temp = hashArray[hashVal];
-                hashArray[hashVal] = null;
-                break;
-            }
-            hashVal+= stepSize;
-            hashVal %= hashArray.length;
+        if (value==null) {
+            throw new NullPointerException("argument is null");
         }
+        if (SetStats.ENABLED) {
+            probes = 0;
+        }
+        int idx = indexOf(value, hasher.hash(value));
+        if (idx >= 0) {
+            delete(idx);
+        }
+        if (SetStats.ENABLED) {
+            STATS.remove(probes, 0);
+        }
+        return idx >= 0;
+    }
+
+    private void delete(int idx) {
+        // backward shift: pull the rest of the run one slot closer to home
+        int next = (idx + 1) & mask;
+        while (hashArray[next] != null && probeLength(next) > 0) {
+            hashArray[idx] = hashArray[next];
+            hashes[idx] = hashes[next];
+            idx = next;
+            next = (next + 1) & mask;
+        }
+        hashArray[idx] = null;
+        hashes[idx] = 0;
         size--;
-        return true;
+    }
+
+    /**
+     * Scans the slots in table order; the set must not be modified while iterating.
+     */
+    @Override
+    public Iterator<E> iterator() {
+        return new Iterator<E>() {
+            private int idx = advance(0);
+
+            private int advance(int from) {
+                while (from < hashArray.length && hashArray[from] == null) {
+                    from++;
+                }
+                return from;
+            }
+
+            @Override
+            public boolean hasNext() {
+                return idx < hashArray.length;
+            }
+
+            @Override
+            @SuppressWarnings("unchecked")
+            public E next() {
+                if (idx >= hashArray.length) {
+                    throw new NoSuchElementException();
+                }
+                E value = (E) hashArray[idx];
+                idx = advance(idx + 1);
+                return value;
+            }
+        };
+    }
+
+    private int compare(E v1, E v2) {
+        return comparator.compare(v1, v2);
     }
 
     //--------------------------------------------------------------------
@@ -146,6 +388,6 @@ public class OpenHashTable <E extends Comparable<E>> implements ISet<E> {
         table.remove("a");
         table.remove("f");
         table.displayTable();
+        System.out.println(table.contains("g") + " " + table.maxProbeLength());
     }
 }
-
@@ -0,0 +1,537 @@
+package ru.mail.polis;
+
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+
+/**
+ * Sorted set over a persistent AVL tree: nodes are never modified, an update copies the path from
+ * the root to the node it changes and shares every other node with the previous version.
+ * <p>
+ * Every version is a {@link Snapshot}, an immutable set. {@link #snapshot()} returns the current
+ * one in O(1), without copying anything, and readers on any thread may query it without locks
+ * while the set keeps changing. An update costs O(log n) new nodes, against none for a mutable tree.
+ * <p>
+ * Updates must come from one thread at a time; reads, including {@link #snapshot()}, may come
+ * from any thread. Iterators walk the snapshot current when they were created.
+ */
+public class PersistentSortedSet<E extends Comparable<E>> implements IOrderStatisticSet<E> {
+
+    private static final class Node<E> {
+        final E value;
+        final Node<E> left;
+        final Node<E> right;
+        final int height;
+        final int size;
+
+        Node(E value, Node<E> left, Node<E> right) {
+            this.value = value;
+            this.left = left;
+            this.right = right;
+            this.height = 1 + Math.max(height(left), height(right));
+            this.size = 1 + size(left) + size(right);
+        }
+    }
+
+    /**
+     * Ordering shared by all versions of one set.
+     */
+    private static final class Ordering<E extends Comparable<E>> implements NodeAccess<Node<E>, E> {
+        final Comparator<E> comparator;
+        final Comparator<E> order;
+
+        Ordering(Comparator<E> comparator) {
+            this.comparator = comparator;
+            this.order = Comparators.resolve(comparator);
+        }
+
+        @Override
+        public Node<E> left(Node<E> node) {
+            return node.left;
+        }
+
+        @Override
+        public Node<E> right(Node<E> node) {
+            return node.right;
+        }
+
+        @Override
+        public E value(Node<E> node) {
+            return node.value;
+        }
+
+        @Override
+        public int compare(E v1, E v2) {
+            return order.compare(v1, v2);
+        }
+    }
+
+    private volatile Snapshot<E> current;
+
+    public PersistentSortedSet() {
+        this(null);
+    }
+
+    public PersistentSortedSet(Comparator<E> comparator) {
+        this.current = new Snapshot<>(null, new Ordering<>(comparator));
+    }
+
+    /**
+     * Builds a balanced tree from the values in O(n) if they are sorted, O(n log n) otherwise.
+     *
+     * @param comparator ordering of the set, null for natural ordering
+     */
+    public static <E extends Comparable<E>> PersistentSortedSet<E> of(Collection<? extends E> values, Comparator<E> comparator) {
+        PersistentSortedSet<E> set = new PersistentSortedSet<>(comparator);
+        set.addAll(values);
+        return set;
+    }
+
+    /**
+     * @return the set as it is now; O(1), later updates don't affect it
+     */
+    public Snapshot<E> snapshot() {
+        return current;
+    }
+
+    /**
+     * Makes {@code snapshot}, taken from this set, the current version again.
+     */
+    void reset(Snapshot<E> snapshot) {
+        current = snapshot;
+    }
+
+    @Override
+    public boolean add(E value) {
+        Snapshot<E> next = current.with(value);
+        if (next == current) {
+            return false;
+        }
+        current = next;
+        return true;
+    }
+
+    @Override
+    public boolean remove(E value) {
+        Snapshot<E> next = current.without(value);
+        if (next == current) {
+            return false;
+        }
+        current = next;
+        return true;
+    }
+
+    /**
+     * A batch that is large compared to the set is merged with it and built into a new balanced
+     * tree bottom-up, sharing nothing with the old one; a smaller one is added value by value.
+     */
+    @Override
+    public boolean addAll(Collection<? extends E> values) {
+        Snapshot<E> snapshot = current;
+        if (!SortedArrays.worthRebuilding(snapshot.size(), values.size())) {
+            return IOrderStatisticSet.super.addAll(values);
+        }
+        Object[] sorted = SortedArrays.sortedDistinct(values, snapshot.ordering.order);
+        if (!snapshot.isEmpty()) {
+            sorted = SortedArrays.merge(SortedArrays.toArray(snapshot), sorted, snapshot.ordering.order);
+        }
+        if (sorted.length == snapshot.size()) {
+            return false;
+        }
+        current = new Snapshot<>(build(sorted, 0, sorted.length), snapshot.ordering);
+        return true;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <E> Node<E> build(Object[] sorted, int from, int to) {
+        if (from == to) {
+            return null;
+        }
+        int mid = (from + to) >>> 1;
+        return new Node<>((E) sorted[mid], build(sorted, from, mid), build(sorted, mid + 1, to));
+    }
+
+    @Override
+    public int size() {
+        return current.size();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return current.isEmpty();
+    }
+
+    @Override
+    public boolean contains(E value) {
+        return current.contains(value);
+    }
+
+    @Override
+    public boolean containsAll(E[] values, boolean[] out) {
+        return current.containsAll(values, out);
+    }
+
+    @Override
+    public E first() {
+        return current.first();
+    }
+
+    @Override
+    public E last() {
+        return current.last();
+    }
+
+    @Override
+    public Comparator<? super E> comparator() {
+        return current.comparator();
+    }
+
+    @Override
+    public E floor(E value) {
+        return current.floor(value);
+    }
+
+    @Override
+    public E ceiling(E value) {
+        return current.ceiling(value);
+    }
+
+    @Override
+    public E lower(E value) {
+        return current.lower(value);
+    }
+
+    @Override
+    public E higher(E value) {
+        return current.higher(value);
+    }
+
+    @Override
+    public E select(int k) {
+        return current.select(k);
+    }
+
+    @Override
+    public int rank(E value) {
+        return current.rank(value);
+    }
+
+    @Override
+    public int countInRange(E from, boolean fromInclusive, E to, boolean toInclusive) {
+        return current.countInRange(from, fromInclusive, to, toInclusive);
+    }
+
+    @Override
+    public Iterator<E> iterator() {
+        return current.iterator();
+    }
+
+    @Override
+    public Iterator<E> iterator(E from, boolean fromInclusive, E to, boolean toInclusive) {
+        return current.iterator(from, fromInclusive, to, toInclusive);
+    }
+
+    @Override
+    public Spliterator<E> spliterator() {
+        return current.spliterator();
+    }
+
+    private static int height(Node<?> n) {
+        return n == null ? 0 : n.height;
+    }
+
+    private static int size(Node<?> n) {
+        return n == null ? 0 : n.size;
+    }
+
+    /**
+     * One version of a {@link PersistentSortedSet}: immutable, so safe to share between threads.
+     * {@link #with} and {@link #without} make new versions; the mutators of {@link ISet} throw
+     * {@link UnsupportedOperationException}.
+     */
+    public static final class Snapshot<E extends Comparable<E>> implements IOrderStatisticSet<E> {
+
+        private final Node<E> root;
+        private final Ordering<E> ordering;
+
+        private Snapshot(Node<E> root, Ordering<E> ordering) {
+            this.root = root;
+            this.ordering = ordering;
+        }
+
+        /**
+         * @return a version that also holds {@code value}, or this one if it already does
+         */
+        public Snapshot<E> with(E value) {
+            if (value == null) {
+                throw new NullPointerException("value is null");
+            }
+            Node<E> newRoot = insert(root, value);
+            return newRoot == root ? this : new Snapshot<>(newRoot, ordering);
+        }
+
+        /**
+         * @return a version without {@code value}, or this one if it doesn't hold it
+         */
+        public Snapshot<E> without(E value) {
+            if (value == null) {
+                throw new NullPointerException("value is null");
+            }
+            Node<E> newRoot = delete(root, value);
+            return newRoot == root ? this : new Snapshot<>(newRoot, ordering);
+        }
+
+        /**
+         * Copies the nodes on the path to the new leaf; an equal value found on the way returns
+         * the subtree as is, which tells every caller above that nothing changed.
+         */
+        private Node<E> insert(Node<E> n, E value) {
+            if (n == null) {
+                return new Node<>(value, null, null);
+            }
+            int cmp = ordering.compare(value, n.value);
+            if (cmp < 0) {
+                Node<E> left = insert(n.left, value);
+                return left == n.left ? n : balanced(n.value, left, n.right);
+            } else if (cmp > 0) {
+                Node<E> right = insert(n.right, value);
+                return right == n.right ? n : balanced(n.value, n.left, right);
+            }
+            return n;
+        }
+
+        private Node<E> delete(Node<E> n, E value) {
+            if (n == null) {
+                return null;
+            }
+            int cmp = ordering.compare(value, n.value);
+            if (cmp < 0) {
+                Node<E> left = delete(n.left, value);
+                return left == n.left ? n : balanced(n.value, left, n.right);
+            } else if (cmp > 0) {
+                Node<E> right = delete(n.right, value);
+                return right == n.right ? n : balanced(n.value, n.left, right);
+            }
+            if (n.left == null) {
+                return n.right;
+            }
+            if (n.right == null) {
+                return n.left;
+            }
+            Node<E> next = n.right;
+            while (next.left != null) {
+                next = next.left;
+            }
+            return balanced(next.value, n.left, deleteMin(n.right));
+        }
+
+        private Node<E> deleteMin(Node<E> n) {
+            if (n.left == null) {
+                return n.right;
+            }
+            return balanced(n.value, deleteMin(n.left), n.right);
+        }
+
+        /**
+         * @return a new node over the two subtrees, which differ in height by at most 2, rotated
+         * into AVL balance if they differ by 2
+         */
+        private static <E> Node<E> balanced(E value, Node<E> left, Node<E> right) {
+            int balance = height(left) - height(right);
+            if (balance > 1) {
+                if (height(left.left) >= height(left.right)) {
+                    return new Node<>(left.value, left.left, new Node<>(value, left.right, right));
+                }
+                Node<E> middle = left.right;
+                return new Node<>(middle.value, new Node<>(left.value, left.left, middle.left),
+                        new Node<>(value, middle.right, right));
+            } else if (balance < -1) {
+                if (height(right.right) >= height(right.left)) {
+                    return new Node<>(right.value, new Node<>(value, left, right.left), right.right);
+                }
+                Node<E> middle = right.left;
+                return new Node<>(middle.value, new Node<>(value, left, middle.left),
+                        new Node<>(right.value, middle.right, right.right));
+            }
+            return new Node<>(value, left, right);
+        }
+
+        @Override
+        public int size() {
+            return PersistentSortedSet.size(root);
+        }
+
+        @Override
+        public boolean isEmpty() {
+            return root == null;
+        }
+
+        @Override
+        public boolean contains(E value) {
+            if (value == null) {
+                throw new NullPointerException("value is null");
+            }
+            Node<E> n = root;
+            while (n != null) {
+                int cmp = ordering.compare(value, n.value);
+                if (cmp == 0) {
+                    return true;
+                }
+                n = cmp < 0 ? n.left : n.right;
+            }
+            return false;
+        }
+
+        @Override
+        public boolean containsAll(E[] values, boolean[] out) {
+            return ordering.containsAll(root, values, out);
+        }
+
+        @Override
+        public boolean add(E value) {
+            throw new UnsupportedOperationException("snapshot is read-only");
+        }
+
+        @Override
+        public boolean remove(E value) {
+            throw new UnsupportedOperationException("snapshot is read-only");
+        }
+
+        @Override
+        public E first() {
+            if (root == null) {
+                throw new NoSuchElementException("Set is empty");
+            }
+            Node<E> n = root;
+            while (n.left != null) {
+                n = n.left;
+            }
+            return n.value;
+        }
+
+        @Override
+        public E last() {
+            if (root == null) {
+                throw new NoSuchElementException("Set is empty");
+            }
+            Node<E> n = root;
+            while (n.right != null) {
+                n = n.right;
+            }
+            return n.value;
+        }
+
+        @Override
+        public Comparator<? super E> comparator() {
+            return ordering.comparator;
+        }
+
+        @Override
+        public E floor(E value) {
+            return ordering.below(root, value, true);
+        }
+
+        @Override
+        public E ceiling(E value) {
+            return ordering.above(root, value, true);
+        }
+
+        @Override
+        public E lower(E value) {
+            return ordering.below(root, value, false);
+        }
+
+        @Override
+        public E higher(E value) {
+            return ordering.above(root, value, false);
+        }
+
+        @Override
+        public E select(int k) {
+            if (k < 0 || k >= size()) {
+                throw new IndexOutOfBoundsException("k = " + k + ", size = " + size());
+            }
+            Node<E> n = root;
+            while (true) {
+                int left = PersistentSortedSet.size(n.left);
+                if (k < left) {
+                    n = n.left;
+                } else if (k > left) {
+                    k -= left + 1;
+                    n = n.right;
+                } else {
+                    return n.value;
+                }
+            }
+        }
+
+        @Override
+        public int rank(E value) {
+            return countBelow(value, false);
+        }
+
+        @Override
+        public int countInRange(E from, boolean fromInclusive, E to, boolean toInclusive) {
+            if (from == null || to == null) {
+                throw new NullPointerException("bound is null");
+            }
+            if (ordering.compare(from, to) > 0) {
+                return 0;
+            }
+            return Math.max(0, countBelow(to, toInclusive) - countBelow(from, !fromInclusive));
+        }
+
+        /**
+         * @return the number of elements less than {@code value} (or equal to it if {@code inclusive})
+         */
+        private int countBelow(E value, boolean inclusive) {
+            if (value == null) {
+                throw new NullPointerException("value is null");
+            }
+            int count = 0;
+            Node<E> n = root;
+            while (n != null) {
+                int cmp = ordering.compare(n.value, value);
+                if (cmp < 0) {
+                    count += PersistentSortedSet.size(n.left) + 1;
+                    n = n.right;
+                } else if (cmp > 0) {
+                    n = n.left;
+                } else {
+                    return count + PersistentSortedSet.size(n.left) + (inclusive ? 1 : 0);
+                }
+            }
+            return count;
+        }
+
+        @Override
+        public Iterator<E> iterator() {
+            return new InorderIterator<>(root, ordering);
+        }
+
+        @Override
+        public Iterator<E> iterator(E from, boolean fromInclusive, E to, boolean toInclusive) {
+            return new InorderIterator<>(root, ordering, from, fromInclusive, to, toInclusive);
+        }
+
+        @Override
+        public Spliterator<E> spliterator() {
+            return new SubtreeSpliterator<>(root, size(), ordering.comparator, ordering);
+        }
+    }
+
+    public static void main(String[] args) {
+        PersistentSortedSet<Integer> set = new PersistentSortedSet<>();
+        for (int i = 0; i < 10; i++) {
+            set.add(i);
+        }
+        Snapshot<Integer> before = set.snapshot();
+        set.remove(3);
+        set.add(42);
+        System.out.println(before.inorderTraverse() + " " + before.contains(3));
+        System.out.println(set.inorderTraverse() + " " + set.contains(3));
+        System.out.println(before.with(100).last() + " " + before.last());
+    }
+}
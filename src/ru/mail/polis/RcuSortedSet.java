@@ -0,0 +1,393 @@
+package ru.mail.polis;
+
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+
+/**
+ * Read-copy-update sorted set for read-mostly workloads: readers query an immutable
+ * {@link PersistentSortedSet.Snapshot} published through a volatile field, so a read never takes
+ * a lock, never retries and never sees a half-applied update.
+ * <p>
+ * Writers are serialized on a lock and work on a private version, which they publish by swapping
+ * the field: after every single {@link #add} or {@link #remove}, or once for a whole
+ * {@link #batch}. Until a batch is published readers see the version before it; the staleness
+ * metrics ({@link #unpublishedChanges()}, {@link #stalenessNanos()}, {@link #maxStalenessNanos()})
+ * tell how far behind they are.
+ * <p>
+ * Reads see the published version, so a writer inside a batch doesn't see its own changes
+ * through them; the mutators' return values do reflect them.
+ */
+public class RcuSortedSet<E extends Comparable<E>> implements IOrderStatisticSet<E> {
+
+    private final Object writeLock = new Object();
+    /**
+     * the writers' version, guarded by {@link #writeLock}
+     */
+    private final PersistentSortedSet<E> working;
+    /**
+     * nesting depth of {@link #batch} calls, guarded by {@link #writeLock}
+     */
+    private int batchDepth;
+
+    private volatile PersistentSortedSet.Snapshot<E> published;
+    private volatile long version;
+    /**
+     * changes made and changes published so far; written under {@link #writeLock}
+     */
+    private volatile long changes;
+    private volatile long publishedChanges;
+    /**
+     * {@link System#nanoTime()} of the oldest change not yet published, meaningful while
+     * {@code changes != publishedChanges}
+     */
+    private volatile long oldestUnpublished;
+    private volatile long maxStaleness;
+
+    public RcuSortedSet() {
+        this(null);
+    }
+
+    public RcuSortedSet(Comparator<E> comparator) {
+        this.working = new PersistentSortedSet<>(comparator);
+        this.published = working.snapshot();
+    }
+
+    /**
+     * @return the published version; O(1), and consistent however long it is kept
+     */
+    public PersistentSortedSet.Snapshot<E> snapshot() {
+        return published;
+    }
+
+    @Override
+    public boolean add(E value) {
+        synchronized (writeLock) {
+            return changed(working.add(value));
+        }
+    }
+
+    @Override
+    public boolean remove(E value) {
+        synchronized (writeLock) {
+            return changed(working.remove(value));
+        }
+    }
+
+    /**
+     * Applies {@code mutations} to the writers' version and publishes the result once, so readers
+     * see either none of the changes or all of them. Batches may nest; the outermost one publishes.
+     * If {@code mutations} throws, the batch undoes its changes and rethrows.
+     *
+     * @param mutations gets the writers' version; it must not keep it past the call
+     */
+    public void batch(Consumer<? super IOrderStatisticSet<E>> mutations) {
+        synchronized (writeLock) {
+            PersistentSortedSet.Snapshot<E> before = working.snapshot();
+            long changesBefore = changes;
+            long oldestBefore = oldestUnpublished;
+            batchDepth++;
+            try {
+                mutations.accept(new BatchView());
+            } catch (RuntimeException | Error e) {
+                working.reset(before);
+                changes = changesBefore;
+                oldestUnpublished = oldestBefore;
+                throw e;
+            } finally {
+                batchDepth--;
+            }
+            publishIfDue();
+        }
+    }
+
+    @Override
+    public boolean addAll(E[] values) {
+        synchronized (writeLock) {
+            return changed(working.addAll(values));
+        }
+    }
+
+    @Override
+    public boolean addAll(Collection<? extends E> values) {
+        synchronized (writeLock) {
+            return changed(working.addAll(values));
+        }
+    }
+
+    @Override
+    public boolean removeAll(E[] values) {
+        synchronized (writeLock) {
+            return changed(working.removeAll(values));
+        }
+    }
+
+    /**
+     * Counts a change to {@link #working} and publishes it unless a batch is open.
+     */
+    private boolean changed(boolean changed) {
+        if (changed) {
+            if (changes == publishedChanges) {
+                oldestUnpublished = System.nanoTime();
+            }
+            changes++;
+            publishIfDue();
+        }
+        return changed;
+    }
+
+    private void publishIfDue() {
+        if (batchDepth > 0 || changes == publishedChanges) {
+            return;
+        }
+        published = working.snapshot();
+        maxStaleness = Math.max(maxStaleness, System.nanoTime() - oldestUnpublished);
+        publishedChanges = changes;
+        version++;
+    }
+
+    /**
+     * @return the number of versions published so far
+     */
+    public long version() {
+        return version;
+    }
+
+    /**
+     * @return changes made by writers that readers can't see yet
+     */
+    public long unpublishedChanges() {
+        return changes - publishedChanges;
+    }
+
+    /**
+     * @return how long the oldest change readers can't see yet has been waiting, 0 if they see all
+     */
+    public long stalenessNanos() {
+        if (changes == publishedChanges) {
+            return 0;
+        }
+        // written before the change counted, so at least as new as the check above
+        return System.nanoTime() - oldestUnpublished;
+    }
+
+    /**
+     * @return the longest a change has waited to be published
+     */
+    public long maxStalenessNanos() {
+        return maxStaleness;
+    }
+
+    @Override
+    public int size() {
+        return published.size();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return published.isEmpty();
+    }
+
+    @Override
+    public boolean contains(E value) {
+        return published.contains(value);
+    }
+
+    @Override
+    public boolean containsAll(E[] values, boolean[] out) {
+        return published.containsAll(values, out);
+    }
+
+    @Override
+    public E first() {
+        return published.first();
+    }
+
+    @Override
+    public E last() {
+        return published.last();
+    }
+
+    @Override
+    public Comparator<? super E> comparator() {
+        return published.comparator();
+    }
+
+    @Override
+    public E floor(E value) {
+        return published.floor(value);
+    }
+
+    @Override
+    public E ceiling(E value) {
+        return published.ceiling(value);
+    }
+
+    @Override
+    public E lower(E value) {
+        return published.lower(value);
+    }
+
+    @Override
+    public E higher(E value) {
+        return published.higher(value);
+    }
+
+    @Override
+    public E select(int k) {
+        return published.select(k);
+    }
+
+    @Override
+    public int rank(E value) {
+        return published.rank(value);
+    }
+
+    @Override
+    public int countInRange(E from, boolean fromInclusive, E to, boolean toInclusive) {
+        return published.countInRange(from, fromInclusive, to, toInclusive);
+    }
+
+    /**
+     * Iterates the version published when it was created.
+     */
+    @Override
+    public Iterator<E> iterator() {
+        return published.iterator();
+    }
+
+    @Override
+    public Iterator<E> iterator(E from, boolean fromInclusive, E to, boolean toInclusive) {
+        return published.iterator(from, fromInclusive, to, toInclusive);
+    }
+
+    @Override
+    public Spliterator<E> spliterator() {
+        return published.spliterator();
+    }
+
+    /**
+     * The writers' version as a batch sees it: reads and writes go to {@link #working}, changes
+     * are counted but not published.
+     */
+    private final class BatchView implements IOrderStatisticSet<E> {
+
+        @Override
+        public boolean add(E value) {
+            return changed(working.add(value));
+        }
+
+        @Override
+        public boolean remove(E value) {
+            return changed(working.remove(value));
+        }
+
+        @Override
+        public boolean addAll(E[] values) {
+            return changed(working.addAll(values));
+        }
+
+        @Override
+        public boolean addAll(Collection<? extends E> values) {
+            return changed(working.addAll(values));
+        }
+
+        @Override
+        public boolean removeAll(E[] values) {
+            return changed(working.removeAll(values));
+        }
+
+        @Override
+        public int size() {
+            return working.size();
+        }
+
+        @Override
+        public boolean isEmpty() {
+            return working.isEmpty();
+        }
+
+        @Override
+        public boolean contains(E value) {
+            return working.contains(value);
+        }
+
+        @Override
+        public E first() {
+            return working.first();
+        }
+
+        @Override
+        public E last() {
+            return working.last();
+        }
+
+        @Override
+        public Comparator<? super E> comparator() {
+            return working.comparator();
+        }
+
+        @Override
+        public E floor(E value) {
+            return working.floor(value);
+        }
+
+        @Override
+        public E ceiling(E value) {
+            return working.ceiling(value);
+        }
+
+        @Override
+        public E lower(E value) {
+            return working.lower(value);
+        }
+
+        @Override
+        public E higher(E value) {
+            return working.higher(value);
+        }
+
+        @Override
+        public E select(int k) {
+            return working.select(k);
+        }
+
+        @Override
+        public int rank(E value) {
+            return working.rank(value);
+        }
+
+        @Override
+        public int countInRange(E from, boolean fromInclusive, E to, boolean toInclusive) {
+            return working.countInRange(from, fromInclusive, to, toInclusive);
+        }
+
+        @Override
+        public Iterator<E> iterator() {
+            return working.iterator();
+        }
+
+        @Override
+        public Iterator<E> iterator(E from, boolean fromInclusive, E to, boolean toInclusive) {
+            return working.iterator(from, fromInclusive, to, toInclusive);
+        }
+    }
+
+    public static void main(String[] args) {
+        RcuSortedSet<Integer> set = new RcuSortedSet<>();
+        set.add(1);
+        set.add(5);
+        PersistentSortedSet.Snapshot<Integer> before = set.snapshot();
+        set.batch(batch -> {
+            for (int i = 10; i < 15; i++) {
+                batch.add(i);
+            }
+            batch.remove(1);
+            // readers don't see the batch yet
+            System.out.println(set.inorderTraverse() + " " + set.unpublishedChanges() + " unpublished");
+        });
+        System.out.println(set.inorderTraverse() + " version " + set.version() + ", before " + before.inorderTraverse());
+    }
+}
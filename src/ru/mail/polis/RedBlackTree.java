@@ -1,20 +1,32 @@
 package ru.mail.polis;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Comparator;
-import java.util.List;
+import java.util.Iterator;
 import java.util.NoSuchElementException;
-
-public class RedBlackTree<E extends Comparable<E>> implements ISortedSet<E> {
+import java.util.Objects;
+import java.util.Random;
+import java.util.Spliterator;
+import java.util.TreeSet;
+
+/**
+ * Red-black tree with parent pointers and subtree sizes. Insertion and deletion are iterative, as
+ * in CLRS: one descent to the node, then a fix-up that climbs from it only while a violation is
+ * left, doing at most two rotations for an insert and three for a delete, and no recursion.
+ */
+public class RedBlackTree<E extends Comparable<E>> implements IOrderStatisticSet<E> {
 
     private static final boolean RED   = true;
     private static final boolean BLACK = false;
+    private static final SetStats STATS = SetStats.of(RedBlackTree.class);
 
     private Node root;
 
     private class Node {
         private E value;
-        private Node left, right;
+        private Node left, right, parent;
         private boolean color;
         private int size;
 
@@ -26,13 +38,88 @@ public class RedBlackTree<E extends Comparable<E>> implements ISortedSet<E> {
     }
 
     private final Comparator<E> comparator;
+    /**
+     * {@link #comparator}, or natural ordering if it is null, resolved once: a comparison is one call
+     */
+    private final Comparator<E> order;
+    /**
+     * comparisons and rotations of the current operation, counted only if {@link SetStats#ENABLED}
+     */
+    private int comparisons;
+    private int rotations;
+    private final SetAlgebra.JoinAccess<Node, E> nodes = new SetAlgebra.JoinAccess<Node, E>() {
+        @Override
+        public Node left(Node node) {
+            return node.left;
+        }
+
+        @Override
+        public Node right(Node node) {
+            return node.right;
+        }
+
+        @Override
+        public E value(Node node) {
+            return node.value;
+        }
+
+        @Override
+        public int compare(E v1, E v2) {
+            return RedBlackTree.this.compare(v1, v2);
+        }
+
+        @Override
+        public int size(Node tree) {
+            return RedBlackTree.this.size(tree);
+        }
+
+        @Override
+        public SetAlgebra.Split<Node> split(Node tree, E value) {
+            return RedBlackTree.this.split(tree, value);
+        }
+
+        @Override
+        public Node join(Node left, Node middle, Node right) {
+            return RedBlackTree.this.join(left, middle, right);
+        }
+
+        @Override
+        public Node copy(Node tree) {
+            return detached(RedBlackTree.this.copy(tree));
+        }
+
+        @Override
+        public Node newNode(E value) {
+            return new Node(value, BLACK, 1);
+        }
+    };
 
     public RedBlackTree() {
         this.comparator = null;
+        this.order = Comparators.natural();
     }
 
     public RedBlackTree(Comparator<E> comparator) {
         this.comparator = comparator;
+        this.order = Comparators.resolve(comparator);
+    }
+
+    /**
+     * Builds a balanced tree from the values in O(n) if they are sorted, O(n log n) otherwise.
+     */
+    public static <E extends Comparable<E>> RedBlackTree<E> of(Collection<? extends E> values) {
+        return of(values, null);
+    }
+
+    /**
+     * Builds a balanced tree from the values in O(n) if they are sorted, O(n log n) otherwise.
+     *
+     * @param comparator ordering of the tree, null for natural ordering
+     */
+    public static <E extends Comparable<E>> RedBlackTree<E> of(Collection<? extends E> values, Comparator<E> comparator) {
+        RedBlackTree<E> tree = new RedBlackTree<>(comparator);
+        tree.addAll(values);
+        return tree;
     }
 
     private boolean isRed(Node n) {
@@ -44,28 +131,77 @@ public class RedBlackTree<E extends Comparable<E>> implements ISortedSet<E> {
 
     @Override
     public E first() {
-        return min(root).value;
+        if (root == null) {
+            throw new NoSuchElementException("Set is empty");
+        }
+        Node n = root;
+        while (n.left != null) {
+            n = n.left;
+        }
+        return n.value;
     }
 
     @Override
     public E last() {
-        return max(root).value;
+        if (root == null) {
+            throw new NoSuchElementException("Set is empty");
+        }
+        Node n = root;
+        while (n.right != null) {
+            n = n.right;
+        }
+        return n.value;
     }
 
     @Override
-    public List<E> inorderTraverse() {
-        List<E> list = new ArrayList<>(size());
-        inorderTraverse(root, list);
-        return list;
+    public Comparator<? super E> comparator() {
+        return comparator;
     }
 
-    private void inorderTraverse(Node curr, List<E> list) {
-        if (curr==null) {
-            return;
-        }
-        inorderTraverse(curr.left, list);
-        list.add(curr.value);
-        inorderTraverse(curr.right, list);
+    @Override
+    public E floor(E value) {
+        return nodes.below(root, value, true);
+    }
+
+    @Override
+    public E ceiling(E value) {
+        return nodes.above(root, value, true);
+    }
+
+    @Override
+    public E lower(E value) {
+        return nodes.below(root, value, false);
+    }
+
+    @Override
+    public E higher(E value) {
+        return nodes.above(root, value, false);
+    }
+
+    @Override
+    public Iterator<E> iterator() {
+        return new InorderIterator<>(root, nodes);
+    }
+
+    @Override
+    public Iterator<E> iterator(E from, boolean fromInclusive, E to, boolean toInclusive) {
+        return new InorderIterator<>(root, nodes, from, fromInclusive, to, toInclusive);
+    }
+
+    @Override
+    public Spliterator<E> spliterator() {
+        return new SubtreeSpliterator<>(root, size(), comparator, nodes);
+    }
+
+    /**
+     * @return the number of levels, 0 for an empty tree; walks the whole tree
+     */
+    public int height() {
+        return height(root);
+    }
+
+    private int height(Node n) {
+        return n == null ? 0 : 1 + Math.max(height(n.left), height(n.right));
     }
 
     public int size() {
@@ -82,6 +218,64 @@ public class RedBlackTree<E extends Comparable<E>> implements ISortedSet<E> {
         return root==null;
     }
 
+    @Override
+    public E select(int k) {
+        if (k < 0 || k >= size()) {
+            throw new IndexOutOfBoundsException("k = " + k + ", size = " + size());
+        }
+        Node n = root;
+        while (true) {
+            int left = size(n.left);
+            if (k < left) {
+                n = n.left;
+            } else if (k > left) {
+                k -= left + 1;
+                n = n.right;
+            } else {
+                return n.value;
+            }
+        }
+    }
+
+    @Override
+    public int rank(E value) {
+        return countBelow(value, false);
+    }
+
+    @Override
+    public int countInRange(E from, boolean fromInclusive, E to, boolean toInclusive) {
+        if (from == null || to == null) {
+            throw new NullPointerException("bound is null");
+        }
+        if (compare(from, to) > 0) {
+            return 0;
+        }
+        return Math.max(0, countBelow(to, toInclusive) - countBelow(from, !fromInclusive));
+    }
+
+    /**
+     * @return the number of elements less than {@code value} (or equal to it if {@code inclusive})
+     */
+    private int countBelow(E value, boolean inclusive) {
+        if (value == null) {
+            throw new NullPointerException("value is null");
+        }
+        int count = 0;
+        Node n = root;
+        while (n != null) {
+            int cmp = compare(n.value, value);
+            if (cmp < 0) {
+                count += size(n.left) + 1;
+                n = n.right;
+            } else if (cmp > 0) {
+                n = n.left;
+            } else {
+                return count + size(n.left) + (inclusive ? 1 : 0);
+            }
+        }
+        return count;
+    }
+
     private E get(E value) {
         if (value == null) throw new NullPointerException("argument to get() is null");
         return get(root, value);
@@ -89,7 +283,7 @@ public class RedBlackTree<E extends Comparable<E>> implements ISortedSet<E> {
 
     private E get(Node n, E value) {
         while (n != null) {
-            int cmp = value.compareTo(n.value);
+            int cmp = compare(value, n.value);
             if      (cmp < 0) n = n.left;
             else if (cmp > 0) n = n.right;
             else
@@ -100,171 +294,696 @@ public class RedBlackTree<E extends Comparable<E>> implements ISortedSet<E> {
 
     @Override
     public boolean contains(E value) {
-        return get(value) != null;
+        if (!SetStats.ENABLED) {
+            return get(value) != null;
+        }
+        comparisons = 0;
+        boolean found = get(value) != null;
+        STATS.lookup(comparisons);
+        return found;
     }
 
     @Override
     public boolean add(E value) {
         if (value == null) throw new NullPointerException("argument to put() is null");
-        if (contains(value)) {
-            return false;
+        if (!SetStats.ENABLED) {
+            return put(value);
         }
-        root=put(root, value);
-        root.color = BLACK;
-        return true;
+        comparisons = 0;
+        rotations = 0;
+        boolean added = put(value);
+        STATS.insert(comparisons, rotations);
+        return added;
     }
 
-    private Node put(Node n, E value) {
-        if (n == null) return new Node(value, RED, 1);
+    /**
+     * {@link #contains}, {@link #add} and {@link #remove} for a set keeping this tree inside it,
+     * such as a treeified hash bucket: they record nothing in this class's stats, and the owner
+     * adds {@link #lastComparisons()} to its own.
+     */
+    boolean containsUnrecorded(E value) {
+        comparisons = 0;
+        return get(value) != null;
+    }
+
+    boolean addUnrecorded(E value) {
+        comparisons = 0;
+        return put(value);
+    }
 
-        int cmp = value.compareTo(n.value);
-        if (cmp < 0) {
-            n.left = put(n.left, value);
+    boolean removeUnrecorded(E value) {
+        comparisons = 0;
+        return delete(value);
+    }
+
+    /**
+     * @return comparisons made by the last call, counted only if {@link SetStats#ENABLED}
+     */
+    int lastComparisons() {
+        return comparisons;
+    }
+
+    /**
+     * Inserts in a single descent: meeting an equal value ends it without changing anything.
+     *
+     * @return true if the value was inserted
+     */
+    private boolean put(E value) {
+        Node parent = null;
+        Node n = root;
+        int cmp = 0;
+        while (n != null) {
+            parent = n;
+            cmp = compare(value, n.value);
+            if (cmp < 0) {
+                n = n.left;
+            } else if (cmp > 0) {
+                n = n.right;
+            } else {
+                return false;
+            }
         }
-        else if (cmp > 0) {
-            n.right = put(n.right, value);
+        Node node = new Node(value, RED, 1);
+        node.parent = parent;
+        if (parent == null) {
+            root = node;
+        } else if (cmp < 0) {
+            parent.left = node;
+        } else {
+            parent.right = node;
         }
-        else {
-            n.value=value;
+        for (Node p = parent; p != null; p = p.parent) {
+            p.size++;
         }
+        fixAfterInsert(node);
+        return true;
+    }
 
-        if (isRed(n.right) && !isRed(n.left))      n = rotateLeft(n);
-        if (isRed(n.left)  &&  isRed(n.left.left)) n = rotateRight(n);
-        if (isRed(n.left)  &&  isRed(n.right))     flipColors(n);
-        n.size = size(n.left) + size(n.right) + 1;
-        return n;
+    /**
+     * Removes a red node with a red parent below {@code n}. Recoloring moves the violation two levels
+     * up; a rotation, or two, ends it.
+     */
+    private void fixAfterInsert(Node n) {
+        while (isRed(n.parent)) {
+            // a red parent is never the root, so the grandparent exists
+            Node parent = n.parent;
+            Node grandparent = parent.parent;
+            if (parent == grandparent.left) {
+                Node uncle = grandparent.right;
+                if (isRed(uncle)) {
+                    parent.color = BLACK;
+                    uncle.color = BLACK;
+                    grandparent.color = RED;
+                    n = grandparent;
+                    continue;
+                }
+                if (n == parent.right) {
+                    rotateLeft(parent);
+                    parent = n;
+                }
+                parent.color = BLACK;
+                grandparent.color = RED;
+                keepRoot(rotateRight(grandparent));
+            } else {
+                Node uncle = grandparent.left;
+                if (isRed(uncle)) {
+                    parent.color = BLACK;
+                    uncle.color = BLACK;
+                    grandparent.color = RED;
+                    n = grandparent;
+                    continue;
+                }
+                if (n == parent.left) {
+                    rotateRight(parent);
+                    parent = n;
+                }
+                parent.color = BLACK;
+                grandparent.color = RED;
+                keepRoot(rotateLeft(grandparent));
+            }
+            break;
+        }
+        root.color = BLACK;
+    }
+
+    /**
+     * Rotations relink the new top into the parent of the old one, but leave {@link #root} alone:
+     * {@link #join} rotates trees that are not this one's.
+     *
+     * @return the node that took the place of {@code h}
+     */
+    private Node rotateLeft(Node h) {
+        if (SetStats.ENABLED) rotations++;
+        Node x = h.right;
+        h.right = x.left;
+        if (x.left != null) x.left.parent = h;
+        replaceChild(h.parent, h, x);
+        x.left = h;
+        h.parent = x;
+        x.size = h.size;
+        h.size = size(h.left) + size(h.right) + 1;
+        return x;
     }
 
     private Node rotateRight(Node h) {
+        if (SetStats.ENABLED) rotations++;
         Node x = h.left;
         h.left = x.right;
+        if (x.right != null) x.right.parent = h;
+        replaceChild(h.parent, h, x);
         x.right = h;
-        x.color = x.right.color;
-        x.right.color = RED;
+        h.parent = x;
         x.size = h.size;
         h.size = size(h.left) + size(h.right) + 1;
         return x;
     }
 
-    private Node rotateLeft(Node h) {
-        Node x = h.right;
-        h.right = x.left;
-        x.left = h;
-        x.color = x.left.color;
-        x.left.color = RED;
-        x.size = h.size;
-        h.size = size(h.left) + size(h.right) + 1;
-        return x;
+    /**
+     * Puts {@code replacement} where {@code child} was under {@code parent}, or nowhere if it was a root.
+     */
+    private void replaceChild(Node parent, Node child, Node replacement) {
+        if (replacement != null) {
+            replacement.parent = parent;
+        }
+        if (parent != null) {
+            if (parent.left == child) {
+                parent.left = replacement;
+            } else {
+                parent.right = replacement;
+            }
+        }
     }
 
-    private void flipColors(Node h) {
-        h.color = !h.color;
-        h.left.color = !h.left.color;
-        h.right.color = !h.right.color;
+    private void keepRoot(Node top) {
+        if (top.parent == null) {
+            root = top;
+        }
     }
 
     @Override
-    public boolean remove(E value) {
-        if (value == null) throw new NullPointerException("argument to remove() is null");
-        if (!contains(value)) return false;
-        if (!isRed(root.left) && !isRed(root.right)) {
-            root.color = RED;
+    public boolean containsAll(E[] values, boolean[] out) {
+        return nodes.containsAll(root, values, out);
+    }
+
+    /**
+     * A batch that is large compared to the tree is bulk-loaded like {@link #addAll(Collection)};
+     * a smaller one is inserted in sorted order, so consecutive inserts walk mostly the same, already cached path.
+     */
+    @Override
+    public boolean addAll(E[] values) {
+        if (SortedArrays.worthRebuilding(size(), values.length)) {
+            SortedArrays.checkNotNull(values);
+            return addAll(Arrays.asList(values));
         }
-        root = remove(root, value);
-        if (!isEmpty()) root.color = BLACK;
-        return true;
+        boolean changed = false;
+        for (E value : SortedArrays.sorted(values, this::compare)) {
+            changed |= add(value);
+        }
+        return changed;
     }
 
-    private Node remove(Node n, E value) {
-        if (value.compareTo(n.value) < 0)  {
-            if (!isRed(n.left) && !isRed(n.left.left))
-                n = moveRedLeft(n);
-            n.left = remove(n.left, value);
-        }
-        else {
-            if (isRed(n.left))
-                n = rotateRight(n);
-            if (value.compareTo(n.value) == 0 && (n.right == null))
-                return null;
-            if (!isRed(n.right) && !isRed(n.right.left))
-                n = moveRedRight(n);
-            if (value.compareTo(n.value) == 0) {
-                Node x = min(n.right);
-                n.value = x.value;
-                n.right = deleteMin(n.right);
+    /**
+     * A batch that is large compared to the tree is bulk-loaded into a tree of its own and subtracted
+     * with {@link #difference}; a smaller one is removed in sorted order.
+     */
+    @Override
+    public boolean removeAll(E[] values) {
+        if (SortedArrays.worthRebuilding(size(), values.length)) {
+            SortedArrays.checkNotNull(values);
+            return difference(of(Arrays.asList(values), comparator));
+        }
+        boolean changed = false;
+        for (E value : SortedArrays.sorted(values, this::compare)) {
+            changed |= remove(value);
+        }
+        return changed;
+    }
+
+    /**
+     * Sorts the batch, merges it with the elements already here and rebuilds the tree balanced
+     * bottom-up, unless the batch is small compared to the tree.
+     */
+    @Override
+    public boolean addAll(Collection<? extends E> values) {
+        if (!SortedArrays.worthRebuilding(size(), values.size())) {
+            return IOrderStatisticSet.super.addAll(values);
+        }
+        Object[] sorted = SortedArrays.sortedDistinct(values, this::compare);
+        if (root != null) {
+            sorted = SortedArrays.merge(SortedArrays.toArray(this), sorted, this::compare);
+        }
+        int oldSize = size();
+        root = build(sorted, 0, sorted.length, blackHeightFor(sorted.length));
+        return sorted.length != oldSize;
+    }
+
+    /**
+     * Black height of the tree {@link #build} makes of n elements: any h with 2^h - 1 <= n <= 3^h - 1 fits,
+     * floor(log2(n + 1)) is the one that always does.
+     */
+    private static int blackHeightFor(int n) {
+        return 31 - Integer.numberOfLeadingZeros(n + 1);
+    }
+
+    /**
+     * Builds a red-black tree of black height {@code h} from {@code sorted[from, to)},
+     * which must hold between 2^h - 1 and 3^h - 1 elements. It is built as a 2-3 tree: a root
+     * 2-node (one black node) when both halves fit into height h - 1 trees, otherwise a 3-node
+     * (a black node with a red left child) splitting the elements into three.
+     */
+    @SuppressWarnings("unchecked")
+    private Node build(Object[] sorted, int from, int to, int h) {
+        int count = to - from;
+        if (count == 0) {
+            return null;
+        }
+        long maxChild = pow3(h - 1) - 1;
+        Node node;
+        if (count - 1 <= 2 * maxChild) {
+            int mid = from + (count - 1) / 2;
+            node = new Node((E) sorted[mid], BLACK, count);
+            attach(node, build(sorted, from, mid, h - 1), build(sorted, mid + 1, to, h - 1));
+        } else {
+            int third = (count - 2) / 3;
+            int rest = (count - 2) % 3;
+            int first = from + third + (rest > 0 ? 1 : 0);
+            int second = first + 1 + third + (rest > 1 ? 1 : 0);
+            Node red = new Node((E) sorted[first], RED, second - from);
+            attach(red, build(sorted, from, first, h - 1), build(sorted, first + 1, second, h - 1));
+            node = new Node((E) sorted[second], BLACK, count);
+            attach(node, red, build(sorted, second + 1, to, h - 1));
+        }
+        return node;
+    }
+
+    private static long pow3(int h) {
+        long pow = 1;
+        for (int i = 0; i < h; i++) {
+            pow *= 3;
+        }
+        return pow;
+    }
+
+    @Override
+    public boolean union(ISortedSet<E> other) {
+        return joinable(other) ? combine(SetAlgebra.Operation.UNION, (RedBlackTree<E>) other, false)
+                : IOrderStatisticSet.super.union(other);
+    }
+
+    @Override
+    public boolean intersect(ISortedSet<E> other) {
+        return joinable(other) ? combine(SetAlgebra.Operation.INTERSECT, (RedBlackTree<E>) other, false)
+                : IOrderStatisticSet.super.intersect(other);
+    }
+
+    @Override
+    public boolean difference(ISortedSet<E> other) {
+        return joinable(other) ? combine(SetAlgebra.Operation.DIFFERENCE, (RedBlackTree<E>) other, false)
+                : IOrderStatisticSet.super.difference(other);
+    }
+
+    @Override
+    public boolean parallelUnion(ISortedSet<E> other) {
+        return joinable(other) ? combine(SetAlgebra.Operation.UNION, (RedBlackTree<E>) other, true)
+                : IOrderStatisticSet.super.union(other);
+    }
+
+    @Override
+    public boolean parallelIntersect(ISortedSet<E> other) {
+        return joinable(other) ? combine(SetAlgebra.Operation.INTERSECT, (RedBlackTree<E>) other, true)
+                : IOrderStatisticSet.super.intersect(other);
+    }
+
+    @Override
+    public boolean parallelDifference(ISortedSet<E> other) {
+        return joinable(other) ? combine(SetAlgebra.Operation.DIFFERENCE, (RedBlackTree<E>) other, true)
+                : IOrderStatisticSet.super.difference(other);
+    }
+
+    /**
+     * Split/join only works between trees of the same kind and ordering; anything else is iterated.
+     */
+    private boolean joinable(ISortedSet<E> other) {
+        return other instanceof RedBlackTree && Objects.equals(comparator, ((RedBlackTree<E>) other).comparator);
+    }
+
+    private boolean combine(SetAlgebra.Operation op, RedBlackTree<E> other, boolean parallel) {
+        int oldSize = size();
+        if (other == this) {
+            if (op == SetAlgebra.Operation.DIFFERENCE) {
+                root = null;
             }
-            else n.right = remove(n.right, value);
+        } else {
+            root = SetAlgebra.combine(op, root, other.root, parallel, nodes);
         }
-        return balance(n);
+        return size() != oldSize;
     }
 
-    private Node balance(Node h) {
-        if (isRed(h.right))                      h = rotateLeft(h);
-        if (isRed(h.left) && isRed(h.left.left)) h = rotateRight(h);
-        if (isRed(h.left) && isRed(h.right))     flipColors(h);
+    /**
+     * Splits a tree with a black root into the trees of values less and greater than {@code value},
+     * taking it apart. Subtrees are cut off with their roots recolored black, which keeps them valid.
+     */
+    private SetAlgebra.Split<Node> split(Node tree, E value) {
+        Pieces pieces = split(tree, blackHeight(tree), value);
+        return new SetAlgebra.Split<>(pieces.left, pieces.found, pieces.right);
+    }
 
-        h.size = size(h.left) + size(h.right) + 1;
-        return h;
+    /**
+     * The pieces of a split along with their black heights, so the joins putting them together
+     * don't have to measure them: O(log n) for the whole split.
+     */
+    private final class Pieces {
+        private final Node left;
+        private final int leftHeight;
+        private final Node found;
+        private final Node right;
+        private final int rightHeight;
+
+        private Pieces(Node left, int leftHeight, Node found, Node right, int rightHeight) {
+            this.left = left;
+            this.leftHeight = leftHeight;
+            this.found = found;
+            this.right = right;
+            this.rightHeight = rightHeight;
+        }
     }
 
-    private Node min(Node x) {
-        if (isEmpty()) {
-            throw new NoSuchElementException("Set is empty");
+    /**
+     * @param height the black height of {@code tree}
+     */
+    private Pieces split(Node tree, int height, E value) {
+        if (tree == null) {
+            return new Pieces(null, 0, null, null, 0);
         }
-        if (x.left == null) {
-            return x;
+        // a red child gains its black parent's black node when it is recolored
+        int leftHeight = isRed(tree.left) ? height : height - 1;
+        int rightHeight = isRed(tree.right) ? height : height - 1;
+        Node left = detached(tree.left);
+        Node right = detached(tree.right);
+        int cmp = compare(value, tree.value);
+        if (cmp == 0) {
+            return new Pieces(left, leftHeight, tree, right, rightHeight);
+        } else if (cmp < 0) {
+            Pieces split = split(left, leftHeight, value);
+            Node joined = join(split.right, split.rightHeight, tree, right, rightHeight);
+            int joinedHeight = joinedHeight(joined, split.rightHeight, rightHeight);
+            return new Pieces(split.left, split.leftHeight, split.found, detached(joined), joinedHeight);
         } else {
-            return min(x.left);
+            Pieces split = split(right, rightHeight, value);
+            Node joined = join(left, leftHeight, tree, split.left, split.leftHeight);
+            int joinedHeight = joinedHeight(joined, leftHeight, split.leftHeight);
+            return new Pieces(detached(joined), joinedHeight, split.found, split.right, split.rightHeight);
         }
     }
 
-    private Node max(Node x) {
-        if (isEmpty()) {
-            throw new NoSuchElementException("Set is empty");
+    /**
+     * @return {@code n} as the root of a tree of its own: no parent, and black
+     */
+    private Node detached(Node n) {
+        if (n != null) {
+            n.parent = null;
+            n.color = BLACK;
+        }
+        return n;
+    }
+
+    /**
+     * Joins two trees, every value of {@code left} less than {@code middle} and every value of
+     * {@code right} greater. Measuring the black heights walks both left spines, O(log) of the
+     * joined size, which keeps {@link SetAlgebra}'s O(m log(n / m + 1)) bound as its joins work on
+     * subtrees; {@link #split}, joining once per level, passes the heights it already knows instead.
+     */
+    private Node join(Node left, Node middle, Node right) {
+        left = detached(left);
+        right = detached(right);
+        return detached(join(left, blackHeight(left), middle, right, blackHeight(right)));
+    }
+
+    /**
+     * Joins two trees with black roots and the given black heights. {@code middle} goes in as a red
+     * node at the spot of the taller tree's spine where a black node has the black height of the
+     * other tree; a red-red violation this leaves is fixed with one rotation on the way back.
+     *
+     * @return the joined tree, its root possibly red
+     */
+    private Node join(Node left, int leftHeight, Node middle, Node right, int rightHeight) {
+        if (leftHeight > rightHeight) {
+            return joinRight(left, leftHeight, middle, right, rightHeight);
+        } else if (leftHeight < rightHeight) {
+            return joinLeft(left, leftHeight, middle, right, rightHeight);
         }
-        if (x.right == null) {
-            return x;
+        return link(left, middle, right);
+    }
+
+    /**
+     * @return the black height {@code joined} has once its root is recolored black
+     */
+    private int joinedHeight(Node joined, int leftHeight, int rightHeight) {
+        return Math.max(leftHeight, rightHeight) + (isRed(joined) ? 1 : 0);
+    }
+
+    /**
+     * Goes down the right spine of {@code left}; {@code leftHeight} is the black height of {@code left}.
+     */
+    private Node joinRight(Node left, int leftHeight, Node middle, Node right, int rightHeight) {
+        if (leftHeight == rightHeight && !isRed(left)) {
+            return link(left, middle, right);
         }
-        else {
-            return max(x.right);
+        Node child = joinRight(left.right, isRed(left) ? leftHeight : leftHeight - 1, middle, right, rightHeight);
+        left.right = child;
+        child.parent = left;
+        left.size = size(left.left) + size(child) + 1;
+        if (!isRed(left) && isRed(child) && isRed(child.right)) {
+            child.right.color = BLACK;
+            return rotateLeft(left);
         }
+        return left;
     }
 
-    private Node deleteMin(Node h) {
-        if (h.left == null)
-            return null;
+    /**
+     * Goes down the left spine of {@code right}; {@code rightHeight} is the black height of {@code right}.
+     */
+    private Node joinLeft(Node left, int leftHeight, Node middle, Node right, int rightHeight) {
+        if (rightHeight == leftHeight && !isRed(right)) {
+            return link(left, middle, right);
+        }
+        Node child = joinLeft(left, leftHeight, middle, right.left, isRed(right) ? rightHeight : rightHeight - 1);
+        right.left = child;
+        child.parent = right;
+        right.size = size(child) + size(right.right) + 1;
+        if (!isRed(right) && isRed(child) && isRed(child.left)) {
+            child.left.color = BLACK;
+            return rotateRight(right);
+        }
+        return right;
+    }
 
-        if (!isRed(h.left) && !isRed(h.left.left))
-            h = moveRedLeft(h);
+    /**
+     * @return red {@code middle} over two trees of the same black height with black roots
+     */
+    private Node link(Node left, Node middle, Node right) {
+        attach(middle, left, right);
+        middle.color = RED;
+        middle.size = size(left) + size(right) + 1;
+        return middle;
+    }
 
-        h.left = deleteMin(h.left);
-        return balance(h);
+    private void attach(Node n, Node left, Node right) {
+        n.left = left;
+        n.right = right;
+        if (left != null) {
+            left.parent = n;
+        }
+        if (right != null) {
+            right.parent = n;
+        }
     }
 
+    /**
+     * @return the number of black nodes on a path from {@code n}, itself included, down to a leaf
+     */
+    private int blackHeight(Node n) {
+        int height = 0;
+        for (; n != null; n = n.left) {
+            if (!isRed(n)) {
+                height++;
+            }
+        }
+        return height;
+    }
 
-    private Node moveRedLeft(Node h) {
-        flipColors(h);
-        if (isRed(h.right.left)) {
-            h.right = rotateRight(h.right);
-            h = rotateLeft(h);
-            flipColors(h);
+    private Node copy(Node n) {
+        if (n == null) {
+            return null;
         }
-        return h;
+        Node copy = new Node(n.value, n.color, n.size);
+        attach(copy, copy(n.left), copy(n.right));
+        return copy;
     }
 
-    private Node moveRedRight(Node h) {
-        flipColors(h);
-        if (isRed(h.left.left)) {
-            h = rotateRight(h);
-            flipColors(h);
+    @Override
+    public boolean remove(E value) {
+        if (value == null) throw new NullPointerException("argument to remove() is null");
+        if (!SetStats.ENABLED) {
+            return delete(value);
+        }
+        comparisons = 0;
+        rotations = 0;
+        boolean removed = delete(value);
+        STATS.remove(comparisons, rotations);
+        return removed;
+    }
+
+    /**
+     * Finds the node in one descent. A node with two children takes the value of its successor,
+     * which is removed instead; either way the node unlinked has at most one child, which takes its place.
+     */
+    private boolean delete(E value) {
+        Node n = root;
+        while (n != null) {
+            int cmp = compare(value, n.value);
+            if (cmp == 0) {
+                break;
+            }
+            n = cmp < 0 ? n.left : n.right;
+        }
+        if (n == null) {
+            return false;
+        }
+        if (n.left != null && n.right != null) {
+            Node next = n.right;
+            while (next.left != null) {
+                next = next.left;
+            }
+            n.value = next.value;
+            n = next;
+        }
+        Node child = n.left != null ? n.left : n.right;
+        Node parent = n.parent;
+        replaceChild(parent, n, child);
+        if (parent == null) {
+            root = child;
+        }
+        for (Node p = parent; p != null; p = p.parent) {
+            p.size--;
+        }
+        if (n.color == BLACK) {
+            fixAfterDelete(child, parent);
+        }
+        n.value = null;
+        n.left = n.right = n.parent = null;
+        return true;
+    }
+
+    /**
+     * Restores the black height of paths through {@code n}, which lost a black node; {@code n} may be
+     * null, so its parent is passed along. Recoloring the sibling moves the deficit one level up;
+     * any case with a rotation ends the loop.
+     */
+    private void fixAfterDelete(Node n, Node parent) {
+        while (n != root && !isRed(n)) {
+            if (n == parent.left) {
+                // the sibling subtree has a black height of at least 1, so it is not empty
+                Node sibling = parent.right;
+                if (isRed(sibling)) {
+                    sibling.color = BLACK;
+                    parent.color = RED;
+                    keepRoot(rotateLeft(parent));
+                    sibling = parent.right;
+                }
+                if (!isRed(sibling.left) && !isRed(sibling.right)) {
+                    sibling.color = RED;
+                    n = parent;
+                    parent = n.parent;
+                    continue;
+                }
+                if (!isRed(sibling.right)) {
+                    sibling.left.color = BLACK;
+                    sibling.color = RED;
+                    sibling = rotateRight(sibling);
+                }
+                sibling.color = parent.color;
+                parent.color = BLACK;
+                sibling.right.color = BLACK;
+                keepRoot(rotateLeft(parent));
+            } else {
+                Node sibling = parent.left;
+                if (isRed(sibling)) {
+                    sibling.color = BLACK;
+                    parent.color = RED;
+                    keepRoot(rotateRight(parent));
+                    sibling = parent.left;
+                }
+                if (!isRed(sibling.left) && !isRed(sibling.right)) {
+                    sibling.color = RED;
+                    n = parent;
+                    parent = n.parent;
+                    continue;
+                }
+                if (!isRed(sibling.left)) {
+                    sibling.right.color = BLACK;
+                    sibling.color = RED;
+                    sibling = rotateLeft(sibling);
+                }
+                sibling.color = parent.color;
+                parent.color = BLACK;
+                sibling.left.color = BLACK;
+                keepRoot(rotateRight(parent));
+            }
+            return;
+        }
+        if (n != null) {
+            n.color = BLACK;
         }
-        return h;
     }
 
     private int compare(E v1, E v2) {
-        return comparator == null ? v1.compareTo(v2) : comparator.compare(v1, v2);
+        if (SetStats.ENABLED) comparisons++;
+        return order.compare(v1, v2);
+    }
+
+    /**
+     * @throws IllegalStateException if a red-black invariant, a parent link, a subtree size or the
+     * order of the values is broken
+     */
+    private void checkInvariants() {
+        if (isRed(root) || root != null && root.parent != null) {
+            throw new IllegalStateException("root is red or has a parent");
+        }
+        checkInvariants(root, null, null);
+    }
+
+    /**
+     * @return black height of {@code n}
+     */
+    private int checkInvariants(Node n, E low, E high) {
+        if (n == null) {
+            return 0;
+        }
+        if (low != null && compare(low, n.value) >= 0 || high != null && compare(n.value, high) >= 0) {
+            throw new IllegalStateException("out of order: " + n.value);
+        }
+        if (isRed(n) && (isRed(n.left) || isRed(n.right))) {
+            throw new IllegalStateException("red node with a red child: " + n.value);
+        }
+        if (n.left != null && n.left.parent != n || n.right != null && n.right.parent != n) {
+            throw new IllegalStateException("broken parent link below " + n.value);
+        }
+        int left = checkInvariants(n.left, low, n.value);
+        int right = checkInvariants(n.right, n.value, high);
+        if (left != right) {
+            throw new IllegalStateException("black heights differ below " + n.value);
+        }
+        if (n.size != size(n.left) + size(n.right) + 1) {
+            throw new IllegalStateException("wrong size at " + n.value);
+        }
+        return left + (isRed(n) ? 0 : 1);
     }
 
+    /**
+     * Demo, then a stress test: random adds and removes, checked against {@link TreeSet}
+     * and for the red-black invariants. Usage: {@code RedBlackTree [ops]}, default 2M.
+     */
     public static void main(String[] args) {
         RedBlackTree<Integer> tree = new RedBlackTree<>();
         tree.add(3);
@@ -277,5 +996,28 @@ public class RedBlackTree<E extends Comparable<E>> implements ISortedSet<E> {
         tree.remove(9);
         tree.remove(3);
         System.out.println(tree.inorderTraverse());
+
+        int ops = args.length > 0 ? Integer.parseInt(args[0]) : 2_000_000;
+        Random rnd = new Random(42);
+        TreeSet<Integer> expected = new TreeSet<>();
+        tree = new RedBlackTree<>();
+        for (int i = 1; i <= ops; i++) {
+            // the key range drifts, so the tree keeps growing and shrinking at both ends
+            int key = rnd.nextInt(1 << 14) + (i >> 8);
+            boolean remove = rnd.nextInt(3) == 0;
+            boolean changed = remove ? tree.remove(key) : tree.add(key);
+            boolean expectedChange = remove ? expected.remove(key) : expected.add(key);
+            if (changed != expectedChange || tree.size() != expected.size()) {
+                throw new IllegalStateException("differs from TreeSet after op " + i + ", key " + key);
+            }
+            if (i % 20_000 == 0) {
+                tree.checkInvariants();
+                if (!tree.inorderTraverse().equals(new ArrayList<>(expected))) {
+                    throw new IllegalStateException("elements differ after op " + i);
+                }
+            }
+        }
+        tree.checkInvariants();
+        System.out.println(ops + " random ops OK, size " + tree.size() + ", height " + tree.height());
     }
 }
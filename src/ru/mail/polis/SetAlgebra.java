@@ -0,0 +1,123 @@
+package ru.mail.polis;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * Union, intersection and difference of two balanced trees built on {@code split} and {@code join}
+ * (Blelloch, Ferizovic, Sun "Just Join for Parallel Ordered Sets"): the first tree is split by
+ * the root of the second, the halves are combined recursively and joined back. With m <= n the
+ * sizes of the trees it takes O(m log(n / m + 1)) time, and both recursive calls work on disjoint
+ * subtrees, so they can run in parallel.
+ * <p>
+ * The first tree is taken apart and its nodes are reused; the second one is only read.
+ */
+final class SetAlgebra {
+
+    /**
+     * Below this many nodes in both trees a subproblem is not worth a fork-join task.
+     */
+    static final int PARALLEL_THRESHOLD = 8192;
+
+    enum Operation {
+        UNION, INTERSECT, DIFFERENCE
+    }
+
+    /**
+     * Result of splitting a tree by a value: the trees of smaller and of greater values, and the
+     * detached node holding the value itself if the tree had one.
+     */
+    static final class Split<N> {
+        final N left;
+        final N found;
+        final N right;
+
+        Split(N left, N found, N right) {
+            this.left = left;
+            this.found = found;
+            this.right = right;
+        }
+    }
+
+    /**
+     * The primitives a balanced tree provides to {@link #combine}. Every tree passed in and out of
+     * them is a detached, valid tree on its own.
+     */
+    interface JoinAccess<N, E> extends NodeAccess<N, E> {
+
+        int size(N tree);
+
+        Split<N> split(N tree, E value);
+
+        /**
+         * @return a tree of everything in {@code left}, then {@code middle}, then everything in {@code right}
+         */
+        N join(N left, N middle, N right);
+
+        /**
+         * @return a new tree of the same values as {@code tree}, sharing no nodes with it
+         */
+        N copy(N tree);
+
+        N newNode(E value);
+    }
+
+    private SetAlgebra() {
+    }
+
+    static <N, E> N combine(Operation op, N mine, N other, boolean parallel, JoinAccess<N, E> access) {
+        if (parallel) {
+            return ForkJoinPool.commonPool().invoke(ForkJoinTask.adapt(() -> combine0(op, mine, other, true, access)));
+        }
+        return combine0(op, mine, other, false, access);
+    }
+
+    private static <N, E> N combine0(Operation op, N mine, N other, boolean parallel, JoinAccess<N, E> access) {
+        if (mine == null) {
+            return op == Operation.UNION ? access.copy(other) : null;
+        }
+        if (other == null) {
+            return op == Operation.INTERSECT ? null : mine;
+        }
+        boolean fork = parallel && access.size(mine) + access.size(other) > PARALLEL_THRESHOLD;
+        Split<N> split = access.split(mine, access.value(other));
+        N left;
+        N right;
+        if (fork) {
+            ForkJoinTask<N> leftTask = ForkJoinTask.adapt(
+                    () -> combine0(op, split.left, access.left(other), true, access)).fork();
+            right = combine0(op, split.right, access.right(other), true, access);
+            left = leftTask.join();
+        } else {
+            left = combine0(op, split.left, access.left(other), parallel, access);
+            right = combine0(op, split.right, access.right(other), parallel, access);
+        }
+        switch (op) {
+            case UNION:
+                N middle = split.found != null ? split.found : access.newNode(access.value(other));
+                return access.join(left, middle, right);
+            case INTERSECT:
+                return split.found != null ? access.join(left, split.found, right) : join2(left, right, access);
+            default:
+                return join2(left, right, access);
+        }
+    }
+
+    /**
+     * Joins two trees without a middle node: the greatest node of {@code left} is split off to take its place.
+     */
+    static <N, E> N join2(N left, N right, JoinAccess<N, E> access) {
+        if (left == null) {
+            return right;
+        }
+        if (right == null) {
+            return left;
+        }
+        N last = left;
+        while (access.right(last) != null) {
+            last = access.right(last);
+        }
+        Split<N> split = access.split(left, access.value(last));
+        return access.join(split.left, split.found, right);
+    }
+}
@@ -0,0 +1,194 @@
+package ru.mail.polis;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Counters of the hot paths of one set implementation, shared by all its instances: keys examined
+ * per operation, rotations, resizes. Poll them with {@link #of(Class)} or over JMX.
+ * <p>
+ * Off unless the JVM runs with {@code -Dru.mail.polis.stats=true}. Every call site is guarded by
+ * {@link #ENABLED}, a static final the JIT folds to a constant, so a disabled build compiles the
+ * instrumentation away. Enabled, the counters are {@link LongAdder}s, cheap even with contention.
+ */
+public final class SetStats implements SetStatsMXBean {
+
+    public static final boolean ENABLED = Boolean.getBoolean("ru.mail.polis.stats");
+
+    private static final Map<String, SetStats> ALL = new ConcurrentHashMap<>();
+    private static final int BUCKETS = 33;
+
+    private final String name;
+    private final LongAdder lookups = new LongAdder();
+    private final LongAdder inserts = new LongAdder();
+    private final LongAdder removes = new LongAdder();
+    private final LongAdder comparisons = new LongAdder();
+    private final LongAccumulator maxComparisons = new LongAccumulator(Math::max, 0);
+    private final LongAdder[] histogram = new LongAdder[BUCKETS];
+    private final LongAdder insertRotations = new LongAdder();
+    private final LongAdder removeRotations = new LongAdder();
+    private final LongAdder resizes = new LongAdder();
+    private final LongAdder resizeNanos = new LongAdder();
+    private final LongAccumulator maxResizeNanos = new LongAccumulator(Math::max, 0);
+
+    private SetStats(String name) {
+        this.name = name;
+        for (int i = 0; i < BUCKETS; i++) {
+            histogram[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * @return the counters of the implementation, registered with the platform MBean server the
+     * first time if stats are enabled
+     */
+    public static SetStats of(Class<?> owner) {
+        return ALL.computeIfAbsent(owner.getSimpleName(), name -> {
+            SetStats stats = new SetStats(name);
+            if (ENABLED) {
+                try {
+                    ManagementFactory.getPlatformMBeanServer().registerMBean(stats,
+                            new ObjectName("ru.mail.polis:type=SetStats,name=" + name));
+                } catch (JMException e) {
+                    throw new IllegalStateException("can't register stats of " + name, e);
+                }
+            }
+            return stats;
+        });
+    }
+
+    public void lookup(int comparisons) {
+        lookups.increment();
+        record(comparisons);
+    }
+
+    public void insert(int comparisons, int rotations) {
+        inserts.increment();
+        insertRotations.add(rotations);
+        record(comparisons);
+    }
+
+    public void remove(int comparisons, int rotations) {
+        removes.increment();
+        removeRotations.add(rotations);
+        record(comparisons);
+    }
+
+    private void record(int count) {
+        comparisons.add(count);
+        maxComparisons.accumulate(count);
+        histogram[32 - Integer.numberOfLeadingZeros(count)].increment();
+    }
+
+    public void resize(long nanos) {
+        resizes.increment();
+        resizeNanos.add(nanos);
+        maxResizeNanos.accumulate(nanos);
+    }
+
+    @Override
+    public long getLookups() {
+        return lookups.sum();
+    }
+
+    @Override
+    public long getInserts() {
+        return inserts.sum();
+    }
+
+    @Override
+    public long getRemoves() {
+        return removes.sum();
+    }
+
+    @Override
+    public long getComparisons() {
+        return comparisons.sum();
+    }
+
+    @Override
+    public double getAverageComparisons() {
+        long operations = getLookups() + getInserts() + getRemoves();
+        return operations == 0 ? 0 : (double) getComparisons() / operations;
+    }
+
+    @Override
+    public long getMaxComparisons() {
+        return maxComparisons.get();
+    }
+
+    @Override
+    public long[] getComparisonHistogram() {
+        int used = BUCKETS;
+        while (used > 0 && histogram[used - 1].sum() == 0) {
+            used--;
+        }
+        long[] counts = new long[used];
+        for (int i = 0; i < used; i++) {
+            counts[i] = histogram[i].sum();
+        }
+        return counts;
+    }
+
+    @Override
+    public long getRotations() {
+        return insertRotations.sum() + removeRotations.sum();
+    }
+
+    @Override
+    public double getRotationsPerInsert() {
+        long count = getInserts();
+        return count == 0 ? 0 : (double) insertRotations.sum() / count;
+    }
+
+    @Override
+    public double getRotationsPerRemove() {
+        long count = getRemoves();
+        return count == 0 ? 0 : (double) removeRotations.sum() / count;
+    }
+
+    @Override
+    public long getResizes() {
+        return resizes.sum();
+    }
+
+    @Override
+    public long getResizeNanos() {
+        return resizeNanos.sum();
+    }
+
+    @Override
+    public long getMaxResizeNanos() {
+        return maxResizeNanos.get();
+    }
+
+    /**
+     * Zeroes the counters; updates racing with the reset may survive it.
+     */
+    @Override
+    public void reset() {
+        for (LongAdder adder : new LongAdder[]{lookups, inserts, removes, comparisons,
+                insertRotations, removeRotations, resizes, resizeNanos}) {
+            adder.reset();
+        }
+        for (LongAdder bucket : histogram) {
+            bucket.reset();
+        }
+        maxComparisons.reset();
+        maxResizeNanos.reset();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s: %d lookups, %d inserts, %d removes, %.2f avg / %d max comparisons, "
+                        + "%.2f rotations per insert, %.2f per remove, %d resizes, %.3f ms max resize",
+                name, getLookups(), getInserts(), getRemoves(), getAverageComparisons(), getMaxComparisons(),
+                getRotationsPerInsert(), getRotationsPerRemove(), getResizes(), getMaxResizeNanos() / 1e6);
+    }
+}
@@ -0,0 +1,42 @@
+package ru.mail.polis;
+
+/**
+ * JMX view of {@link SetStats}, registered as {@code ru.mail.polis:type=SetStats,name=<class>}.
+ */
+public interface SetStatsMXBean {
+
+    long getLookups();
+
+    long getInserts();
+
+    long getRemoves();
+
+    /**
+     * @return keys examined by all operations: comparisons in a tree, nodes or slots in a hash table
+     */
+    long getComparisons();
+
+    double getAverageComparisons();
+
+    long getMaxComparisons();
+
+    /**
+     * @return operations by keys examined: element 0 counts operations that examined none,
+     * element {@code i > 0} those that examined {@code [2^(i-1), 2^i)}
+     */
+    long[] getComparisonHistogram();
+
+    long getRotations();
+
+    double getRotationsPerInsert();
+
+    double getRotationsPerRemove();
+
+    long getResizes();
+
+    long getResizeNanos();
+
+    long getMaxResizeNanos();
+
+    void reset();
+}
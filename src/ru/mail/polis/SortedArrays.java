@@ -0,0 +1,174 @@
+package ru.mail.polis;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Iterator;
+
+/**
+ * Sorted arrays the trees are bulk-loaded from, and sorted batches they process in one pass.
+ */
+final class SortedArrays {
+
+    private SortedArrays() {
+    }
+
+    /**
+     * Rebuilding costs O(size + added) plus the sort, inserting one by one O(added * log(size)).
+     * A sequential pass over a node is far cheaper than a cache-missing descent, though: measured
+     * on 1M-element trees, one insert costs about as much as rebuilding eight elements.
+     */
+    static boolean worthRebuilding(int size, int added) {
+        return (long) added * 8 >= size;
+    }
+
+    /**
+     * @throws NullPointerException if a value is null
+     */
+    static void checkNotNull(Object[] values) {
+        for (Object value : values) {
+            if (value == null) {
+                throw new NullPointerException("value is null");
+            }
+        }
+    }
+
+    /**
+     * @return a sorted copy of the values, duplicates included
+     * @throws NullPointerException if a value is null
+     */
+    static <E> E[] sorted(E[] values, Comparator<? super E> comparator) {
+        checkNotNull(values);
+        E[] sorted = values.clone();
+        Arrays.sort(sorted, comparator);
+        return sorted;
+    }
+
+    /**
+     * Sorts positions instead of values, so results can be written back to the caller's order:
+     * a stable merge sort of {@code 0..values.length-1} by value. Sorted input costs one pass.
+     *
+     * @throws NullPointerException if a value is null
+     */
+    static <E> int[] sortedOrder(E[] values, Comparator<? super E> comparator) {
+        checkNotNull(values);
+        int[] order = new int[values.length];
+        boolean sorted = true;
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+            sorted &= i == 0 || comparator.compare(values[i - 1], values[i]) <= 0;
+        }
+        if (sorted) {
+            return order;
+        }
+        int[] buffer = new int[order.length];
+        for (int width = 1; width < order.length; width <<= 1) {
+            for (int from = 0; from < order.length; from += width << 1) {
+                int mid = Math.min(from + width, order.length);
+                int to = Math.min(from + (width << 1), order.length);
+                int i = from;
+                int j = mid;
+                int k = from;
+                while (i < mid && j < to) {
+                    buffer[k++] = comparator.compare(values[order[j]], values[order[i]]) < 0 ? order[j++] : order[i++];
+                }
+                while (i < mid) {
+                    buffer[k++] = order[i++];
+                }
+                while (j < to) {
+                    buffer[k++] = order[j++];
+                }
+            }
+            int[] swap = order;
+            order = buffer;
+            buffer = swap;
+        }
+        return order;
+    }
+
+    /**
+     * @return the values in ascending order without duplicates; already sorted input is only checked, not sorted
+     * @throws NullPointerException if a value is null
+     */
+    static <E> Object[] sortedDistinct(Collection<? extends E> values, Comparator<? super E> comparator) {
+        Object[] array = values.toArray();
+        checkNotNull(array);
+        if (!isSorted(array, comparator)) {
+            @SuppressWarnings("unchecked")
+            E[] elements = (E[]) array;
+            Arrays.sort(elements, comparator);
+        }
+        return distinct(array, comparator);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <E> boolean isSorted(Object[] array, Comparator<? super E> comparator) {
+        for (int i = 1; i < array.length; i++) {
+            if (comparator.compare((E) array[i - 1], (E) array[i]) > 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <E> Object[] distinct(Object[] sorted, Comparator<? super E> comparator) {
+        if (sorted.length == 0) {
+            return sorted;
+        }
+        int length = 1;
+        for (int i = 1; i < sorted.length; i++) {
+            if (comparator.compare((E) sorted[length - 1], (E) sorted[i]) != 0) {
+                sorted[length++] = sorted[i];
+            }
+        }
+        return length == sorted.length ? sorted : Arrays.copyOf(sorted, length);
+    }
+
+    /**
+     * @return union of two sorted duplicate-free arrays, sorted and duplicate-free
+     */
+    @SuppressWarnings("unchecked")
+    static <E> Object[] merge(Object[] a, Object[] b, Comparator<? super E> comparator) {
+        if (a.length == 0) {
+            return b;
+        }
+        if (b.length == 0) {
+            return a;
+        }
+        Object[] merged = new Object[a.length + b.length];
+        int i = 0;
+        int j = 0;
+        int length = 0;
+        while (i < a.length && j < b.length) {
+            int cmp = comparator.compare((E) a[i], (E) b[j]);
+            if (cmp <= 0) {
+                merged[length++] = a[i++];
+                if (cmp == 0) {
+                    j++;
+                }
+            } else {
+                merged[length++] = b[j++];
+            }
+        }
+        while (i < a.length) {
+            merged[length++] = a[i++];
+        }
+        while (j < b.length) {
+            merged[length++] = b[j++];
+        }
+        return length == merged.length ? merged : Arrays.copyOf(merged, length);
+    }
+
+    /**
+     * @return the elements of the set in its sorting ordering
+     */
+    static Object[] toArray(ISortedSet<?> set) {
+        Object[] array = new Object[set.size()];
+        int i = 0;
+        for (Iterator<?> it = set.iterator(); it.hasNext(); ) {
+            array[i++] = it.next();
+        }
+        return array;
+    }
+}
@@ -0,0 +1,183 @@
+package ru.mail.polis;
+
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Range view of an {@link ISortedSet}: every operation checks the bounds and delegates to the
+ * backing set, so it costs the same as on the backing set. {@code size()} walks the range
+ * unless the backing set is an {@link IOrderStatisticSet}.
+ */
+final class SubSortedSet<E extends Comparable<E>> implements ISortedSet<E> {
+
+    private final ISortedSet<E> set;
+    private final E from;
+    private final boolean fromInclusive;
+    private final E to;
+    private final boolean toInclusive;
+
+    SubSortedSet(ISortedSet<E> set, E from, boolean fromInclusive, E to, boolean toInclusive) {
+        if (compare(set.comparator(), from, to) > 0) {
+            throw new IllegalArgumentException("from > to");
+        }
+        this.set = set;
+        this.from = from;
+        this.fromInclusive = fromInclusive;
+        this.to = to;
+        this.toInclusive = toInclusive;
+    }
+
+    static <E extends Comparable<E>> int compare(Comparator<? super E> comparator, E v1, E v2) {
+        return comparator == null ? v1.compareTo(v2) : comparator.compare(v1, v2);
+    }
+
+    private int compare(E v1, E v2) {
+        return compare(set.comparator(), v1, v2);
+    }
+
+    private boolean tooLow(E value) {
+        int cmp = compare(value, from);
+        return cmp < 0 || cmp == 0 && !fromInclusive;
+    }
+
+    private boolean tooHigh(E value) {
+        int cmp = compare(value, to);
+        return cmp > 0 || cmp == 0 && !toInclusive;
+    }
+
+    private boolean inRange(E value) {
+        return !tooLow(value) && !tooHigh(value);
+    }
+
+    private E inRangeOrNull(E value) {
+        return value != null && inRange(value) ? value : null;
+    }
+
+    @Override
+    public int size() {
+        if (set instanceof IOrderStatisticSet) {
+            return ((IOrderStatisticSet<E>) set).countInRange(from, fromInclusive, to, toInclusive);
+        }
+        int size = 0;
+        for (Iterator<E> it = iterator(); it.hasNext(); it.next()) {
+            size++;
+        }
+        return size;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return !iterator().hasNext();
+    }
+
+    @Override
+    public boolean contains(E value) {
+        if (value == null) {
+            throw new NullPointerException("value is null");
+        }
+        return inRange(value) && set.contains(value);
+    }
+
+    @Override
+    public boolean add(E value) {
+        if (value == null) {
+            throw new NullPointerException("value is null");
+        }
+        if (!inRange(value)) {
+            throw new IllegalArgumentException("value out of range");
+        }
+        return set.add(value);
+    }
+
+    @Override
+    public boolean remove(E value) {
+        if (value == null) {
+            throw new NullPointerException("value is null");
+        }
+        return inRange(value) && set.remove(value);
+    }
+
+    @Override
+    public E first() {
+        E first = lowest();
+        if (first == null) {
+            throw new NoSuchElementException("Set is empty");
+        }
+        return first;
+    }
+
+    @Override
+    public E last() {
+        E last = highest();
+        if (last == null) {
+            throw new NoSuchElementException("Set is empty");
+        }
+        return last;
+    }
+
+    private E lowest() {
+        return inRangeOrNull(fromInclusive ? set.ceiling(from) : set.higher(from));
+    }
+
+    private E highest() {
+        return inRangeOrNull(toInclusive ? set.floor(to) : set.lower(to));
+    }
+
+    @Override
+    public Comparator<? super E> comparator() {
+        return set.comparator();
+    }
+
+    @Override
+    public E floor(E value) {
+        return tooHigh(value) ? highest() : inRangeOrNull(set.floor(value));
+    }
+
+    @Override
+    public E ceiling(E value) {
+        return tooLow(value) ? lowest() : inRangeOrNull(set.ceiling(value));
+    }
+
+    @Override
+    public E lower(E value) {
+        return tooHigh(value) ? highest() : inRangeOrNull(set.lower(value));
+    }
+
+    @Override
+    public E higher(E value) {
+        return tooLow(value) ? lowest() : inRangeOrNull(set.higher(value));
+    }
+
+    @Override
+    public Iterator<E> iterator() {
+        return set.iterator(from, fromInclusive, to, toInclusive);
+    }
+
+    @Override
+    public Iterator<E> iterator(E from, boolean fromInclusive, E to, boolean toInclusive) {
+        if (from == null || tooLow(from)) {
+            from = this.from;
+            fromInclusive = this.fromInclusive;
+        }
+        if (to == null || tooHigh(to)) {
+            to = this.to;
+            toInclusive = this.toInclusive;
+        }
+        return set.iterator(from, fromInclusive, to, toInclusive);
+    }
+
+    @Override
+    public ISortedSet<E> subSet(E from, boolean fromInclusive, E to, boolean toInclusive) {
+        if (from == null || to == null) {
+            throw new NullPointerException("bound is null");
+        }
+        int cmpFrom = compare(from, this.from);
+        int cmpTo = compare(to, this.to);
+        if (cmpFrom < 0 || cmpFrom == 0 && fromInclusive && !this.fromInclusive
+                || cmpTo > 0 || cmpTo == 0 && toInclusive && !this.toInclusive) {
+            throw new IllegalArgumentException("bound out of range");
+        }
+        return new SubSortedSet<>(set, from, fromInclusive, to, toInclusive);
+    }
+}
@@ -0,0 +1,92 @@
+package ru.mail.polis;
+
+import java.util.Comparator;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+
+/**
+ * Spliterator over "one node, then a whole subtree of larger elements".
+ * <p>
+ * Until traversal starts it splits off the node and the left half of the subtree,
+ * keeping the subtree root and its right half; both parts have the same shape, so they
+ * split again the same way. Traversal itself goes through an {@link InorderIterator}.
+ */
+final class SubtreeSpliterator<N, E> implements Spliterator<E> {
+
+    private static final int CHARACTERISTICS = ORDERED | SORTED | DISTINCT | NONNULL;
+
+    private final NodeAccess<N, E> access;
+    private final Comparator<E> comparator;
+    private N head;
+    private N subtree;
+    private long estimate;
+    private boolean sized;
+    private InorderIterator<N, E> iterator;
+
+    /**
+     * @param comparator ordering of the tree, null for natural ordering
+     */
+    SubtreeSpliterator(N root, int size, Comparator<E> comparator, NodeAccess<N, E> access) {
+        this(null, root, size, true, comparator, access);
+    }
+
+    private SubtreeSpliterator(N head, N subtree, long estimate, boolean sized,
+                               Comparator<E> comparator, NodeAccess<N, E> access) {
+        this.head = head;
+        this.subtree = subtree;
+        this.estimate = estimate;
+        this.sized = sized;
+        this.comparator = comparator;
+        this.access = access;
+    }
+
+    @Override
+    public Spliterator<E> trySplit() {
+        if (iterator != null || subtree == null || access.left(subtree) == null) {
+            return null;
+        }
+        long half = estimate >>> 1;
+        SubtreeSpliterator<N, E> prefix =
+                new SubtreeSpliterator<>(head, access.left(subtree), half, false, comparator, access);
+        head = subtree;
+        subtree = access.right(subtree);
+        estimate -= half;
+        sized = false;
+        return prefix;
+    }
+
+    @Override
+    public boolean tryAdvance(Consumer<? super E> action) {
+        if (iterator == null) {
+            iterator = new InorderIterator<>(subtree, access);
+            if (head != null) {
+                N node = head;
+                head = null;
+                estimate--;
+                action.accept(access.value(node));
+                return true;
+            }
+        }
+        if (!iterator.hasNext()) {
+            return false;
+        }
+        estimate--;
+        action.accept(iterator.next());
+        return true;
+    }
+
+    @Override
+    public long estimateSize() {
+        return Math.max(estimate, 0);
+    }
+
+    @Override
+    public int characteristics() {
+        return sized ? CHARACTERISTICS | SIZED : CHARACTERISTICS;
+    }
+
+    @Override
+    public Comparator<? super E> getComparator() {
+        return comparator;
+    }
+}
@@ -0,0 +1,52 @@
+package ru.mail.polis.bench;
+
+import java.util.Random;
+
+import ru.mail.polis.AVLTree;
+
+/**
+ * Insert / remove cost of {@link AVLTree} as the tree grows.
+ * <p>
+ * With O(log n) rebalancing the {@code ns/log2(n)} column stays roughly flat while n grows
+ * by orders of magnitude; an O(n) rebalance makes it grow linearly with n.
+ */
+public class AVLTreeBenchmark {
+
+    public static void main(String[] args) {
+        int[] sizes = BenchSupport.parseInts(args.length > 0 ? args[0] : "1K,10K,100K,1M");
+        for (KeyDistribution distribution : new KeyDistribution[]{KeyDistribution.SEQUENTIAL, KeyDistribution.UNIFORM}) {
+            for (int size : sizes) {
+                Integer[] keys = distribution.keys(size, new Random(42));
+                // warm-up
+                fill(keys);
+                AVLTree<Integer> tree = new AVLTree<>();
+                BenchSupport.Measurement insert = BenchSupport.start();
+                for (Integer key : keys) {
+                    tree.add(key);
+                }
+                insert.stop(size);
+
+                BenchSupport.Measurement remove = BenchSupport.start();
+                for (Integer key : keys) {
+                    tree.remove(key);
+                }
+                remove.stop(size);
+
+                double log = Math.log(size) / Math.log(2);
+                System.out.printf("%-10s %9d insert %8.1f ns/op %6.2f ns/log2(n)   remove %8.1f ns/op %6.2f ns/log2(n)%n",
+                        distribution, size, insert.nsPerOp(), insert.nsPerOp() / log,
+                        remove.nsPerOp(), remove.nsPerOp() / log);
+            }
+        }
+    }
+
+    private static void fill(Integer[] keys) {
+        AVLTree<Integer> tree = new AVLTree<>();
+        for (Integer key : keys) {
+            tree.add(key);
+        }
+        for (Integer key : keys) {
+            tree.remove(key);
+        }
+    }
+}
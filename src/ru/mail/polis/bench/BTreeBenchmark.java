@@ -0,0 +1,90 @@
+package ru.mail.polis.bench;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.function.Supplier;
+
+import ru.mail.polis.AVLTree;
+import ru.mail.polis.BTreeSet;
+import ru.mail.polis.ISortedSet;
+import ru.mail.polis.RedBlackTree;
+
+/**
+ * {@link BTreeSet} at fan-outs from 16 to 256 against the binary trees: heap retained per element,
+ * lookup latency for present and absent keys, and a full scan.
+ * <p>
+ * The keys are allocated up front and stay reachable, so bytes per key count the structure only:
+ * a binary tree pays a node of object header, value and two or three references per element, a
+ * B-tree about one array slot plus the unused tail of its nodes.
+ * <p>
+ * Usage: {@code BTreeBenchmark [sizes] [fan-outs]}, defaults 100K,1M,10M and 16,32,64,128,256.
+ * Run with a heap large enough for the biggest size, e.g. {@code -Xmx4g}.
+ */
+public class BTreeBenchmark {
+
+    private static final int LOOKUPS = 2_000_000;
+
+    private static long blackhole;
+
+    public static void main(String[] args) {
+        int[] sizes = BenchSupport.parseInts(args.length > 0 ? args[0] : "100K,1M,10M");
+        int[] orders = BenchSupport.parseInts(args.length > 1 ? args[1] : "16,32,64,128,256");
+
+        Map<String, Supplier<ISortedSet<Integer>>> impls = new LinkedHashMap<>();
+        impls.put("AVLTree", AVLTree::new);
+        impls.put("RedBlackTree", RedBlackTree::new);
+        impls.put("TreeSet", JdkSets::treeSet);
+        for (int order : orders) {
+            impls.put("BTreeSet/" + order, () -> new BTreeSet<>(order));
+        }
+
+        for (int size : sizes) {
+            // even keys only, so lookups of odd keys miss
+            Integer[] keys = KeyDistribution.UNIFORM.keys(size, new Random(42));
+            Integer[] probes = new Integer[LOOKUPS];
+            Random rnd = new Random(7);
+            for (int i = 0; i < size; i++) {
+                keys[i] = keys[i] << 1;
+            }
+            for (int i = 0; i < LOOKUPS; i++) {
+                Integer key = keys[rnd.nextInt(size)];
+                probes[i] = rnd.nextBoolean() ? key : Integer.valueOf(key + 1);
+            }
+            for (Map.Entry<String, Supplier<ISortedSet<Integer>>> impl : impls.entrySet()) {
+                run(impl.getKey(), impl.getValue(), keys, probes);
+            }
+        }
+    }
+
+    private static void run(String name, Supplier<ISortedSet<Integer>> factory, Integer[] keys, Integer[] probes) {
+        long before = BenchSupport.usedHeap();
+        ISortedSet<Integer> set = factory.get();
+        for (Integer key : keys) {
+            set.add(key);
+        }
+        double bytesPerKey = (double) (BenchSupport.usedHeap() - before) / set.size();
+
+        BenchSupport.Measurement lookup = null;
+        BenchSupport.Measurement scan = null;
+        long sink = 0;
+        for (int round = 0; round < 2; round++) {
+            lookup = BenchSupport.start();
+            for (Integer probe : probes) {
+                sink += set.contains(probe) ? 1 : 0;
+            }
+            lookup.stop(probes.length);
+
+            scan = BenchSupport.start();
+            for (Iterator<Integer> it = set.iterator(); it.hasNext(); ) {
+                sink += it.next();
+            }
+            scan.stop(set.size());
+        }
+        blackhole += sink;
+
+        System.out.printf("%-16s %9d  %6.1f B/key  lookup %7.1f ns  scan %5.1f ns/key%n",
+                name, keys.length, bytesPerKey, lookup.nsPerOp(), scan.nsPerOp());
+    }
+}
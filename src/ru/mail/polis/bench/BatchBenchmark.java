@@ -0,0 +1,114 @@
+package ru.mail.polis.bench;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Random;
+import java.util.function.Supplier;
+
+import ru.mail.polis.ISet;
+
+/**
+ * Per-key cost of the batch methods against the same keys one call at a time, for batch sizes
+ * from 16 to 64K, on a set already holding {@code size} keys. Half of the looked up keys miss;
+ * every added batch is removed again, so the set keeps its size.
+ * <p>
+ * Usage: {@code BatchBenchmark [size] [batch sizes] [implementations]}, defaults 1M, 16,256,4K,64K
+ * and every implementation of {@link SetBenchmark}.
+ */
+public class BatchBenchmark {
+
+    private static final int KEYS_PER_ROUND = 2_000_000;
+
+    private static long blackhole;
+
+    public static void main(String[] args) {
+        int size = args.length > 0 ? BenchSupport.parseSize(args[0]) : 1_000_000;
+        int[] batchSizes = BenchSupport.parseInts(args.length > 1 ? args[1] : "16,256,4K,64K");
+        Map<String, Supplier<ISet<Integer>>> impls = SetBenchmark.implementations();
+        if (args.length > 2) {
+            impls.keySet().retainAll(Arrays.asList(args[2].split(",")));
+        }
+        Random rnd = new Random(42);
+        // even keys are in the set, odd keys never are
+        Integer[] present = KeyDistribution.UNIFORM.keys(size, rnd);
+        for (int i = 0; i < size; i++) {
+            present[i] = present[i] << 1;
+        }
+        for (Map.Entry<String, Supplier<ISet<Integer>>> impl : impls.entrySet()) {
+            ISet<Integer> set = impl.getValue().get();
+            set.addAll(present);
+            for (int batchSize : batchSizes) {
+                Integer[][] batches = batches(present, batchSize, rnd);
+                for (int round = 0; round < 2; round++) {
+                    boolean measured = round == 1;
+                    run(impl.getKey(), set, batches, false, measured);
+                    run(impl.getKey(), set, batches, true, measured);
+                }
+            }
+        }
+    }
+
+    private static Integer[][] batches(Integer[] present, int batchSize, Random rnd) {
+        Integer[][] batches = new Integer[Math.max(1, KEYS_PER_ROUND / batchSize)][batchSize];
+        for (Integer[] batch : batches) {
+            for (int i = 0; i < batchSize; i++) {
+                Integer key = present[rnd.nextInt(present.length)];
+                batch[i] = rnd.nextBoolean() ? key : key + 1;
+            }
+        }
+        return batches;
+    }
+
+    private static void run(String name, ISet<Integer> set, Integer[][] batches, boolean batched, boolean measured) {
+        long keys = (long) batches.length * batches[0].length;
+        boolean[] out = new boolean[batches[0].length];
+        long sink = 0;
+
+        BenchSupport.Measurement contains = BenchSupport.start();
+        for (Integer[] batch : batches) {
+            if (batched) {
+                sink += set.containsAll(batch, out) ? 1 : 0;
+            } else {
+                for (int i = 0; i < batch.length; i++) {
+                    out[i] = set.contains(batch[i]);
+                }
+            }
+            sink += out[0] ? 1 : 0;
+        }
+        contains.stop(keys);
+
+        // adds the odd (absent) keys of every batch and removes them again
+        BenchSupport.Measurement add = BenchSupport.start();
+        for (Integer[] batch : batches) {
+            if (batched) {
+                sink += set.addAll(batch) ? 1 : 0;
+            } else {
+                for (Integer key : batch) {
+                    sink += set.add(key) ? 1 : 0;
+                }
+            }
+        }
+        add.stop(keys);
+
+        BenchSupport.Measurement remove = BenchSupport.start();
+        for (Integer[] batch : batches) {
+            Integer[] odd = Arrays.stream(batch).filter(key -> (key & 1) != 0).toArray(Integer[]::new);
+            if (batched) {
+                sink += set.removeAll(odd) ? 1 : 0;
+            } else {
+                for (Integer key : odd) {
+                    sink += set.remove(key) ? 1 : 0;
+                }
+            }
+        }
+        remove.stop(keys / 2);
+        blackhole += sink;
+
+        if (measured) {
+            String mode = batched ? "batch" : "single";
+            int batchSize = batches[0].length;
+            System.out.printf("%-16s %6d %-6s contains %7.1f ns/key  add %7.1f ns/key  remove %7.1f ns/key%n",
+                    name, batchSize, mode, contains.nsPerOp(), add.nsPerOp(), remove.nsPerOp());
+        }
+    }
+}
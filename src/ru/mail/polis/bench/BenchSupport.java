@@ -0,0 +1,207 @@
+package ru.mail.polis.bench;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Timing, allocation and GC probes shared by the benchmarks.
+ * <p>
+ * There is no JMH in this tree, so every benchmark is a plain {@code main()}: warm up, then
+ * measure a fixed number of operations and report ns/op together with the bytes allocated by
+ * the measuring thread and the GC activity observed during the run.
+ */
+public final class BenchSupport {
+
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+    private static final boolean ALLOCATION_SUPPORTED = allocationSupported();
+
+    private BenchSupport() {
+    }
+
+    private static boolean allocationSupported() {
+        if (!(THREADS instanceof com.sun.management.ThreadMXBean)) {
+            return false;
+        }
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) THREADS;
+        if (!threads.isThreadAllocatedMemorySupported()) {
+            return false;
+        }
+        threads.setThreadAllocatedMemoryEnabled(true);
+        return true;
+    }
+
+    /**
+     * @return bytes allocated so far by the current thread, or -1 if the JVM can't tell
+     */
+    public static long allocatedBytes() {
+        if (!ALLOCATION_SUPPORTED) {
+            return -1;
+        }
+        return ((com.sun.management.ThreadMXBean) THREADS).getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    public static long gcCount() {
+        long count = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += Math.max(0, gc.getCollectionCount());
+        }
+        return count;
+    }
+
+    public static long gcTimeMillis() {
+        long time = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            time += Math.max(0, gc.getCollectionTime());
+        }
+        return time;
+    }
+
+    /**
+     * @return heap in use after a best-effort full collection
+     */
+    public static long usedHeap() {
+        Runtime rt = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return rt.totalMemory() - rt.freeMemory();
+    }
+
+    public static int[] parseInts(String csv) {
+        String[] parts = csv.split(",");
+        int[] result = new int[parts.length];
+        for (int i = 0; i < parts.length; i++) {
+            result[i] = parseSize(parts[i].trim());
+        }
+        return result;
+    }
+
+    /**
+     * @param s a number with an optional K / M suffix, e.g. "10K"
+     */
+    public static int parseSize(String s) {
+        char suffix = Character.toUpperCase(s.charAt(s.length() - 1));
+        if (suffix == 'K') {
+            return Integer.parseInt(s.substring(0, s.length() - 1)) * 1_000;
+        }
+        if (suffix == 'M') {
+            return Integer.parseInt(s.substring(0, s.length() - 1)) * 1_000_000;
+        }
+        return Integer.parseInt(s);
+    }
+
+    /**
+     * Starts a measurement; call {@link Measurement#stop(long)} with the number of operations done.
+     */
+    public static Measurement start() {
+        return new Measurement();
+    }
+
+    public static final class Measurement {
+
+        private final long gcCount = gcCount();
+        private final long gcTime = gcTimeMillis();
+        private final long allocated = allocatedBytes();
+        private final long started = System.nanoTime();
+
+        private long ops;
+        private long elapsed;
+        private long allocatedDelta;
+        private long gcCountDelta;
+        private long gcTimeDelta;
+
+        private Measurement() {
+        }
+
+        public Measurement stop(long ops) {
+            this.elapsed = System.nanoTime() - started;
+            long allocatedNow = allocatedBytes();
+            this.allocatedDelta = allocated < 0 ? -1 : allocatedNow - allocated;
+            this.gcCountDelta = gcCount() - gcCount;
+            this.gcTimeDelta = gcTimeMillis() - gcTime;
+            this.ops = Math.max(ops, 1);
+            return this;
+        }
+
+        public double nsPerOp() {
+            return (double) elapsed / ops;
+        }
+
+        public double opsPerSec() {
+            return ops * 1e9 / Math.max(elapsed, 1);
+        }
+
+        public double bytesPerOp() {
+            return allocatedDelta < 0 ? Double.NaN : (double) allocatedDelta / ops;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%10.1f ns/op %12.0f ops/s %8.1f B/op %4d gc %6d ms",
+                    nsPerOp(), opsPerSec(), bytesPerOp(), gcCountDelta, gcTimeDelta);
+        }
+    }
+
+    /**
+     * Fixed-size latency recorder reporting percentiles, so tail behaviour isn't averaged away.
+     */
+    public static final class Latencies {
+
+        private final long[] samples;
+        private int count;
+        private boolean sorted;
+
+        public Latencies(int capacity) {
+            this.samples = new long[capacity];
+        }
+
+        public void record(long nanos) {
+            if (count < samples.length) {
+                samples[count++] = nanos;
+                sorted = false;
+            }
+        }
+
+        public long percentile(double p) {
+            if (count == 0) {
+                return 0;
+            }
+            if (!sorted) {
+                Arrays.sort(samples, 0, count);
+                sorted = true;
+            }
+            int idx = (int) Math.min(count - 1, Math.ceil(p / 100.0 * count) - 1);
+            return samples[Math.max(idx, 0)];
+        }
+
+        /**
+         * @return how many recorded operations took longer than {@code nanos}
+         */
+        public int countOver(long nanos) {
+            int over = 0;
+            for (int i = 0; i < count; i++) {
+                if (samples[i] > nanos) {
+                    over++;
+                }
+            }
+            return over;
+        }
+
+        @Override
+        public String toString() {
+            List<String> parts = new ArrayList<>();
+            for (double p : new double[]{50, 90, 99, 99.9, 99.99, 99.999, 100}) {
+                parts.add(String.format("p%s=%dns", p == 100 ? "max" : trim(p), percentile(p)));
+            }
+            return String.join(" ", parts);
+        }
+
+        private static String trim(double p) {
+            return p == Math.rint(p) ? String.valueOf((long) p) : String.valueOf(p);
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package ru.mail.polis.bench;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import ru.mail.polis.AVLTree;
+import ru.mail.polis.BinarySearchTree;
+import ru.mail.polis.ISortedSet;
+import ru.mail.polis.RedBlackTree;
+
+/**
+ * Cold start: loading n keys one {@code add} at a time against the {@code of(...)} bulk-load
+ * factories, for pre-sorted and shuffled input.
+ * <p>
+ * Usage: {@code BulkLoadBenchmark [sizes]}, default 1M,5M. For 20M use {@code -Xmx4g}.
+ */
+public class BulkLoadBenchmark {
+
+    private static long blackhole;
+
+    public static void main(String[] args) {
+        int[] sizes = BenchSupport.parseInts(args.length > 0 ? args[0] : "1M,5M");
+        for (int size : sizes) {
+            Integer[] keys = KeyDistribution.SEQUENTIAL.keys(size, new Random(42));
+            Integer[] shuffled = keys.clone();
+            Collections.shuffle(Arrays.asList(shuffled), new Random(42));
+            for (int round = 0; round < 2; round++) {
+                boolean measured = round == 1;
+                for (Integer[] input : new Integer[][]{keys, shuffled}) {
+                    String order = input == keys ? "sorted" : "shuffled";
+                    List<Integer> list = Arrays.asList(input);
+                    // one by one into an unbalanced tree is quadratic on sorted keys
+                    if (input != keys || size <= 20_000) {
+                        run("BinarySearchTree add", order, size, measured, () -> addAll(new BinarySearchTree<>(), input));
+                    }
+                    run("BinarySearchTree of", order, size, measured, () -> BinarySearchTree.of(list));
+                    run("AVLTree add", order, size, measured, () -> addAll(new AVLTree<>(), input));
+                    run("AVLTree of", order, size, measured, () -> AVLTree.of(list));
+                    run("RedBlackTree add", order, size, measured, () -> addAll(new RedBlackTree<>(), input));
+                    run("RedBlackTree of", order, size, measured, () -> RedBlackTree.of(list));
+                    run("TreeSet add", order, size, measured, () -> addAll(JdkSets.treeSet(), input));
+                }
+            }
+        }
+    }
+
+    private static ISortedSet<Integer> addAll(ISortedSet<Integer> set, Integer[] keys) {
+        for (Integer key : keys) {
+            set.add(key);
+        }
+        return set;
+    }
+
+    private static void run(String name, String order, int size, boolean measured,
+                            java.util.function.Supplier<ISortedSet<Integer>> load) {
+        BenchSupport.Measurement m = BenchSupport.start();
+        ISortedSet<Integer> set = load.get();
+        m.stop(size);
+        blackhole += set.size();
+        if (measured) {
+            System.out.printf("%-22s %-8s %9d %s  total %6d ms%n",
+                    name, order, size, m, Math.round(m.nsPerOp() * size / 1e6));
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package ru.mail.polis.bench;
+
+import java.util.Random;
+import java.util.function.Supplier;
+
+import ru.mail.polis.ChainHashTable;
+import ru.mail.polis.ISet;
+import ru.mail.polis.OpenHashTable;
+
+/**
+ * Hash flooding: string keys built from the blocks "Aa" and "BB", which have the same
+ * {@code hashCode}, so all 2^k strings of k blocks share one hash whatever the hasher mixes in.
+ * <p>
+ * Reports the cost of inserting the colliding keys and then looking them up, next to random
+ * strings of the same length. {@link ChainHashTable} turns the flooded bucket into a tree and
+ * stays logarithmic; {@link OpenHashTable} probes linearly and degrades to O(n) per operation.
+ * <p>
+ * Usage: {@code CollisionAttackBenchmark [sizes]}, default 1K,4K,16K.
+ */
+public class CollisionAttackBenchmark {
+
+    private static long blackhole;
+
+    public static void main(String[] args) {
+        int[] sizes = BenchSupport.parseInts(args.length > 0 ? args[0] : "1K,4K,16K");
+        for (int size : sizes) {
+            String[] colliding = colliding(size);
+            String[] random = random(size, colliding[0].length(), new Random(42));
+            run("ChainHashTable", ChainHashTable::new, colliding, random);
+            run("OpenHashTable", OpenHashTable::new, colliding, random);
+            run("HashSet", JdkSets::hashSet, colliding, random);
+        }
+    }
+
+    private static void run(String name, Supplier<ISet<String>> factory, String[] colliding, String[] random) {
+        for (int round = 0; round < 2; round++) {
+            for (String[] keys : new String[][]{random, colliding}) {
+                ISet<String> set = factory.get();
+                BenchSupport.Measurement adds = BenchSupport.start();
+                for (String key : keys) {
+                    set.add(key);
+                }
+                adds.stop(keys.length);
+                long found = 0;
+                BenchSupport.Measurement lookups = BenchSupport.start();
+                for (String key : keys) {
+                    found += set.contains(key) ? 1 : 0;
+                }
+                lookups.stop(keys.length);
+                blackhole += found;
+                if (round == 1) {
+                    System.out.printf("%-15s %-9s %7d keys  add %10.1f ns/op  contains %10.1f ns/op%n",
+                            name, keys == random ? "random" : "colliding", keys.length, adds.nsPerOp(), lookups.nsPerOp());
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the first {@code n} strings of k blocks, each block "Aa" or "BB", in binary counting order
+     */
+    static String[] colliding(int n) {
+        int blocks = Math.max(1, 32 - Integer.numberOfLeadingZeros(n - 1));
+        String[] keys = new String[n];
+        for (int i = 0; i < n; i++) {
+            StringBuilder sb = new StringBuilder(blocks * 2);
+            for (int b = blocks - 1; b >= 0; b--) {
+                sb.append((i >>> b & 1) == 0 ? "Aa" : "BB");
+            }
+            keys[i] = sb.toString();
+        }
+        return keys;
+    }
+
+    private static String[] random(int n, int length, Random rnd) {
+        String[] keys = new String[n];
+        for (int i = 0; i < n; i++) {
+            char[] chars = new char[length];
+            for (int j = 0; j < length; j++) {
+                chars[j] = (char) ('A' + rnd.nextInt(58));
+            }
+            keys[i] = new String(chars);
+        }
+        return keys;
+    }
+}
@@ -0,0 +1,82 @@
+package ru.mail.polis.bench;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.function.Function;
+
+import ru.mail.polis.AVLTree;
+import ru.mail.polis.BTreeSet;
+import ru.mail.polis.Comparators;
+import ru.mail.polis.ISet;
+import ru.mail.polis.RedBlackTree;
+
+/**
+ * Lookups with natural ordering against the type-specific {@link Comparators} and an ad hoc
+ * lambda, for Integer, Long and String keys.
+ * <p>
+ * All three key types go through the same trees first, as they would in a service that keeps
+ * sets of several types: the {@code compareTo} call behind natural ordering then sees three
+ * receiver types and stops being inlined, while each specialized comparator sees one.
+ * <p>
+ * Usage: {@code ComparatorBenchmark [size]}, default 1M.
+ */
+public class ComparatorBenchmark {
+
+    private static final int LOOKUPS = 2_000_000;
+    private static final int ROUNDS = 3;
+
+    private static long blackhole;
+
+    public static void main(String[] args) {
+        int size = args.length > 0 ? BenchSupport.parseSize(args[0]) : 1_000_000;
+        Random rnd = new Random(42);
+        Integer[] ints = KeyDistribution.UNIFORM.keys(size, rnd);
+        Long[] longs = new Long[size];
+        String[] strings = new String[size];
+        for (int i = 0; i < size; i++) {
+            longs[i] = ints[i] * 0x9E3779B97F4A7C15L;
+            strings[i] = "user-" + ints[i];
+        }
+
+        for (int round = 0; round < ROUNDS; round++) {
+            boolean report = round == ROUNDS - 1;
+            run("Integer", ints, Comparators.INTEGER, (a, b) -> a.compareTo(b), report);
+            run("Long", longs, Comparators.LONG, (a, b) -> a.compareTo(b), report);
+            run("String", strings, Comparators.STRING, (a, b) -> a.compareTo(b), report);
+        }
+    }
+
+    private static <E extends Comparable<E>> void run(String type, E[] keys, Comparator<E> specialized,
+                                                      Comparator<E> custom, boolean report) {
+        run(type, "AVLTree", keys, AVLTree::new, specialized, custom, report);
+        run(type, "RedBlackTree", keys, RedBlackTree::new, specialized, custom, report);
+        run(type, "BTreeSet", keys, BTreeSet::new, specialized, custom, report);
+    }
+
+    private static <E extends Comparable<E>> void run(String type, String name, E[] keys,
+                                                      Function<Comparator<E>, ISet<E>> factory,
+                                                      Comparator<E> specialized, Comparator<E> custom,
+                                                      boolean report) {
+        String[] labels = {"natural", "specialized", "custom lambda"};
+        List<Comparator<E>> comparators = Arrays.asList(null, specialized, custom);
+        for (int i = 0; i < comparators.size(); i++) {
+            ISet<E> set = factory.apply(comparators.get(i));
+            for (E key : keys) {
+                set.add(key);
+            }
+            Random rnd = new Random(7);
+            long found = 0;
+            BenchSupport.Measurement m = BenchSupport.start();
+            for (int j = 0; j < LOOKUPS; j++) {
+                found += set.contains(keys[rnd.nextInt(keys.length)]) ? 1 : 0;
+            }
+            m.stop(LOOKUPS);
+            blackhole += found;
+            if (report) {
+                System.out.printf("%-8s %-13s %-14s %8.1f ns/lookup%n", type, name, labels[i], m.nsPerOp());
+            }
+        }
+    }
+}
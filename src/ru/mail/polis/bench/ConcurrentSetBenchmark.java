@@ -0,0 +1,104 @@
+package ru.mail.polis.bench;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+import ru.mail.polis.ChainHashTable;
+import ru.mail.polis.ConcurrentChainHashTable;
+import ru.mail.polis.ISet;
+
+/**
+ * Multi-threaded throughput of {@link ConcurrentChainHashTable} against {@link ChainHashTable}
+ * behind a global lock and {@code ConcurrentHashMap.newKeySet()}, at 1-64 threads.
+ * <p>
+ * Usage: {@code ConcurrentSetBenchmark [read%] [keyRange] [millis]}, defaults 90 1M 2000.
+ * The rest of the operations are split evenly between add and remove, so the set stays about half full.
+ */
+public class ConcurrentSetBenchmark {
+
+    static final int[] THREADS = {1, 2, 4, 8, 16, 32, 64};
+
+    public static void main(String[] args) throws InterruptedException {
+        int readPercent = args.length > 0 ? Integer.parseInt(args[0]) : 90;
+        int keyRange = args.length > 1 ? BenchSupport.parseSize(args[1]) : 1_000_000;
+        long millis = args.length > 2 ? Long.parseLong(args[2]) : 2000;
+
+        Map<String, Supplier<ISet<Integer>>> impls = new LinkedHashMap<>();
+        impls.put("ConcurrentChainHashTable", ConcurrentChainHashTable::new);
+        impls.put("synchronized ChainHashTable", () -> Synchronized.set(new ChainHashTable<Integer>()));
+        impls.put("ConcurrentHashMap.newKeySet", JdkSets::concurrentHashSet);
+
+        System.out.printf("read %d%%, keys %d, %d ms per point%n", readPercent, keyRange, millis);
+        for (Map.Entry<String, Supplier<ISet<Integer>>> impl : impls.entrySet()) {
+            for (int threads : THREADS) {
+                ISet<Integer> set = impl.getValue().get();
+                prefill(set, keyRange);
+                // short warm-up run on the same set, then the measured one
+                throughput(set, threads, readPercent, keyRange, millis / 4);
+                double opsPerSec = throughput(set, threads, readPercent, keyRange, millis);
+                System.out.printf("%-28s %3d threads %14.0f ops/s%n", impl.getKey(), threads, opsPerSec);
+            }
+        }
+    }
+
+    static void prefill(ISet<Integer> set, int keyRange) {
+        for (int i = 0; i < keyRange; i += 2) {
+            set.add(i);
+        }
+    }
+
+    /**
+     * Runs a random read/add/remove mix on {@code threads} threads for {@code millis} ms.
+     *
+     * @return total operations per second across all threads
+     */
+    static double throughput(ISet<Integer> set, int threads, int readPercent, int keyRange, long millis)
+            throws InterruptedException {
+        LongAdder ops = new LongAdder();
+        CountDownLatch start = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(threads);
+        AtomicBoolean stop = new AtomicBoolean();
+        Thread[] workers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            workers[t] = new Thread(() -> {
+                ThreadLocalRandom rnd = ThreadLocalRandom.current();
+                long local = 0;
+                try {
+                    start.await();
+                    while (!stop.get()) {
+                        for (int i = 0; i < 64; i++) {
+                            Integer key = rnd.nextInt(keyRange);
+                            int op = rnd.nextInt(100);
+                            if (op < readPercent) {
+                                set.contains(key);
+                            } else if ((op & 1) == 0) {
+                                set.add(key);
+                            } else {
+                                set.remove(key);
+                            }
+                        }
+                        local += 64;
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    ops.add(local);
+                    done.countDown();
+                }
+            });
+            workers[t].start();
+        }
+        long started = System.nanoTime();
+        start.countDown();
+        Thread.sleep(millis);
+        stop.set(true);
+        done.await();
+        long elapsed = System.nanoTime() - started;
+        return ops.sum() * 1e9 / elapsed;
+    }
+}
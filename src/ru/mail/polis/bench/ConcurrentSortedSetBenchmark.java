@@ -0,0 +1,40 @@
+package ru.mail.polis.bench;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Supplier;
+
+import ru.mail.polis.ISet;
+import ru.mail.polis.LockFreeSkipList;
+import ru.mail.polis.RedBlackTree;
+
+/**
+ * Multi-threaded throughput of {@link LockFreeSkipList} against {@link RedBlackTree} behind a
+ * global lock and {@code java.util.concurrent.ConcurrentSkipListSet}, at 1-64 threads.
+ * <p>
+ * Usage: {@code ConcurrentSortedSetBenchmark [read%] [keyRange] [millis]}, defaults 90 1M 2000.
+ */
+public class ConcurrentSortedSetBenchmark {
+
+    public static void main(String[] args) throws InterruptedException {
+        int readPercent = args.length > 0 ? Integer.parseInt(args[0]) : 90;
+        int keyRange = args.length > 1 ? BenchSupport.parseSize(args[1]) : 1_000_000;
+        long millis = args.length > 2 ? Long.parseLong(args[2]) : 2000;
+
+        Map<String, Supplier<ISet<Integer>>> impls = new LinkedHashMap<>();
+        impls.put("LockFreeSkipList", LockFreeSkipList::new);
+        impls.put("synchronized RedBlackTree", () -> Synchronized.sortedSet(new RedBlackTree<Integer>()));
+        impls.put("ConcurrentSkipListSet", JdkSets::concurrentSkipListSet);
+
+        System.out.printf("read %d%%, keys %d, %d ms per point%n", readPercent, keyRange, millis);
+        for (Map.Entry<String, Supplier<ISet<Integer>>> impl : impls.entrySet()) {
+            for (int threads : ConcurrentSetBenchmark.THREADS) {
+                ISet<Integer> set = impl.getValue().get();
+                ConcurrentSetBenchmark.prefill(set, keyRange);
+                ConcurrentSetBenchmark.throughput(set, threads, readPercent, keyRange, millis / 4);
+                double opsPerSec = ConcurrentSetBenchmark.throughput(set, threads, readPercent, keyRange, millis);
+                System.out.printf("%-28s %3d threads %14.0f ops/s%n", impl.getKey(), threads, opsPerSec);
+            }
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package ru.mail.polis.bench;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Comparator;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+import ru.mail.polis.ChainHashTable;
+import ru.mail.polis.DurableSet;
+import ru.mail.polis.ISet;
+import ru.mail.polis.KeyCodec;
+
+/**
+ * Write throughput of {@link DurableSet} under every fsync policy, next to the bare set behind a
+ * lock, for one writer and for several. Group commit only pays off with several writers: they share
+ * one fsync, while {@code ALWAYS} does one per change with the lock held.
+ * <p>
+ * Usage: {@code DurableSetBenchmark [threads] [seconds] [directory]}, defaults 1,8, 2 and the
+ * temporary directory. Put the directory on the disk to be measured: tmpfs makes fsync free.
+ */
+public class DurableSetBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int[] threadCounts = BenchSupport.parseInts(args.length > 0 ? args[0] : "1,8");
+        long millis = (args.length > 1 ? Integer.parseInt(args[1]) : 2) * 1000L;
+        Path root = args.length > 2
+                ? Files.createTempDirectory(Paths.get(args[2]), "durable")
+                : Files.createTempDirectory("durable");
+
+        for (int threads : threadCounts) {
+            run("synchronized", Synchronized.set(new ChainHashTable<Integer>()), threads, millis);
+            for (DurableSet.FsyncPolicy policy : DurableSet.FsyncPolicy.values()) {
+                Path dir = root.resolve(policy + "-" + threads);
+                try (DurableSet<Integer> set = new DurableSet<>(new ChainHashTable<>(), KeyCodec.INTEGER, dir, policy)) {
+                    run(policy.toString(), set, threads, millis);
+                }
+            }
+        }
+        try (Stream<Path> files = Files.walk(root)) {
+            files.sorted(Comparator.reverseOrder()).forEach(DurableSetBenchmark::delete);
+        }
+    }
+
+    /**
+     * Every thread adds its own distinct keys for the given time, so every call is a logged change.
+     */
+    private static void run(String name, ISet<Integer> set, int threads, long millis) throws InterruptedException {
+        AtomicLong ops = new AtomicLong();
+        long deadline = System.nanoTime() + millis * 1_000_000;
+        Thread[] workers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            int offset = t;
+            workers[t] = new Thread(() -> {
+                long done = 0;
+                for (int key = offset; System.nanoTime() < deadline; key += threads) {
+                    set.add(key);
+                    done++;
+                }
+                ops.addAndGet(done);
+            });
+        }
+        BenchSupport.Measurement m = BenchSupport.start();
+        for (Thread worker : workers) {
+            worker.start();
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        m.stop(ops.get());
+        System.out.printf("%-12s %2d threads  %10.0f ops/s  %9.1f us/op%n",
+                name, threads, m.opsPerSec(), m.nsPerOp() * threads / 1000);
+    }
+
+    private static void delete(Path path) {
+        try {
+            Files.delete(path);
+        } catch (IOException e) {
+            System.err.println("can't delete " + path + ": " + e);
+        }
+    }
+}
@@ -0,0 +1,157 @@
+package ru.mail.polis.bench;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NavigableSet;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+import ru.mail.polis.ISet;
+import ru.mail.polis.ISortedSet;
+
+/**
+ * {@code java.util} baselines behind our own interfaces.
+ */
+public final class JdkSets {
+
+    private JdkSets() {
+    }
+
+    public static <E extends Comparable<E>> ISet<E> hashSet() {
+        return new SetAdapter<>(new HashSet<E>());
+    }
+
+    public static <E extends Comparable<E>> ISortedSet<E> treeSet() {
+        return new SortedSetAdapter<>(new TreeSet<E>());
+    }
+
+    public static <E extends Comparable<E>> ISet<E> concurrentHashSet() {
+        return new SetAdapter<>(ConcurrentHashMap.<E>newKeySet());
+    }
+
+    public static <E extends Comparable<E>> ISortedSet<E> concurrentSkipListSet() {
+        return new SortedSetAdapter<>(new ConcurrentSkipListSet<E>());
+    }
+
+    private static class SetAdapter<E extends Comparable<E>> implements ISet<E> {
+
+        final Set<E> set;
+
+        SetAdapter(Set<E> set) {
+            this.set = set;
+        }
+
+        @Override
+        public int size() {
+            return set.size();
+        }
+
+        @Override
+        public boolean isEmpty() {
+            return set.isEmpty();
+        }
+
+        @Override
+        public boolean contains(E value) {
+            if (value == null) {
+                throw new NullPointerException("value is null");
+            }
+            return set.contains(value);
+        }
+
+        @Override
+        public boolean add(E value) {
+            if (value == null) {
+                throw new NullPointerException("value is null");
+            }
+            return set.add(value);
+        }
+
+        @Override
+        public boolean remove(E value) {
+            if (value == null) {
+                throw new NullPointerException("value is null");
+            }
+            return set.remove(value);
+        }
+
+        @Override
+        public Iterator<E> iterator() {
+            return set.iterator();
+        }
+
+        @Override
+        public String toString() {
+            return set.getClass().getSimpleName();
+        }
+    }
+
+    private static class SortedSetAdapter<E extends Comparable<E>> extends SetAdapter<E> implements ISortedSet<E> {
+
+        SortedSetAdapter(NavigableSet<E> set) {
+            super(set);
+        }
+
+        private NavigableSet<E> navigable() {
+            return (NavigableSet<E>) set;
+        }
+
+        @Override
+        public E first() {
+            return navigable().first();
+        }
+
+        @Override
+        public E last() {
+            return navigable().last();
+        }
+
+        @Override
+        public List<E> inorderTraverse() {
+            return new ArrayList<>(set);
+        }
+
+        @Override
+        public Comparator<? super E> comparator() {
+            return navigable().comparator();
+        }
+
+        @Override
+        public E floor(E value) {
+            return navigable().floor(value);
+        }
+
+        @Override
+        public E ceiling(E value) {
+            return navigable().ceiling(value);
+        }
+
+        @Override
+        public E lower(E value) {
+            return navigable().lower(value);
+        }
+
+        @Override
+        public E higher(E value) {
+            return navigable().higher(value);
+        }
+
+        @Override
+        public Iterator<E> iterator(E from, boolean fromInclusive, E to, boolean toInclusive) {
+            NavigableSet<E> range = navigable();
+            if (from != null && to != null) {
+                range = range.subSet(from, fromInclusive, to, toInclusive);
+            } else if (from != null) {
+                range = range.tailSet(from, fromInclusive);
+            } else if (to != null) {
+                range = range.headSet(to, toInclusive);
+            }
+            return range.iterator();
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package ru.mail.polis.bench;
+
+import java.util.Random;
+
+/**
+ * Key streams fed to the benchmarks.
+ */
+public enum KeyDistribution {
+
+    /**
+     * 0, 1, 2, ... - the worst case for an unbalanced {@code BinarySearchTree}
+     */
+    SEQUENTIAL {
+        @Override
+        public Integer[] keys(int n, Random rnd) {
+            Integer[] keys = new Integer[n];
+            for (int i = 0; i < n; i++) {
+                keys[i] = i;
+            }
+            return keys;
+        }
+    },
+
+    /**
+     * distinct keys in random order
+     */
+    UNIFORM {
+        @Override
+        public Integer[] keys(int n, Random rnd) {
+            Integer[] keys = SEQUENTIAL.keys(n, rnd);
+            shuffle(keys, rnd);
+            return keys;
+        }
+    },
+
+    /**
+     * keys drawn with Zipfian popularity (theta = 0.99), so a few keys repeat a lot
+     */
+    ZIPFIAN {
+        @Override
+        public Integer[] keys(int n, Random rnd) {
+            Zipf zipf = new Zipf(n, 0.99);
+            Integer[] keys = new Integer[n];
+            for (int i = 0; i < n; i++) {
+                // scramble ranks so hot keys are not clustered at the low end of the domain
+                keys[i] = (int) ((zipf.next(rnd) * 0x9E3779B97F4A7C15L) >>> 33);
+            }
+            return keys;
+        }
+    },
+
+    /**
+     * distinct keys whose low bits of hashCode are zero (16 of them while n fits into the
+     * remaining 16 bits, fewer beyond that): they all land in the same bucket of a table
+     * indexed by {@code hashCode % length}
+     */
+    COLLISIONS {
+        @Override
+        public Integer[] keys(int n, Random rnd) {
+            int bits = 32 - Integer.numberOfLeadingZeros(Math.max(n - 1, 1));
+            int shift = Math.min(16, 32 - bits);
+            Integer[] keys = new Integer[n];
+            for (int i = 0; i < n; i++) {
+                keys[i] = i << shift;
+            }
+            shuffle(keys, rnd);
+            return keys;
+        }
+    };
+
+    public abstract Integer[] keys(int n, Random rnd);
+
+    private static void shuffle(Object[] a, Random rnd) {
+        for (int i = a.length - 1; i > 0; i--) {
+            int j = rnd.nextInt(i + 1);
+            Object tmp = a[i];
+            a[i] = a[j];
+            a[j] = tmp;
+        }
+    }
+
+    /**
+     * Gray et al. "Quickly generating billion-record synthetic databases", as used by YCSB
+     */
+    private static final class Zipf {
+
+        private final int n;
+        private final double theta;
+        private final double alpha;
+        private final double zetaN;
+        private final double eta;
+
+        Zipf(int n, double theta) {
+            this.n = n;
+            this.theta = theta;
+            this.alpha = 1.0 / (1.0 - theta);
+            this.zetaN = zeta(n, theta);
+            this.eta = (1 - Math.pow(2.0 / n, 1 - theta)) / (1 - zeta(2, theta) / zetaN);
+        }
+
+        private static double zeta(int n, double theta) {
+            double sum = 0;
+            for (int i = 1; i <= n; i++) {
+                sum += 1 / Math.pow(i, theta);
+            }
+            return sum;
+        }
+
+        long next(Random rnd) {
+            double u = rnd.nextDouble();
+            double uz = u * zetaN;
+            if (uz < 1.0) {
+                return 0;
+            }
+            if (uz < 1.0 + Math.pow(0.5, theta)) {
+                return 1;
+            }
+            return (long) (n * Math.pow(eta * u - eta + 1, alpha));
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package ru.mail.polis.bench;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.function.Supplier;
+
+import ru.mail.polis.ISortedSet;
+import ru.mail.polis.OffHeapLongTreeSet;
+import ru.mail.polis.RedBlackTree;
+
+/**
+ * What a large set of {@code long} keys costs the garbage collector: {@link OffHeapLongTreeSet}
+ * against {@link RedBlackTree} and {@code TreeSet} of boxed keys.
+ * <p>
+ * Reports heap and direct memory retained per key, the time of a full collection with the set
+ * alive (it has to trace every on-heap node), and GC count and time while lookups run with
+ * short-lived garbage allocated alongside, which is what a service holding the set would see.
+ * <p>
+ * Usage: {@code OffHeapBenchmark [sizes]}, default 1M,10M. Run with room on both sides, e.g.
+ * {@code -Xmx4g -XX:MaxDirectMemorySize=4g}.
+ */
+public class OffHeapBenchmark {
+
+    private static final int LOOKUPS = 5_000_000;
+    private static final int FULL_GCS = 3;
+
+    private static long blackhole;
+
+    public static void main(String[] args) {
+        int[] sizes = BenchSupport.parseInts(args.length > 0 ? args[0] : "1M,10M");
+        Map<String, Supplier<ISortedSet<Long>>> impls = new LinkedHashMap<>();
+        impls.put("RedBlackTree", RedBlackTree::new);
+        impls.put("TreeSet", JdkSets::treeSet);
+        impls.put("OffHeapLongTreeSet", OffHeapLongTreeSet::new);
+
+        for (int size : sizes) {
+            for (Map.Entry<String, Supplier<ISortedSet<Long>>> impl : impls.entrySet()) {
+                run(impl.getKey(), impl.getValue(), size);
+            }
+        }
+    }
+
+    private static void run(String name, Supplier<ISortedSet<Long>> factory, int size) {
+        long before = BenchSupport.usedHeap();
+        ISortedSet<Long> set = factory.get();
+        Random rnd = new Random(42);
+        while (set.size() < size) {
+            set.add(rnd.nextLong());
+        }
+        double heapPerKey = (double) (BenchSupport.usedHeap() - before) / size;
+        double directPerKey = set instanceof OffHeapLongTreeSet
+                ? (double) ((OffHeapLongTreeSet) set).offHeapBytes() / size : 0;
+
+        long fullGc = System.nanoTime();
+        for (int i = 0; i < FULL_GCS; i++) {
+            System.gc();
+        }
+        double fullGcMillis = (System.nanoTime() - fullGc) / 1e6 / FULL_GCS;
+
+        // every lookup also allocates a little garbage, so young collections keep happening
+        long sink = 0;
+        Object[] garbage = new Object[64];
+        BenchSupport.Measurement lookups = BenchSupport.start();
+        for (int i = 0; i < LOOKUPS; i++) {
+            sink += set.contains(rnd.nextLong()) ? 1 : 0;
+            garbage[i & 63] = new long[8];
+        }
+        lookups.stop(LOOKUPS);
+        blackhole += sink + garbage.length;
+
+        System.out.printf("%-18s %9d  heap %6.1f B/key  direct %5.1f B/key  full gc %7.1f ms  lookups %s%n",
+                name, size, heapPerKey, directPerKey, fullGcMillis, lookups);
+    }
+}
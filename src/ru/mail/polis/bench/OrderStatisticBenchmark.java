@@ -0,0 +1,85 @@
+package ru.mail.polis.bench;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.function.Supplier;
+
+import ru.mail.polis.AVLTree;
+import ru.mail.polis.IOrderStatisticSet;
+import ru.mail.polis.RedBlackTree;
+
+/**
+ * Percentile ({@code select}), rank and range-count queries answered from subtree sizes, against
+ * the full {@code inorderTraverse} scan they replace.
+ * <p>
+ * Usage: {@code OrderStatisticBenchmark [sizes]}, default 10K,100K,1M.
+ */
+public class OrderStatisticBenchmark {
+
+    private static final int QUERIES = 1_000_000;
+    private static final int SCANS = 20;
+
+    private static long blackhole;
+
+    public static void main(String[] args) {
+        int[] sizes = BenchSupport.parseInts(args.length > 0 ? args[0] : "10K,100K,1M");
+        Map<String, Supplier<IOrderStatisticSet<Integer>>> impls = new LinkedHashMap<>();
+        impls.put("AVLTree", AVLTree::new);
+        impls.put("RedBlackTree", RedBlackTree::new);
+
+        for (int size : sizes) {
+            Integer[] keys = KeyDistribution.UNIFORM.keys(size, new Random(42));
+            for (Map.Entry<String, Supplier<IOrderStatisticSet<Integer>>> impl : impls.entrySet()) {
+                IOrderStatisticSet<Integer> set = impl.getValue().get();
+                for (Integer key : keys) {
+                    set.add(key);
+                }
+                for (int round = 0; round < 2; round++) {
+                    run(impl.getKey(), set, keys, round == 1);
+                }
+            }
+        }
+    }
+
+    private static void run(String name, IOrderStatisticSet<Integer> set, Integer[] keys, boolean measured) {
+        Random rnd = new Random(7);
+        int n = set.size();
+        long sink = 0;
+
+        BenchSupport.Measurement select = BenchSupport.start();
+        for (int i = 0; i < QUERIES; i++) {
+            sink += set.select(rnd.nextInt(n));
+        }
+        select.stop(QUERIES);
+
+        BenchSupport.Measurement rank = BenchSupport.start();
+        for (int i = 0; i < QUERIES; i++) {
+            sink += set.rank(keys[rnd.nextInt(keys.length)]);
+        }
+        rank.stop(QUERIES);
+
+        BenchSupport.Measurement count = BenchSupport.start();
+        for (int i = 0; i < QUERIES; i++) {
+            Integer from = keys[rnd.nextInt(keys.length)];
+            sink += set.countInRange(from, from + 1_000_000);
+        }
+        count.stop(QUERIES);
+
+        BenchSupport.Measurement scan = BenchSupport.start();
+        for (int i = 0; i < SCANS; i++) {
+            List<Integer> all = set.inorderTraverse();
+            sink += all.get(all.size() * 99 / 100);
+        }
+        scan.stop(SCANS);
+        blackhole += sink;
+
+        if (measured) {
+            System.out.printf("%-12s %9d select      %s%n", name, n, select);
+            System.out.printf("%-12s %9d rank        %s%n", name, n, rank);
+            System.out.printf("%-12s %9d count       %s%n", name, n, count);
+            System.out.printf("%-12s %9d p99 by scan %s%n", name, n, scan);
+        }
+    }
+}
@@ -0,0 +1,138 @@
+package ru.mail.polis.bench;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import ru.mail.polis.AVLTree;
+import ru.mail.polis.ISet;
+import ru.mail.polis.ISortedSet;
+import ru.mail.polis.PersistentSortedSet;
+import ru.mail.polis.RedBlackTree;
+
+/**
+ * What path copying costs and what it buys.
+ * <p>
+ * Writes: ns and bytes allocated per add and remove of {@link PersistentSortedSet} against the
+ * mutable trees. Snapshots: the time to take a consistent view, O(1) against copying the elements
+ * out with {@code inorderTraverse}. Reads under mutation: lookups per second of reader threads
+ * while one writer keeps adding and removing, readers querying snapshots without locks against
+ * readers sharing a lock with the writer on an {@link AVLTree}.
+ * <p>
+ * Usage: {@code PersistentSetBenchmark [size] [readers] [seconds]}, defaults 1M, 1,4 and 2.
+ */
+public class PersistentSetBenchmark {
+
+    /**
+     * lookups a reader makes on one snapshot before taking a fresh one
+     */
+    private static final int LOOKUPS_PER_SNAPSHOT = 1000;
+
+    private static long blackhole;
+
+    public static void main(String[] args) throws InterruptedException {
+        int size = args.length > 0 ? BenchSupport.parseSize(args[0]) : 1_000_000;
+        int[] readerCounts = BenchSupport.parseInts(args.length > 1 ? args[1] : "1,4");
+        long millis = (args.length > 2 ? Integer.parseInt(args[2]) : 2) * 1000L;
+        Integer[] keys = KeyDistribution.UNIFORM.keys(size, new Random(42));
+
+        Map<String, Supplier<ISet<Integer>>> impls = new LinkedHashMap<>();
+        impls.put("PersistentSortedSet", PersistentSortedSet::new);
+        impls.put("AVLTree", AVLTree::new);
+        impls.put("RedBlackTree", RedBlackTree::new);
+        for (int round = 0; round < 2; round++) {
+            for (Map.Entry<String, Supplier<ISet<Integer>>> impl : impls.entrySet()) {
+                ISet<Integer> set = impl.getValue().get();
+                BenchSupport.Measurement adds = BenchSupport.start();
+                for (Integer key : keys) {
+                    set.add(key);
+                }
+                adds.stop(size);
+                BenchSupport.Measurement removes = BenchSupport.start();
+                for (Integer key : keys) {
+                    set.remove(key);
+                }
+                removes.stop(size);
+                if (round == 1) {
+                    System.out.printf("%-20s add %8.1f ns/op %7.1f B/op   remove %8.1f ns/op %7.1f B/op%n",
+                            impl.getKey(), adds.nsPerOp(), adds.bytesPerOp(), removes.nsPerOp(), removes.bytesPerOp());
+                }
+            }
+        }
+
+        PersistentSortedSet<Integer> persistent = new PersistentSortedSet<>();
+        AVLTree<Integer> tree = new AVLTree<>();
+        for (Integer key : keys) {
+            persistent.add(key);
+            tree.add(key);
+        }
+        long started = System.nanoTime();
+        blackhole += persistent.snapshot().size();
+        System.out.printf("%nsnapshot()          %12.3f ms%n", (System.nanoTime() - started) / 1e6);
+        started = System.nanoTime();
+        List<Integer> copy = tree.inorderTraverse();
+        blackhole += copy.size();
+        System.out.printf("inorderTraverse()   %12.3f ms%n%n", (System.nanoTime() - started) / 1e6);
+
+        ISortedSet<Integer> locked = Synchronized.sortedSet(tree);
+        for (int readers : readerCounts) {
+            run("snapshots", persistent, persistent::snapshot, keys, readers, millis);
+            run("lock", locked, () -> locked, keys, readers, millis);
+        }
+    }
+
+    /**
+     * @param view gives a reader the set to query for its next {@link #LOOKUPS_PER_SNAPSHOT} lookups
+     */
+    private static void run(String name, ISet<Integer> set, Supplier<ISet<Integer>> view, Integer[] keys,
+                            int readers, long millis) throws InterruptedException {
+        AtomicBoolean stop = new AtomicBoolean();
+        AtomicLong reads = new AtomicLong();
+        AtomicLong writes = new AtomicLong();
+        Thread[] threads = new Thread[readers + 1];
+        threads[0] = new Thread(() -> {
+            Random rnd = new Random(1);
+            long done = 0;
+            while (!stop.get()) {
+                Integer key = keys[rnd.nextInt(keys.length)];
+                set.remove(key);
+                set.add(key);
+                done += 2;
+            }
+            writes.addAndGet(done);
+        });
+        for (int r = 1; r <= readers; r++) {
+            int seed = r;
+            threads[r] = new Thread(() -> {
+                Random rnd = new Random(seed);
+                long done = 0;
+                long found = 0;
+                while (!stop.get()) {
+                    ISet<Integer> snapshot = view.get();
+                    for (int i = 0; i < LOOKUPS_PER_SNAPSHOT; i++) {
+                        found += snapshot.contains(keys[rnd.nextInt(keys.length)]) ? 1 : 0;
+                    }
+                    done += LOOKUPS_PER_SNAPSHOT;
+                }
+                reads.addAndGet(done);
+                synchronized (PersistentSetBenchmark.class) {
+                    blackhole += found;
+                }
+            });
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        Thread.sleep(millis);
+        stop.set(true);
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        System.out.printf("%-10s %2d readers  reads %12.0f /s   writes %12.0f /s%n",
+                name, readers, reads.get() * 1000.0 / millis, writes.get() * 1000.0 / millis);
+    }
+}
@@ -0,0 +1,173 @@
+package ru.mail.polis.bench;
+
+import java.util.Random;
+
+import ru.mail.polis.ChainHashTable;
+import ru.mail.polis.ISet;
+import ru.mail.polis.IntOpenHashSet;
+import ru.mail.polis.LongOpenHashSet;
+import ru.mail.polis.OpenHashTable;
+
+/**
+ * Heap bytes per entry and ops/s of {@link IntOpenHashSet} / {@link LongOpenHashSet}
+ * against the generic hash tables and {@code java.util.HashSet} holding the same ids.
+ * <p>
+ * Keys start out as primitives, as they would when read from the wire, so the generic
+ * tables pay for boxing just like they do in production.
+ * Usage: {@code PrimitiveSetBenchmark [sizes]}, run with {@code -Xmx8g} for 10M.
+ */
+public class PrimitiveSetBenchmark {
+
+    private interface Subject {
+        Object build(int[] keys);
+
+        long contains(Object set, int[] keys);
+
+        long remove(Object set, int[] keys);
+    }
+
+    public static void main(String[] args) {
+        int[] sizes = BenchSupport.parseInts(args.length > 0 ? args[0] : "1M,10M");
+        for (int size : sizes) {
+            int[] keys = new int[size];
+            Random rnd = new Random(42);
+            for (int i = 0; i < size; i++) {
+                keys[i] = rnd.nextInt();
+            }
+            run("IntOpenHashSet", intSet(), keys);
+            run("LongOpenHashSet", longSet(), keys);
+            run("ChainHashTable", generic(ChainHashTable::new), keys);
+            run("OpenHashTable", generic(OpenHashTable::new), keys);
+            run("HashSet", generic(JdkSets::hashSet), keys);
+        }
+    }
+
+    private static long blackhole;
+
+    private static void run(String name, Subject subject, int[] keys) {
+        // warm-up on a smaller copy so the measured run is compiled code
+        int[] warm = java.util.Arrays.copyOf(keys, Math.min(keys.length, 200_000));
+        for (int i = 0; i < 3; i++) {
+            blackhole += subject.contains(subject.build(warm), warm);
+        }
+
+        long before = BenchSupport.usedHeap();
+        BenchSupport.Measurement add = BenchSupport.start();
+        Object set = subject.build(keys);
+        add.stop(keys.length);
+        long bytes = BenchSupport.usedHeap() - before;
+
+        BenchSupport.Measurement contains = BenchSupport.start();
+        blackhole += subject.contains(set, keys);
+        contains.stop(keys.length);
+
+        BenchSupport.Measurement remove = BenchSupport.start();
+        blackhole += subject.remove(set, keys);
+        remove.stop(keys.length);
+
+        System.out.printf("%-16s %9d %6.1f B/entry | add %12.0f ops/s | contains %12.0f ops/s | remove %12.0f ops/s%n",
+                name, keys.length, (double) bytes / keys.length,
+                add.opsPerSec(), contains.opsPerSec(), remove.opsPerSec());
+    }
+
+    private static Subject intSet() {
+        return new Subject() {
+            @Override
+            public Object build(int[] keys) {
+                IntOpenHashSet set = new IntOpenHashSet();
+                for (int key : keys) {
+                    set.add(key);
+                }
+                return set;
+            }
+
+            @Override
+            public long contains(Object set, int[] keys) {
+                IntOpenHashSet s = (IntOpenHashSet) set;
+                long hits = 0;
+                for (int key : keys) {
+                    hits += s.contains(key) ? 1 : 0;
+                }
+                return hits;
+            }
+
+            @Override
+            public long remove(Object set, int[] keys) {
+                IntOpenHashSet s = (IntOpenHashSet) set;
+                long hits = 0;
+                for (int key : keys) {
+                    hits += s.remove(key) ? 1 : 0;
+                }
+                return hits;
+            }
+        };
+    }
+
+    private static Subject longSet() {
+        return new Subject() {
+            @Override
+            public Object build(int[] keys) {
+                LongOpenHashSet set = new LongOpenHashSet();
+                for (int key : keys) {
+                    set.add(key);
+                }
+                return set;
+            }
+
+            @Override
+            public long contains(Object set, int[] keys) {
+                LongOpenHashSet s = (LongOpenHashSet) set;
+                long hits = 0;
+                for (int key : keys) {
+                    hits += s.contains(key) ? 1 : 0;
+                }
+                return hits;
+            }
+
+            @Override
+            public long remove(Object set, int[] keys) {
+                LongOpenHashSet s = (LongOpenHashSet) set;
+                long hits = 0;
+                for (int key : keys) {
+                    hits += s.remove(key) ? 1 : 0;
+                }
+                return hits;
+            }
+        };
+    }
+
+    private static Subject generic(java.util.function.Supplier<ISet<Integer>> factory) {
+        return new Subject() {
+            @Override
+            public Object build(int[] keys) {
+                ISet<Integer> set = factory.get();
+                for (int key : keys) {
+                    set.add(key);
+                }
+                return set;
+            }
+
+            @Override
+            @SuppressWarnings("unchecked")
+            public long contains(Object set, int[] keys) {
+                ISet<Integer> s = (ISet<Integer>) set;
+                long hits = 0;
+                for (int key : keys) {
+                    hits += s.contains(key) ? 1 : 0;
+                }
+                return hits;
+            }
+
+            @Override
+            @SuppressWarnings("unchecked")
+            public long remove(Object set, int[] keys) {
+                ISet<Integer> s = (ISet<Integer>) set;
+                long hits = 0;
+                for (int key : keys) {
+                    hits += s.remove(key) ? 1 : 0;
+                }
+                return hits;
+            }
+        };
+    }
+}
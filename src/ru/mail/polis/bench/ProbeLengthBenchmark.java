@@ -0,0 +1,68 @@
+package ru.mail.polis.bench;
+
+import java.util.Random;
+
+import ru.mail.polis.ChainHashTable;
+import ru.mail.polis.Hasher;
+import ru.mail.polis.OpenHashTable;
+
+/**
+ * Probe lengths of {@link OpenHashTable} per key distribution: average and maximum once all keys
+ * are in, and the worst maximum seen at the fullest moments (load factor just under 1/2).
+ * <p>
+ * Then bucket lengths of {@link ChainHashTable} and probe lengths of {@link OpenHashTable} with
+ * {@link Hasher#identity()} against {@link Hasher#murmur()}, for every distribution and for
+ * low-entropy string ids ("user-" + number) whose hash codes differ only in the last few digits.
+ */
+public class ProbeLengthBenchmark {
+
+    public static void main(String[] args) {
+        int[] sizes = BenchSupport.parseInts(args.length > 0 ? args[0] : "1K,64K,1M");
+        for (KeyDistribution distribution : KeyDistribution.values()) {
+            for (int size : sizes) {
+                Integer[] keys = distribution.keys(size, new Random(42));
+                OpenHashTable<Integer> table = new OpenHashTable<>();
+                int maxEver = 0;
+                for (Integer key : keys) {
+                    if (!table.add(key)) {
+                        continue;
+                    }
+                    // 2^k - 1 elements: the fullest the table gets before the next resize
+                    int n = table.size();
+                    if ((n & (n + 1)) == 0 && n > 8) {
+                        maxEver = Math.max(maxEver, table.maxProbeLength());
+                    }
+                }
+                System.out.printf("%-10s %9d elements %9d  probe avg %5.2f max %3d  worst seen %3d%n",
+                        distribution, size, table.size(), table.averageProbeLength(), table.maxProbeLength(), maxEver);
+            }
+        }
+
+        System.out.println();
+        for (int size : sizes) {
+            for (KeyDistribution distribution : KeyDistribution.values()) {
+                compare(distribution.toString(), distribution.keys(size, new Random(42)));
+            }
+            String[] ids = new String[size];
+            for (int i = 0; i < size; i++) {
+                ids[i] = "user-" + i;
+            }
+            compare("user-ids", ids);
+        }
+    }
+
+    private static <E extends Comparable<E>> void compare(String name, E[] keys) {
+        for (String hasherName : new String[]{"identity", "murmur"}) {
+            Hasher<E> hasher = hasherName.equals("identity") ? Hasher.identity() : Hasher.murmur();
+            ChainHashTable<E> chained = new ChainHashTable<>(null, hasher, false);
+            OpenHashTable<E> open = new OpenHashTable<>(null, hasher);
+            for (E key : keys) {
+                chained.add(key);
+                open.add(key);
+            }
+            System.out.printf("%-10s %9d elements  %-8s  chain avg %5.2f max %4d  probe avg %8.2f max %6d%n",
+                    name, keys.length, hasherName, chained.averageChainLength(), chained.maxChainLength(),
+                    open.averageProbeLength(), open.maxProbeLength());
+        }
+    }
+}
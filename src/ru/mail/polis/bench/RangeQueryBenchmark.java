@@ -0,0 +1,125 @@
+package ru.mail.polis.bench;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.function.Supplier;
+
+import ru.mail.polis.AVLTree;
+import ru.mail.polis.BTreeSet;
+import ru.mail.polis.BinarySearchTree;
+import ru.mail.polis.ISortedSet;
+import ru.mail.polis.RedBlackTree;
+
+/**
+ * "All keys in [from, to)" on the tree sets: lazy range iterators against copying the whole set
+ * with {@code inorderTraverse} and filtering it, for narrow and wide ranges, plus {@code floor} /
+ * {@code ceiling} lookups.
+ * <p>
+ * A range iterator costs O(log n + k), so ns per range grows with the width k while ns per key
+ * returned stays flat; the copy costs O(n) whatever the width.
+ * <p>
+ * Usage: {@code RangeQueryBenchmark [size] [widths]}, defaults 1M and 10,1K,100K.
+ */
+public class RangeQueryBenchmark {
+
+    private static final int KEYS_PER_ROUND = 5_000_000;
+
+    private static long blackhole;
+
+    public static void main(String[] args) {
+        int size = args.length > 0 ? BenchSupport.parseSize(args[0]) : 1_000_000;
+        int[] widths = BenchSupport.parseInts(args.length > 1 ? args[1] : "10,1K,100K");
+
+        Map<String, Supplier<ISortedSet<Integer>>> impls = new LinkedHashMap<>();
+        impls.put("BinarySearchTree", BinarySearchTree::new);
+        impls.put("AVLTree", AVLTree::new);
+        impls.put("RedBlackTree", RedBlackTree::new);
+        impls.put("BTreeSet", BTreeSet::new);
+        impls.put("TreeSet", JdkSets::treeSet);
+
+        // even keys only, so half of the lookups miss
+        Integer[] keys = KeyDistribution.UNIFORM.keys(size, new Random(42));
+        for (int i = 0; i < size; i++) {
+            keys[i] = (keys[i] % size) * 2;
+        }
+        for (Map.Entry<String, Supplier<ISortedSet<Integer>>> impl : impls.entrySet()) {
+            ISortedSet<Integer> set = impl.getValue().get();
+            for (Integer key : keys) {
+                set.add(key);
+            }
+            for (int round = 0; round < 2; round++) {
+                boolean measured = round == 1;
+                lookups(impl.getKey(), set, size, measured);
+                for (int width : widths) {
+                    ranges(impl.getKey(), set, size, width, measured);
+                }
+                copyAndFilter(impl.getKey(), set, size, widths[0], measured);
+            }
+        }
+    }
+
+    private static void lookups(String name, ISortedSet<Integer> set, int size, boolean measured) {
+        Random rnd = new Random(7);
+        int queries = 1_000_000;
+        long sink = 0;
+        BenchSupport.Measurement m = BenchSupport.start();
+        for (int i = 0; i < queries; i++) {
+            int key = rnd.nextInt(size * 2);
+            Integer floor = set.floor(key);
+            Integer ceiling = set.ceiling(key);
+            sink += (floor == null ? 0 : floor) + (ceiling == null ? 0 : ceiling);
+        }
+        m.stop(queries * 2L);
+        blackhole += sink;
+        if (measured) {
+            System.out.printf("%-16s floor/ceiling           %s%n", name, m);
+        }
+    }
+
+    private static void ranges(String name, ISortedSet<Integer> set, int size, int width, boolean measured) {
+        Random rnd = new Random(7);
+        int queries = Math.max(10, KEYS_PER_ROUND / width);
+        long returned = 0;
+        BenchSupport.Measurement m = BenchSupport.start();
+        for (int i = 0; i < queries; i++) {
+            int from = rnd.nextInt(size * 2);
+            // keys are even, so the range [from, from + 2 * width) holds about width keys
+            Iterator<Integer> it = set.iterator(from, true, from + 2 * width, false);
+            while (it.hasNext()) {
+                returned += it.next() & 1;
+                returned++;
+            }
+        }
+        m.stop(queries);
+        blackhole += returned;
+        if (measured) {
+            System.out.printf("%-16s range width %-9d %s  %8.1f ns/key%n",
+                    name, width, m, m.nsPerOp() * queries / Math.max(1, returned));
+        }
+    }
+
+    private static void copyAndFilter(String name, ISortedSet<Integer> set, int size, int width, boolean measured) {
+        Random rnd = new Random(7);
+        int queries = 20;
+        long returned = 0;
+        BenchSupport.Measurement m = BenchSupport.start();
+        for (int i = 0; i < queries; i++) {
+            int from = rnd.nextInt(size * 2);
+            int to = from + 2 * width;
+            List<Integer> all = set.inorderTraverse();
+            for (Integer key : all) {
+                if (key >= from && key < to) {
+                    returned++;
+                }
+            }
+        }
+        m.stop(queries);
+        blackhole += returned;
+        if (measured) {
+            System.out.printf("%-16s copy+filter width %-4d %s%n", name, width, m);
+        }
+    }
+}
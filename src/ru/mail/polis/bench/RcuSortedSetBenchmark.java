@@ -0,0 +1,119 @@
+package ru.mail.polis.bench;
+
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+import ru.mail.polis.ISet;
+import ru.mail.polis.RcuSortedSet;
+import ru.mail.polis.RedBlackTree;
+
+/**
+ * One writer, N readers: lookups per second of the readers while the writer keeps replacing keys,
+ * for {@link RcuSortedSet} publishing every change or batches of them, against
+ * {@link RedBlackTree} behind a lock and {@code java.util.concurrent.ConcurrentSkipListSet}.
+ * For the RCU set it also prints how many versions were published and how long the writer's
+ * changes waited before readers could see them.
+ * <p>
+ * Usage: {@code RcuSortedSetBenchmark [size] [readers] [batches] [seconds]},
+ * defaults 1M, 1,4,16, 1,64 and 2.
+ */
+public class RcuSortedSetBenchmark {
+
+    private static long blackhole;
+
+    public static void main(String[] args) throws InterruptedException {
+        int size = args.length > 0 ? BenchSupport.parseSize(args[0]) : 1_000_000;
+        int[] readerCounts = BenchSupport.parseInts(args.length > 1 ? args[1] : "1,4,16");
+        int[] batchSizes = BenchSupport.parseInts(args.length > 2 ? args[2] : "1,64");
+        long millis = (args.length > 3 ? Integer.parseInt(args[3]) : 2) * 1000L;
+        Integer[] keys = KeyDistribution.UNIFORM.keys(size, new Random(42));
+
+        for (int readers : readerCounts) {
+            for (int batch : batchSizes) {
+                RcuSortedSet<Integer> rcu = new RcuSortedSet<>();
+                rcu.addAll(keys);
+                run("rcu, batch " + batch, rcu, writer(rcu, keys, batch), keys, readers, millis);
+                System.out.printf("%38s %d versions, staleness max %.1f us%n",
+                        "", rcu.version(), rcu.maxStalenessNanos() / 1000.0);
+            }
+            ISet<Integer> locked = Synchronized.sortedSet(new RedBlackTree<Integer>());
+            locked.addAll(keys);
+            run("synchronized RedBlackTree", locked, writer(locked, keys), keys, readers, millis);
+            ISet<Integer> skipList = JdkSets.concurrentSkipListSet();
+            skipList.addAll(keys);
+            run("ConcurrentSkipListSet", skipList, writer(skipList, keys), keys, readers, millis);
+        }
+    }
+
+    /**
+     * @return a writer step replacing a random key, two changes
+     */
+    private static Consumer<Random> writer(ISet<Integer> set, Integer[] keys) {
+        return rnd -> {
+            Integer key = keys[rnd.nextInt(keys.length)];
+            set.remove(key);
+            set.add(key);
+        };
+    }
+
+    /**
+     * @return a writer step replacing {@code batch} random keys, published at once
+     */
+    private static Consumer<Random> writer(RcuSortedSet<Integer> set, Integer[] keys, int batch) {
+        if (batch == 1) {
+            return writer((ISet<Integer>) set, keys);
+        }
+        return rnd -> set.batch(view -> {
+            for (int i = 0; i < batch; i++) {
+                Integer key = keys[rnd.nextInt(keys.length)];
+                view.remove(key);
+                view.add(key);
+            }
+        });
+    }
+
+    private static void run(String name, ISet<Integer> set, Consumer<Random> step, Integer[] keys,
+                            int readers, long millis) throws InterruptedException {
+        AtomicBoolean stop = new AtomicBoolean();
+        AtomicLong reads = new AtomicLong();
+        AtomicLong steps = new AtomicLong();
+        Thread[] threads = new Thread[readers + 1];
+        threads[0] = new Thread(() -> {
+            Random rnd = new Random(1);
+            long done = 0;
+            while (!stop.get()) {
+                step.accept(rnd);
+                done++;
+            }
+            steps.addAndGet(done);
+        });
+        for (int r = 1; r <= readers; r++) {
+            int seed = r;
+            threads[r] = new Thread(() -> {
+                Random rnd = new Random(seed);
+                long done = 0;
+                long found = 0;
+                while (!stop.get()) {
+                    found += set.contains(keys[rnd.nextInt(keys.length)]) ? 1 : 0;
+                    done++;
+                }
+                reads.addAndGet(done);
+                synchronized (RcuSortedSetBenchmark.class) {
+                    blackhole += found;
+                }
+            });
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        Thread.sleep(millis);
+        stop.set(true);
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        System.out.printf("%-26s %2d readers  reads %12.0f /s   writer steps %10.0f /s%n",
+                name, readers, reads.get() * 1000.0 / millis, steps.get() * 1000.0 / millis);
+    }
+}
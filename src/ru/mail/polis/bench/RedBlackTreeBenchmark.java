@@ -0,0 +1,70 @@
+package ru.mail.polis.bench;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.function.Supplier;
+
+import ru.mail.polis.AVLTree;
+import ru.mail.polis.ISet;
+import ru.mail.polis.RedBlackTree;
+
+/**
+ * Insert and remove throughput of {@link RedBlackTree} next to {@link AVLTree} and
+ * {@link java.util.TreeSet}, which is an iterative red-black tree with parent pointers as well.
+ * <p>
+ * Every round inserts all keys into an empty tree, then removes them in a shuffled order.
+ * Sequential keys stress the fix-ups most: every insert lands on the rightmost path.
+ * <p>
+ * Usage: {@code RedBlackTreeBenchmark [sizes]}, default 1K,100K,1M.
+ */
+public class RedBlackTreeBenchmark {
+
+    private static final int ROUNDS = 3;
+
+    public static void main(String[] args) {
+        int[] sizes = BenchSupport.parseInts(args.length > 0 ? args[0] : "1K,100K,1M");
+        Map<String, Supplier<ISet<Integer>>> impls = new LinkedHashMap<>();
+        impls.put("RedBlackTree", RedBlackTree::new);
+        impls.put("AVLTree", AVLTree::new);
+        impls.put("TreeSet", JdkSets::treeSet);
+
+        for (KeyDistribution distribution : new KeyDistribution[]{KeyDistribution.SEQUENTIAL, KeyDistribution.UNIFORM}) {
+            for (int size : sizes) {
+                Integer[] keys = distribution.keys(size, new Random(42));
+                Integer[] removals = keys.clone();
+                shuffle(removals, new Random(7));
+                for (Map.Entry<String, Supplier<ISet<Integer>>> impl : impls.entrySet()) {
+                    double insertBest = Double.MAX_VALUE;
+                    double removeBest = Double.MAX_VALUE;
+                    for (int round = 0; round < ROUNDS; round++) {
+                        ISet<Integer> set = impl.getValue().get();
+                        BenchSupport.Measurement insert = BenchSupport.start();
+                        for (Integer key : keys) {
+                            set.add(key);
+                        }
+                        insert.stop(size);
+                        BenchSupport.Measurement remove = BenchSupport.start();
+                        for (Integer key : removals) {
+                            set.remove(key);
+                        }
+                        remove.stop(size);
+                        insertBest = Math.min(insertBest, insert.nsPerOp());
+                        removeBest = Math.min(removeBest, remove.nsPerOp());
+                    }
+                    System.out.printf("%-10s %9d %-13s insert %12.0f ops/s   remove %12.0f ops/s%n",
+                            distribution, size, impl.getKey(), 1e9 / insertBest, 1e9 / removeBest);
+                }
+            }
+        }
+    }
+
+    private static void shuffle(Integer[] keys, Random rnd) {
+        for (int i = keys.length - 1; i > 0; i--) {
+            int j = rnd.nextInt(i + 1);
+            Integer tmp = keys[i];
+            keys[i] = keys[j];
+            keys[j] = tmp;
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package ru.mail.polis.bench;
+
+import java.util.Random;
+
+import ru.mail.polis.ChainHashTable;
+
+/**
+ * Per-operation latency percentiles of {@link ChainHashTable#add} with stop-the-world and
+ * incremental resizing. The median is the same; the difference is in the tail, where every
+ * doubling of a stop-the-world table shows up as one very slow add. Resizes are rare, so look at
+ * p99.999 and the count of slow adds; the max is usually a GC pause that hits both variants.
+ * <p>
+ * Usage: {@code ResizeLatencyBenchmark [size]}, default 4M.
+ */
+public class ResizeLatencyBenchmark {
+
+    public static void main(String[] args) {
+        int size = args.length > 0 ? BenchSupport.parseSize(args[0]) : 4_000_000;
+        Integer[] keys = KeyDistribution.UNIFORM.keys(size, new Random(42));
+        for (int round = 0; round < 3; round++) {
+            boolean measured = round == 2;
+            for (boolean incremental : new boolean[]{false, true}) {
+                ChainHashTable<Integer> table = new ChainHashTable<>(null, incremental);
+                BenchSupport.Latencies latencies = new BenchSupport.Latencies(size);
+                for (Integer key : keys) {
+                    long start = System.nanoTime();
+                    table.add(key);
+                    latencies.record(System.nanoTime() - start);
+                }
+                if (measured) {
+                    System.out.printf("%-16s %9d adds  %s  >100us: %d%n",
+                            incremental ? "incremental" : "stop-the-world", size, latencies,
+                            latencies.countOver(100_000));
+                }
+            }
+        }
+    }
+}
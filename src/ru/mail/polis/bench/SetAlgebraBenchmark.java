@@ -0,0 +1,110 @@
+package ru.mail.polis.bench;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.function.Function;
+
+import ru.mail.polis.AVLTree;
+import ru.mail.polis.ISortedSet;
+import ru.mail.polis.RedBlackTree;
+
+/**
+ * union / intersect / difference of a large set with sets of growing size: the split/join
+ * algorithms sequentially and on the common fork-join pool, against iterating one set and
+ * calling {@code contains} / {@code add} / {@code remove} on the other.
+ * <p>
+ * Every run works on a fresh copy of the large set, built outside of the measurement.
+ * Usage: {@code SetAlgebraBenchmark [n] [m sizes]}, defaults 1M and 1K,100K,1M.
+ */
+public class SetAlgebraBenchmark {
+
+    private static long blackhole;
+
+    public static void main(String[] args) {
+        int n = args.length > 0 ? BenchSupport.parseSize(args[0]) : 1_000_000;
+        int[] others = BenchSupport.parseInts(args.length > 1 ? args[1] : "1K,100K,1M");
+        Random rnd = new Random(42);
+        List<Integer> big = keys(n, rnd);
+        System.out.printf("parallelism %d%n", java.util.concurrent.ForkJoinPool.getCommonPoolParallelism());
+        for (int m : others) {
+            List<Integer> small = keys(m, rnd);
+            run("AVLTree", AVLTree::of, big, small);
+            run("RedBlackTree", RedBlackTree::of, big, small);
+        }
+    }
+
+    private static List<Integer> keys(int size, Random rnd) {
+        // twice the size of the range, so about half of the keys of two sets overlap
+        List<Integer> keys = new ArrayList<>(Arrays.asList(KeyDistribution.UNIFORM.keys(size, rnd)));
+        keys.replaceAll(key -> key % (size * 2));
+        return keys;
+    }
+
+    private static void run(String name, Function<List<Integer>, ISortedSet<Integer>> factory,
+                            List<Integer> big, List<Integer> small) {
+        ISortedSet<Integer> other = factory.apply(small);
+        for (int round = 0; round < 3; round++) {
+            boolean measured = round == 2;
+            for (String op : new String[]{"union", "intersect", "difference"}) {
+                measure(name, op, "contains loop", big, other, factory, measured);
+                measure(name, op, "split/join", big, other, factory, measured);
+                measure(name, op, "parallel", big, other, factory, measured);
+            }
+        }
+    }
+
+    private static void measure(String name, String op, String mode, List<Integer> big, ISortedSet<Integer> other,
+                                Function<List<Integer>, ISortedSet<Integer>> factory, boolean measured) {
+        ISortedSet<Integer> set = factory.apply(big);
+        BenchSupport.Measurement m = BenchSupport.start();
+        switch (mode) {
+            case "contains loop":
+                loop(op, set, other);
+                break;
+            case "split/join":
+                blackhole += op.equals("union") ? (set.union(other) ? 1 : 0)
+                        : op.equals("intersect") ? (set.intersect(other) ? 1 : 0) : (set.difference(other) ? 1 : 0);
+                break;
+            default:
+                blackhole += op.equals("union") ? (set.parallelUnion(other) ? 1 : 0)
+                        : op.equals("intersect") ? (set.parallelIntersect(other) ? 1 : 0)
+                        : (set.parallelDifference(other) ? 1 : 0);
+        }
+        m.stop(1);
+        blackhole += set.size();
+        if (measured) {
+            System.out.printf("%-12s n=%-8d m=%-8d %-10s %-13s %10.2f ms  %s%n", name, big.size(), other.size(),
+                    op, mode, m.nsPerOp() / 1e6, m);
+        }
+    }
+
+    /**
+     * What we did before: walk the smaller side and look every element up in the other one.
+     */
+    private static void loop(String op, ISortedSet<Integer> set, ISortedSet<Integer> other) {
+        switch (op) {
+            case "union":
+                for (Integer value : other) {
+                    set.add(value);
+                }
+                break;
+            case "intersect":
+                List<Integer> absent = new ArrayList<>();
+                for (Integer value : set) {
+                    if (!other.contains(value)) {
+                        absent.add(value);
+                    }
+                }
+                for (Integer value : absent) {
+                    set.remove(value);
+                }
+                break;
+            default:
+                for (Integer value : other) {
+                    set.remove(value);
+                }
+        }
+    }
+}
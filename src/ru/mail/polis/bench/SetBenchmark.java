@@ -0,0 +1,161 @@
+package ru.mail.polis.bench;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.function.Supplier;
+
+import ru.mail.polis.AVLTree;
+import ru.mail.polis.BTreeSet;
+import ru.mail.polis.BinarySearchTree;
+import ru.mail.polis.ChainHashTable;
+import ru.mail.polis.ISet;
+import ru.mail.polis.ISortedSet;
+import ru.mail.polis.OpenHashTable;
+import ru.mail.polis.RedBlackTree;
+
+/**
+ * add / contains / remove / inorderTraverse across every set implementation and the JDK baselines.
+ * <p>
+ * Usage: {@code SetBenchmark [sizes] [distributions] [implementations]}, e.g.
+ * {@code SetBenchmark 1K,100K,10M UNIFORM,ZIPFIAN AVLTree,TreeSet}. Every argument is optional.
+ * Run with a heap large enough for the biggest size, e.g. {@code -Xmx8g}.
+ */
+public class SetBenchmark {
+
+    private static final int OPS_PER_ROUND = 1_000_000;
+    /**
+     * An unbalanced tree fed sorted keys is a linked list; beyond this size a round takes minutes.
+     */
+    private static final int DEGENERATE_LIMIT = 20_000;
+
+    static Map<String, Supplier<ISet<Integer>>> implementations() {
+        Map<String, Supplier<ISet<Integer>>> impls = new LinkedHashMap<>();
+        impls.put("BinarySearchTree", BinarySearchTree::new);
+        impls.put("AVLTree", AVLTree::new);
+        impls.put("RedBlackTree", RedBlackTree::new);
+        impls.put("BTreeSet", BTreeSet::new);
+        impls.put("ChainHashTable", ChainHashTable::new);
+        impls.put("OpenHashTable", OpenHashTable::new);
+        impls.put("HashSet", JdkSets::hashSet);
+        impls.put("TreeSet", JdkSets::treeSet);
+        return impls;
+    }
+
+    public static void main(String[] args) {
+        int[] sizes = BenchSupport.parseInts(args.length > 0 ? args[0] : "1K,10K,100K,1M,10M");
+        List<KeyDistribution> distributions = new ArrayList<>();
+        if (args.length > 1) {
+            for (String name : args[1].split(",")) {
+                distributions.add(KeyDistribution.valueOf(name.trim().toUpperCase()));
+            }
+        } else {
+            for (KeyDistribution d : KeyDistribution.values()) {
+                distributions.add(d);
+            }
+        }
+        Map<String, Supplier<ISet<Integer>>> impls = implementations();
+        if (args.length > 2) {
+            impls.keySet().retainAll(java.util.Arrays.asList(args[2].split(",")));
+        }
+
+        for (int size : sizes) {
+            for (KeyDistribution distribution : distributions) {
+                Integer[] keys = distribution.keys(size, new Random(42));
+                Integer[] misses = new Integer[size];
+                for (int i = 0; i < size; i++) {
+                    // the distributions above never produce negative keys except by overflow
+                    misses[i] = -1 - (keys[i] & Integer.MAX_VALUE);
+                }
+                for (Map.Entry<String, Supplier<ISet<Integer>>> impl : impls.entrySet()) {
+                    if (impl.getKey().equals("BinarySearchTree") && size > DEGENERATE_LIMIT
+                            && distribution == KeyDistribution.SEQUENTIAL) {
+                        System.out.printf("%-16s %-10s %9d skipped: degenerates to a list%n",
+                                impl.getKey(), distribution, size);
+                        continue;
+                    }
+                    run(impl.getKey(), impl.getValue(), distribution, keys, misses);
+                }
+            }
+        }
+    }
+
+    private static void run(String name, Supplier<ISet<Integer>> factory, KeyDistribution distribution,
+                            Integer[] keys, Integer[] misses) {
+        int rounds = Math.max(1, OPS_PER_ROUND / keys.length);
+        // warm-up with the same shape of work so the JIT sees the measured code paths
+        round(factory, keys, misses, rounds, null);
+        Map<String, BenchSupport.Measurement> results = new LinkedHashMap<>();
+        round(factory, keys, misses, rounds, results);
+        for (Map.Entry<String, BenchSupport.Measurement> e : results.entrySet()) {
+            System.out.printf("%-16s %-10s %9d %-10s %s%n",
+                    name, distribution, keys.length, e.getKey(), e.getValue());
+        }
+    }
+
+    private static long blackhole;
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static void round(Supplier<ISet<Integer>> factory, Integer[] keys, Integer[] misses, int rounds,
+                              Map<String, BenchSupport.Measurement> results) {
+        ISet<Integer>[] sets = new ISet[rounds];
+        for (int r = 0; r < rounds; r++) {
+            sets[r] = factory.get();
+        }
+        long ops = (long) rounds * keys.length;
+        long sink = 0;
+
+        BenchSupport.Measurement m = BenchSupport.start();
+        for (ISet<Integer> set : sets) {
+            for (Integer key : keys) {
+                sink += set.add(key) ? 1 : 0;
+            }
+        }
+        record(results, "add", m.stop(ops));
+
+        m = BenchSupport.start();
+        for (ISet<Integer> set : sets) {
+            for (Integer key : keys) {
+                sink += set.contains(key) ? 1 : 0;
+            }
+        }
+        record(results, "hit", m.stop(ops));
+
+        m = BenchSupport.start();
+        for (ISet<Integer> set : sets) {
+            for (Integer key : misses) {
+                sink += set.contains(key) ? 1 : 0;
+            }
+        }
+        record(results, "miss", m.stop(ops));
+
+        if (sets[0] instanceof ISortedSet) {
+            long elements = 0;
+            m = BenchSupport.start();
+            for (ISet<Integer> set : sets) {
+                List<Integer> list = ((ISortedSet<Integer>) set).inorderTraverse();
+                elements += list.size();
+                sink += list.isEmpty() ? 0 : list.get(list.size() - 1);
+            }
+            record(results, "traverse", m.stop(elements));
+        }
+
+        m = BenchSupport.start();
+        for (ISet<Integer> set : sets) {
+            for (Integer key : keys) {
+                sink += set.remove(key) ? 1 : 0;
+            }
+        }
+        record(results, "remove", m.stop(ops));
+        blackhole += sink;
+    }
+
+    private static void record(Map<String, BenchSupport.Measurement> results, String phase,
+                               BenchSupport.Measurement m) {
+        if (results != null) {
+            results.put(phase, m);
+        }
+    }
+}
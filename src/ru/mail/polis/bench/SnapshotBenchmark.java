@@ -0,0 +1,90 @@
+package ru.mail.polis.bench;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Random;
+
+import ru.mail.polis.ChainHashTable;
+import ru.mail.polis.KeyCodec;
+import ru.mail.polis.MappedSortedSet;
+import ru.mail.polis.RedBlackTree;
+
+/**
+ * Restart cost: rebuilding a set key by key against writing a snapshot once and reopening it.
+ * <p>
+ * Reports the time to write the snapshot, to map it, to answer lookups straight from the mapping
+ * (the first ones fault the pages in), and to thaw it back into a mutable {@link RedBlackTree}
+ * and {@link ChainHashTable}, next to inserting the same keys into empty ones.
+ * <p>
+ * Usage: {@code SnapshotBenchmark [size] [directory]}, defaults 10M and the temporary directory.
+ */
+public class SnapshotBenchmark {
+
+    private static final int LOOKUPS = 1_000_000;
+
+    private static long blackhole;
+
+    public static void main(String[] args) throws IOException {
+        int size = args.length > 0 ? BenchSupport.parseSize(args[0]) : 10_000_000;
+        Path dir = args.length > 1
+                ? Files.createTempDirectory(Paths.get(args[1]), "snapshot")
+                : Files.createTempDirectory("snapshot");
+        Integer[] keys = KeyDistribution.UNIFORM.keys(size, new Random(42));
+
+        long started = System.nanoTime();
+        RedBlackTree<Integer> tree = new RedBlackTree<>();
+        for (Integer key : keys) {
+            tree.add(key);
+        }
+        report("rebuild RedBlackTree", started);
+
+        started = System.nanoTime();
+        ChainHashTable<Integer> table = new ChainHashTable<>();
+        for (Integer key : keys) {
+            table.add(key);
+        }
+        report("rebuild ChainHashTable", started);
+
+        Path file = dir.resolve("keys.snapshot");
+        started = System.nanoTime();
+        MappedSortedSet.write(tree, KeyCodec.INTEGER, file);
+        report("write snapshot (" + Files.size(file) / 1024 / 1024 + " MB)", started);
+        tree = null;
+        table = null;
+
+        started = System.nanoTime();
+        MappedSortedSet<Integer> snapshot = MappedSortedSet.open(file, KeyCodec.INTEGER);
+        report("open snapshot", started);
+
+        Random rnd = new Random(7);
+        long sink = 0;
+        for (int round = 0; round < 2; round++) {
+            BenchSupport.Measurement lookups = BenchSupport.start();
+            for (int i = 0; i < LOOKUPS; i++) {
+                sink += snapshot.contains(keys[rnd.nextInt(size)]) ? 1 : 0;
+            }
+            lookups.stop(LOOKUPS);
+            System.out.printf("%-32s %s%n", round == 0 ? "mapped lookups, cold" : "mapped lookups, warm", lookups);
+        }
+
+        started = System.nanoTime();
+        sink += snapshot.toRedBlackTree().size();
+        report("thaw to RedBlackTree", started);
+
+        started = System.nanoTime();
+        sink += snapshot.toChainHashTable().size();
+        report("thaw to ChainHashTable", started);
+        blackhole += sink;
+
+        snapshot = null;
+        System.gc();
+        Files.deleteIfExists(file);
+        Files.deleteIfExists(dir);
+    }
+
+    private static void report(String phase, long started) {
+        System.out.printf("%-32s %10.1f ms%n", phase, (System.nanoTime() - started) / 1e6);
+    }
+}
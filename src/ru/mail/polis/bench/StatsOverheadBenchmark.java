@@ -0,0 +1,88 @@
+package ru.mail.polis.bench;
+
+import java.io.File;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.function.Supplier;
+
+import ru.mail.polis.AVLTree;
+import ru.mail.polis.ChainHashTable;
+import ru.mail.polis.ISet;
+import ru.mail.polis.OpenHashTable;
+import ru.mail.polis.RedBlackTree;
+import ru.mail.polis.SetStats;
+
+/**
+ * Cost of {@link SetStats}: the same mix of adds, lookups and removes on every instrumented set,
+ * run in two fresh JVMs, one with {@code -Dru.mail.polis.stats=false} and one with {@code =true}.
+ * The disabled run is the one that matters: its times should match those of the code before it
+ * was instrumented, since the JIT drops every guarded call site. The enabled run prints the
+ * collected counters as well.
+ * <p>
+ * Usage: {@code StatsOverheadBenchmark [size]}, default 1M.
+ */
+public class StatsOverheadBenchmark {
+
+    private static final int ROUNDS = 5;
+
+    private static long blackhole;
+
+    public static void main(String[] args) throws Exception {
+        String size = args.length > 0 ? args[0] : "1M";
+        if (args.length > 1 && args[1].equals("child")) {
+            measure(BenchSupport.parseSize(size));
+            return;
+        }
+        String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+        for (boolean enabled : new boolean[]{false, true}) {
+            System.out.println("stats " + (enabled ? "enabled" : "disabled"));
+            Process child = new ProcessBuilder(java, "-Dru.mail.polis.stats=" + enabled,
+                    "-cp", System.getProperty("java.class.path"),
+                    StatsOverheadBenchmark.class.getName(), size, "child")
+                    .inheritIO()
+                    .start();
+            if (child.waitFor() != 0) {
+                throw new IllegalStateException("benchmark JVM exited with " + child.exitValue());
+            }
+        }
+    }
+
+    private static void measure(int size) {
+        Map<String, Supplier<ISet<Integer>>> impls = new LinkedHashMap<>();
+        impls.put("AVLTree", AVLTree::new);
+        impls.put("RedBlackTree", RedBlackTree::new);
+        impls.put("ChainHashTable", ChainHashTable::new);
+        impls.put("OpenHashTable", OpenHashTable::new);
+        Integer[] keys = KeyDistribution.UNIFORM.keys(size, new Random(42));
+
+        for (Map.Entry<String, Supplier<ISet<Integer>>> impl : impls.entrySet()) {
+            double best = Double.MAX_VALUE;
+            for (int round = 0; round < ROUNDS; round++) {
+                ISet<Integer> set = impl.getValue().get();
+                BenchSupport.Measurement m = BenchSupport.start();
+                for (Integer key : keys) {
+                    set.add(key);
+                }
+                long found = 0;
+                for (Integer key : keys) {
+                    found += set.contains(key) ? 1 : 0;
+                }
+                for (Integer key : keys) {
+                    set.remove(key);
+                }
+                m.stop(3L * keys.length);
+                blackhole += found;
+                best = Math.min(best, m.nsPerOp());
+            }
+            System.out.printf("  %-15s %8.1f ns/op (best of %d)%n", impl.getKey(), best, ROUNDS);
+            if (SetStats.ENABLED) {
+                System.out.println("    " + SetStats.of(setClass(impl.getValue())));
+            }
+        }
+    }
+
+    private static Class<?> setClass(Supplier<ISet<Integer>> factory) {
+        return factory.get().getClass();
+    }
+}
@@ -0,0 +1,142 @@
+package ru.mail.polis.bench;
+
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+
+import ru.mail.polis.ISet;
+import ru.mail.polis.ISortedSet;
+
+/**
+ * Global-lock wrappers: what sharing a single-threaded set across threads costs today.
+ */
+public final class Synchronized {
+
+    private Synchronized() {
+    }
+
+    public static <E extends Comparable<E>> ISet<E> set(ISet<E> set) {
+        return new SynchronizedSet<>(set);
+    }
+
+    public static <E extends Comparable<E>> ISortedSet<E> sortedSet(ISortedSet<E> set) {
+        return new SynchronizedSortedSet<>(set);
+    }
+
+    private static class SynchronizedSet<E extends Comparable<E>> implements ISet<E> {
+
+        final ISet<E> set;
+
+        SynchronizedSet(ISet<E> set) {
+            this.set = set;
+        }
+
+        @Override
+        public synchronized int size() {
+            return set.size();
+        }
+
+        @Override
+        public synchronized boolean isEmpty() {
+            return set.isEmpty();
+        }
+
+        @Override
+        public synchronized boolean contains(E value) {
+            return set.contains(value);
+        }
+
+        @Override
+        public synchronized boolean add(E value) {
+            return set.add(value);
+        }
+
+        @Override
+        public synchronized boolean remove(E value) {
+            return set.remove(value);
+        }
+
+        @Override
+        public synchronized boolean addAll(E[] values) {
+            return set.addAll(values);
+        }
+
+        @Override
+        public synchronized boolean containsAll(E[] values, boolean[] out) {
+            return set.containsAll(values, out);
+        }
+
+        @Override
+        public synchronized boolean removeAll(E[] values) {
+            return set.removeAll(values);
+        }
+
+        /**
+         * Not synchronized: the caller must hold the lock on this set while iterating.
+         */
+        @Override
+        public Iterator<E> iterator() {
+            return set.iterator();
+        }
+    }
+
+    private static class SynchronizedSortedSet<E extends Comparable<E>> extends SynchronizedSet<E>
+            implements ISortedSet<E> {
+
+        SynchronizedSortedSet(ISortedSet<E> set) {
+            super(set);
+        }
+
+        private ISortedSet<E> sorted() {
+            return (ISortedSet<E>) set;
+        }
+
+        @Override
+        public synchronized E first() {
+            return sorted().first();
+        }
+
+        @Override
+        public synchronized E last() {
+            return sorted().last();
+        }
+
+        @Override
+        public synchronized List<E> inorderTraverse() {
+            return sorted().inorderTraverse();
+        }
+
+        @Override
+        public Comparator<? super E> comparator() {
+            return sorted().comparator();
+        }
+
+        @Override
+        public synchronized E floor(E value) {
+            return sorted().floor(value);
+        }
+
+        @Override
+        public synchronized E ceiling(E value) {
+            return sorted().ceiling(value);
+        }
+
+        @Override
+        public synchronized E lower(E value) {
+            return sorted().lower(value);
+        }
+
+        @Override
+        public synchronized E higher(E value) {
+            return sorted().higher(value);
+        }
+
+        /**
+         * Not synchronized: the caller must hold the lock on this set while iterating.
+         */
+        @Override
+        public Iterator<E> iterator(E from, boolean fromInclusive, E to, boolean toInclusive) {
+            return sorted().iterator(from, fromInclusive, to, toInclusive);
+        }
+    }
+}
@@ -0,0 +1,131 @@
+package ru.mail.polis.bench;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.function.Supplier;
+
+import ru.mail.polis.AVLTree;
+import ru.mail.polis.BinarySearchTree;
+import ru.mail.polis.ChainHashTable;
+import ru.mail.polis.ISet;
+import ru.mail.polis.OpenHashTable;
+import ru.mail.polis.RedBlackTree;
+
+/**
+ * Write path cost: ns and key comparisons per add / remove, for keys that are absent and present.
+ * <p>
+ * A tree that looks the key up with {@code contains} before descending again pays about
+ * 2 * log2(n) comparisons per write; a single-pass insert or delete about log2(n), which is
+ * printed next to the counts. Hash tables compare only keys with equal hashes, so their counts
+ * are about 1 for a present key and 0 for an absent one.
+ * <p>
+ * Usage: {@code WriteThroughputBenchmark [size]}, default 1M.
+ */
+public class WriteThroughputBenchmark {
+
+    /**
+     * Integer key that counts calls to {@link #compareTo}; single-threaded use only.
+     */
+    static final class CountingKey implements Comparable<CountingKey> {
+        static long comparisons;
+
+        final int value;
+
+        CountingKey(int value) {
+            this.value = value;
+        }
+
+        @Override
+        public int compareTo(CountingKey o) {
+            comparisons++;
+            return Integer.compare(value, o.value);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof CountingKey && ((CountingKey) o).value == value;
+        }
+
+        @Override
+        public int hashCode() {
+            return value;
+        }
+    }
+
+    private static long blackhole;
+
+    public static void main(String[] args) {
+        int size = args.length > 0 ? BenchSupport.parseSize(args[0]) : 1_000_000;
+        Map<String, Supplier<ISet<CountingKey>>> impls = new LinkedHashMap<>();
+        impls.put("BinarySearchTree", BinarySearchTree::new);
+        impls.put("AVLTree", AVLTree::new);
+        impls.put("RedBlackTree", RedBlackTree::new);
+        impls.put("ChainHashTable", ChainHashTable::new);
+        impls.put("OpenHashTable", OpenHashTable::new);
+
+        Integer[] values = KeyDistribution.UNIFORM.keys(size, new Random(42));
+        CountingKey[] keys = new CountingKey[size];
+        CountingKey[] misses = new CountingKey[size];
+        for (int i = 0; i < size; i++) {
+            keys[i] = new CountingKey(values[i] << 1);
+            misses[i] = new CountingKey((values[i] << 1) | 1);
+        }
+        System.out.printf("log2(n) = %.1f%n", Math.log(size) / Math.log(2));
+        for (Map.Entry<String, Supplier<ISet<CountingKey>>> impl : impls.entrySet()) {
+            for (int round = 0; round < 2; round++) {
+                run(impl.getKey(), impl.getValue().get(), keys, misses, round == 1);
+            }
+        }
+    }
+
+    private static void run(String name, ISet<CountingKey> set, CountingKey[] keys, CountingKey[] misses,
+                            boolean measured) {
+        long sink = 0;
+        Phase add = new Phase();
+        for (CountingKey key : keys) {
+            sink += set.add(key) ? 1 : 0;
+        }
+        add.stop(keys.length);
+
+        Phase duplicate = new Phase();
+        for (CountingKey key : keys) {
+            sink += set.add(key) ? 1 : 0;
+        }
+        duplicate.stop(keys.length);
+
+        Phase removeMiss = new Phase();
+        for (CountingKey key : misses) {
+            sink += set.remove(key) ? 1 : 0;
+        }
+        removeMiss.stop(keys.length);
+
+        Phase remove = new Phase();
+        for (CountingKey key : keys) {
+            sink += set.remove(key) ? 1 : 0;
+        }
+        remove.stop(keys.length);
+        blackhole += sink;
+
+        if (measured) {
+            System.out.printf("%-16s add %s   add dup %s   remove miss %s   remove %s%n",
+                    name, add, duplicate, removeMiss, remove);
+        }
+    }
+
+    private static final class Phase {
+        private final BenchSupport.Measurement measurement = BenchSupport.start();
+        private final long comparisons = CountingKey.comparisons;
+        private double comparisonsPerOp;
+
+        void stop(int ops) {
+            measurement.stop(ops);
+            comparisonsPerOp = (double) (CountingKey.comparisons - comparisons) / ops;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%7.1f ns %5.1f cmp", measurement.nsPerOp(), comparisonsPerOp);
+        }
+    }
+}